@@ -0,0 +1,293 @@
+package com.airbamin.desktop.mirror;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Single-producer/single-consumer ring of H.264 access units between the
+ * network thread ({@link MirrorReceiver}) and the decode thread. Slots and
+ * their byte buffers are allocated once and reused, so a 60 fps stream does
+ * not allocate per frame, and neither side ever takes a lock.
+ * <p>
+ * Backpressure: the receiver never blocks, since a blocked socket only moves
+ * the backlog into TCP buffers where it can no longer be dropped. When the
+ * ring is full the incoming unit is discarded and, as later frames reference
+ * it, so is everything after it until the next keyframe.
+ * <p>
+ * Latency bound: each unit carries the time it came off the socket. When the
+ * decoder takes a unit older than the budget it drops frames no other frame
+ * references, and jumps ahead to the newest queued keyframe if there is one.
+ * Past four times the budget it stops decoding until the next keyframe
+ * arrives, so the picture freezes briefly and then comes back in step rather
+ * than lagging further behind for the rest of the session.
+ */
+final class AccessUnitQueue {
+
+    static final long DEFAULT_BUDGET_MILLIS = 120;
+    private static final int INITIAL_UNIT_BYTES = 64 * 1024;
+
+    /** How a unit may be treated when the decoder falls behind. */
+    enum Kind {
+        /** SPS/PPS only; never dropped, the decoder needs them for what follows. */
+        CONFIG,
+        /** Contains an IDR slice: decoding can restart here. */
+        KEY,
+        /** A slice later frames may predict from. */
+        REFERENCE,
+        /** A slice with nal_ref_idc 0; dropping it affects no other frame. */
+        DISPOSABLE
+    }
+
+    static final class Unit {
+        byte[] data = new byte[INITIAL_UNIT_BYTES];
+        int length;
+        Kind kind;
+        /** System.nanoTime() when the unit was read off the socket. */
+        long receivedNanos;
+
+        long ageNanos(long now) {
+            return now - receivedNanos;
+        }
+    }
+
+    private final Unit[] slots;
+    private final int mask;
+    private final long budgetNanos;
+    /** Next slot the consumer takes; written by the consumer only. */
+    private final AtomicLong head = new AtomicLong();
+    /** Next slot the producer fills; written by the producer only. */
+    private final AtomicLong tail = new AtomicLong();
+    private volatile Thread waitingConsumer;
+    private volatile boolean closed;
+
+    // Producer state
+    private boolean producerResync;
+    // Consumer state: drop everything before this position, then up to the next keyframe if waitForKey
+    private long skipTo;
+    private boolean waitForKey;
+
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong overflows = new AtomicLong();
+    private final AtomicLong resyncs = new AtomicLong();
+
+    /**
+     * @param capacity     number of slots, rounded up to a power of two
+     * @param budgetMillis how old a unit may be when the decoder gets to it
+     */
+    AccessUnitQueue(int capacity, long budgetMillis) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        slots = new Unit[size];
+        for (int i = 0; i < size; i++) {
+            slots[i] = new Unit();
+        }
+        mask = size - 1;
+        budgetNanos = TimeUnit.MILLISECONDS.toNanos(budgetMillis);
+    }
+
+    // ------------------------------------------------------------------ producer
+
+    /**
+     * A free slot with room for {@code length} bytes, to be filled and then
+     * {@link #publish published}; or null if the unit has to be discarded,
+     * in which case the caller skips its bytes.
+     */
+    Unit claim(int length) {
+        long t = tail.get();
+        if (closed || t - head.get() >= slots.length) {
+            if (!closed) {
+                overflows.incrementAndGet();
+                dropped.incrementAndGet();
+                producerResync = true;
+            }
+            return null;
+        }
+        Unit unit = slots[(int) t & mask];
+        if (unit.data.length < length) {
+            unit.data = new byte[Math.max(length, unit.data.length * 2)];
+        }
+        unit.length = length;
+        return unit;
+    }
+
+    /** Hand a claimed slot, now holding the unit's bytes, to the decoder. */
+    void publish(Unit unit, long receivedNanos) {
+        unit.kind = classify(unit.data, unit.length);
+        unit.receivedNanos = receivedNanos;
+        if (producerResync) {
+            if (unit.kind != Kind.KEY && unit.kind != Kind.CONFIG) {
+                // Predicts from a frame that was thrown away
+                dropped.incrementAndGet();
+                return;
+            }
+            producerResync = unit.kind == Kind.CONFIG;
+        }
+        // A full fence, unlike lazySet: the consumer checks tail after announcing it will park
+        tail.set(tail.get() + 1);
+        Thread consumer = waitingConsumer;
+        if (consumer != null) {
+            LockSupport.unpark(consumer);
+        }
+    }
+
+    /** Stop the stream: the consumer's next {@link #take} returns null and later units are discarded. */
+    void close() {
+        closed = true;
+        Thread consumer = waitingConsumer;
+        if (consumer != null) {
+            LockSupport.unpark(consumer);
+        }
+    }
+
+    // ------------------------------------------------------------------ consumer
+
+    /**
+     * The next unit to decode, waiting for one to arrive. Units dropped to
+     * stay within the latency budget are skipped here. The unit stays valid
+     * until {@link #release}, which must come before the next take.
+     *
+     * @return the unit, or null once the queue is closed
+     */
+    Unit take() {
+        while (true) {
+            long h = head.get();
+            if (closed) {
+                return null;
+            }
+            if (h == tail.get()) {
+                waitingConsumer = Thread.currentThread();
+                if (h == tail.get() && !closed) {
+                    LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(100));
+                }
+                waitingConsumer = null;
+                continue;
+            }
+            Unit unit = slots[(int) h & mask];
+            if (admit(unit, h)) {
+                return unit;
+            }
+            dropped.incrementAndGet();
+            head.lazySet(h + 1);
+        }
+    }
+
+    /** Give back the unit returned by the last {@link #take}. */
+    void release() {
+        head.lazySet(head.get() + 1);
+    }
+
+    /** Decide whether the unit at the head is decoded or dropped. */
+    private boolean admit(Unit unit, long h) {
+        if (unit.kind == Kind.CONFIG) {
+            return true;
+        }
+        if (h < skipTo) {
+            return false;
+        }
+        if (waitForKey) {
+            if (unit.kind != Kind.KEY) {
+                return false;
+            }
+            waitForKey = false;
+            return true;
+        }
+        long age = unit.ageNanos(System.nanoTime());
+        if (age <= budgetNanos) {
+            return true;
+        }
+        if (unit.kind == Kind.DISPOSABLE) {
+            return false;
+        }
+        // Jump to the newest keyframe already here, if it is not this one
+        long newestKey = -1;
+        for (long i = tail.get() - 1; i > h; i--) {
+            if (slots[(int) i & mask].kind == Kind.KEY) {
+                newestKey = i;
+                break;
+            }
+        }
+        if (newestKey > h) {
+            resyncs.incrementAndGet();
+            skipTo = newestKey;
+            return false;
+        }
+        if (age > 4 * budgetNanos && unit.kind != Kind.KEY) {
+            // Hopelessly behind: wait for a fresh keyframe rather than decode the backlog
+            resyncs.incrementAndGet();
+            waitForKey = true;
+            return false;
+        }
+        return true;
+    }
+
+    /** Units currently waiting for the decoder. */
+    int depth() {
+        return (int) (tail.get() - head.get());
+    }
+
+    /** Units discarded so far, whether on overflow or for being too late. */
+    long dropped() {
+        return dropped.get();
+    }
+
+    long overflows() {
+        return overflows.get();
+    }
+
+    /** Times the decoder skipped ahead to a keyframe. */
+    long resyncs() {
+        return resyncs.get();
+    }
+
+    long budgetNanos() {
+        return budgetNanos;
+    }
+
+    // ------------------------------------------------------------------ parsing
+
+    /**
+     * Classify an Annex-B access unit by its NAL headers. Units without a
+     * start code are treated as reference frames, the safe assumption.
+     */
+    static Kind classify(byte[] data, int length) {
+        boolean sawSlice = false;
+        boolean reference = false;
+        boolean sawConfig = false;
+        int i = 0;
+        while (i + 3 < length) {
+            if (data[i] != 0 || data[i + 1] != 0) {
+                i++;
+                continue;
+            }
+            int header;
+            if (data[i + 2] == 1) {
+                header = i + 3;
+            } else if (data[i + 2] == 0 && data[i + 3] == 1 && i + 4 < length) {
+                header = i + 4;
+            } else {
+                i++;
+                continue;
+            }
+            int type = data[header] & 0x1F;
+            switch (type) {
+                case 5:
+                    return Kind.KEY;
+                case 1:
+                    sawSlice = true;
+                    reference |= (data[header] & 0x60) != 0;
+                    break;
+                case 7:
+                case 8:
+                    sawConfig = true;
+                    break;
+                default:
+                    break;
+            }
+            i = header + 1;
+        }
+        if (sawSlice) {
+            return reference ? Kind.REFERENCE : Kind.DISPOSABLE;
+        }
+        return sawConfig ? Kind.CONFIG : Kind.REFERENCE;
+    }
+}
@@ -0,0 +1,121 @@
+package com.airbamin.desktop.mirror;
+
+import org.bytedeco.ffmpeg.avcodec.AVCodec;
+import org.bytedeco.ffmpeg.avcodec.AVCodecHWConfig;
+import org.bytedeco.ffmpeg.avutil.AVBufferRef;
+import org.bytedeco.ffmpeg.global.avcodec;
+import org.bytedeco.ffmpeg.global.avutil;
+import org.bytedeco.javacpp.BytePointer;
+import org.bytedeco.javacpp.PointerPointer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Where {@link H264Decoder} runs: in software, or on the GPU through one of
+ * FFmpeg's hwaccels. Which ones exist depends on the platform, the FFmpeg
+ * build and the graphics driver, so {@link #probe} tries each in order of
+ * preference at startup and settles on the first that opens, with software
+ * as the fallback that always works.
+ * <p>
+ * {@code -Dairbamin.mirror.decoder=software} (or a hwaccel name such as
+ * {@code vaapi}) overrides the choice.
+ */
+record DecodeBackend(String name, int deviceType, int hardwareFormat) {
+
+    static final DecodeBackend SOFTWARE = new DecodeBackend("software", avutil.AV_HWDEVICE_TYPE_NONE,
+            avutil.AV_PIX_FMT_NONE);
+
+    boolean hardware() {
+        return deviceType != avutil.AV_HWDEVICE_TYPE_NONE;
+    }
+
+    /**
+     * Open the hwaccel device, for the decoder to take a reference to.
+     *
+     * @return the device, or null if it cannot be opened on this machine
+     */
+    AVBufferRef openDevice() {
+        PointerPointer<AVBufferRef> device = new PointerPointer<>(1);
+        try {
+            int ret = avutil.av_hwdevice_ctx_create(device, deviceType, (BytePointer) null, null, 0);
+            return ret < 0 ? null : device.get(AVBufferRef.class, 0);
+        } finally {
+            device.close();
+        }
+    }
+
+    /**
+     * The backend to decode with: the one named by the system property if it
+     * works, otherwise the first hardware backend whose device opens, otherwise
+     * software.
+     */
+    static DecodeBackend probe() {
+        String wanted = System.getProperty("airbamin.mirror.decoder", "auto").trim().toLowerCase(Locale.ROOT);
+        if (wanted.equals(SOFTWARE.name)) {
+            return SOFTWARE;
+        }
+        List<DecodeBackend> candidates = candidates();
+        if (!wanted.equals("auto") && candidates.stream().noneMatch(b -> b.name.equals(wanted))) {
+            System.err.println("[Mirror] This FFmpeg build cannot decode H.264 on " + wanted);
+        }
+        List<String> unavailable = new ArrayList<>();
+        for (DecodeBackend backend : candidates) {
+            if (!wanted.equals("auto") && !wanted.equals(backend.name)) {
+                continue;
+            }
+            AVBufferRef device = backend.openDevice();
+            if (device != null) {
+                avutil.av_buffer_unref(device);
+                System.out.println("[Mirror] Decoding on " + backend.name
+                        + (unavailable.isEmpty() ? "" : " (unavailable: " + String.join(", ", unavailable) + ")"));
+                return backend;
+            }
+            unavailable.add(backend.name);
+        }
+        System.out.println("[Mirror] Decoding in software"
+                + (unavailable.isEmpty() ? "" : " (unavailable: " + String.join(", ", unavailable) + ")"));
+        return SOFTWARE;
+    }
+
+    /**
+     * Hardware backends the H.264 decoder in this FFmpeg build supports, best
+     * first for the platform we are on.
+     */
+    static List<DecodeBackend> candidates() {
+        AVCodec codec = avcodec.avcodec_find_decoder(avcodec.AV_CODEC_ID_H264);
+        List<DecodeBackend> supported = new ArrayList<>();
+        if (codec == null) {
+            return supported;
+        }
+        for (int type : preferredTypes()) {
+            for (int i = 0;; i++) {
+                AVCodecHWConfig config = avcodec.avcodec_get_hw_config(codec, i);
+                if (config == null) {
+                    break;
+                }
+                if ((config.methods() & avcodec.AV_CODEC_HW_CONFIG_METHOD_HW_DEVICE_CTX) != 0
+                        && config.device_type() == type) {
+                    supported.add(new DecodeBackend(avutil.av_hwdevice_get_type_name(type).getString(), type,
+                            config.pix_fmt()));
+                    break;
+                }
+            }
+        }
+        return supported;
+    }
+
+    private static int[] preferredTypes() {
+        String os = System.getProperty("os.name", "").toLowerCase(Locale.ROOT);
+        if (os.contains("win")) {
+            return new int[] { avutil.AV_HWDEVICE_TYPE_D3D11VA, avutil.AV_HWDEVICE_TYPE_DXVA2,
+                    avutil.AV_HWDEVICE_TYPE_CUDA };
+        }
+        if (os.contains("mac")) {
+            return new int[] { avutil.AV_HWDEVICE_TYPE_VIDEOTOOLBOX };
+        }
+        return new int[] { avutil.AV_HWDEVICE_TYPE_VAAPI, avutil.AV_HWDEVICE_TYPE_VDPAU,
+                avutil.AV_HWDEVICE_TYPE_CUDA };
+    }
+}
@@ -0,0 +1,252 @@
+package com.airbamin.desktop.mirror;
+
+import org.bytedeco.ffmpeg.avcodec.AVCodec;
+import org.bytedeco.ffmpeg.avcodec.AVCodecContext;
+import org.bytedeco.ffmpeg.avcodec.AVPacket;
+import org.bytedeco.ffmpeg.avutil.AVBufferRef;
+import org.bytedeco.ffmpeg.avutil.AVDictionary;
+import org.bytedeco.ffmpeg.avutil.AVFrame;
+import org.bytedeco.ffmpeg.global.avcodec;
+import org.bytedeco.ffmpeg.global.avutil;
+import org.bytedeco.ffmpeg.global.swscale;
+import org.bytedeco.ffmpeg.swscale.SwsContext;
+import org.bytedeco.javacpp.BytePointer;
+import org.bytedeco.javacpp.DoublePointer;
+import org.bytedeco.javacpp.IntPointer;
+import org.bytedeco.javacpp.Loader;
+import org.bytedeco.javacpp.PointerPointer;
+
+/**
+ * libavcodec H.264 decoder fed one access unit at a time, exactly as the
+ * phone frames them. There is no demuxer in front of it, so nothing is
+ * probed or buffered: the first frame comes out of the packet carrying the
+ * first IDR. SPS/PPS from the phone's codec-config packet become the
+ * decoder's extradata; later in-band parameter sets (a reconnect, a rotation)
+ * are picked up from the stream.
+ * <p>
+ * On a hardware {@link DecodeBackend} the GPU decodes and each frame is
+ * copied back to system memory for conversion. If the hwaccel cannot handle
+ * the stream, FFmpeg quietly decodes in software instead;
+ * {@link #hardwareFrames} tells which happened.
+ * <p>
+ * Not thread-safe; owned by the decode thread.
+ */
+final class H264Decoder implements AutoCloseable {
+
+    private static final byte[] PADDING = new byte[avcodec.AV_INPUT_BUFFER_PADDING_SIZE];
+
+    private final AVCodecContext context;
+    private final AVPacket packet;
+    private final AVFrame frame;
+    // The frame in system memory: frame itself, or its download from the GPU
+    private final AVFrame softwareFrame;
+    private AVFrame output;
+    private final DecodeBackend backend;
+    private final int hardwareFormat;
+    private boolean hardwareFrames;
+    // Packet bytes in native memory, with the zeroed padding the bitstream reader needs
+    private BytePointer input;
+    private SwsContext scaler;
+    private final PointerPointer<BytePointer> target = new PointerPointer<>(4);
+    private final IntPointer targetStride = new IntPointer(4);
+    private int errors;
+    /** Length of a unit in {@link #input} the decoder refused with EAGAIN, or -1. */
+    private int pendingLength = -1;
+
+    /**
+     * Load the FFmpeg libraries ahead of the first packet. Loading them takes
+     * a few hundred milliseconds that would otherwise delay the first frame.
+     */
+    static void preload() {
+        Loader.load(avcodec.class);
+        Loader.load(swscale.class);
+    }
+
+    /**
+     * @param config SPS/PPS in Annex-B form, or null to rely on in-band parameter sets
+     * @throws IllegalStateException if the backend's device or the codec cannot be opened
+     */
+    H264Decoder(DecodeBackend backend, byte[] config, int configLength) {
+        AVCodec codec = avcodec.avcodec_find_decoder(avcodec.AV_CODEC_ID_H264);
+        if (codec == null) {
+            throw new IllegalStateException("FFmpeg has no H.264 decoder");
+        }
+        context = avcodec.avcodec_alloc_context3(codec);
+        context.flags(context.flags() | avcodec.AV_CODEC_FLAG_LOW_DELAY);
+        // Frame threading holds back one frame per thread; slices cost no latency
+        context.thread_type(AVCodecContext.FF_THREAD_SLICE);
+        context.thread_count(0);
+        if (backend.hardware()) {
+            AVBufferRef device = backend.openDevice();
+            if (device == null) {
+                avcodec.avcodec_free_context(context);
+                throw new IllegalStateException("Cannot open " + backend.name() + " device");
+            }
+            // FFmpeg's default get_format picks the device's pixel format once a device is set
+            context.hw_device_ctx(avutil.av_buffer_ref(device));
+            avutil.av_buffer_unref(device);
+        }
+        this.backend = backend;
+        hardwareFormat = backend.hardwareFormat();
+        if (config != null && configLength > 0) {
+            BytePointer extradata = new BytePointer(avutil.av_mallocz(configLength + PADDING.length));
+            extradata.put(config, 0, configLength);
+            context.extradata(extradata);
+            context.extradata_size(configLength);
+        }
+        int ret = avcodec.avcodec_open2(context, codec, (AVDictionary) null);
+        if (ret < 0) {
+            avcodec.avcodec_free_context(context);
+            throw new IllegalStateException("Cannot open H.264 decoder: " + describe(ret));
+        }
+        packet = avcodec.av_packet_alloc();
+        frame = avutil.av_frame_alloc();
+        softwareFrame = avutil.av_frame_alloc();
+        output = frame;
+        input = new BytePointer(256 * 1024);
+    }
+
+    /**
+     * Feed one access unit. Frames it completes are then fetched with
+     * {@link #receive}, which must be called until it returns false: if the
+     * decoder's output was full, the unit is held and offered again once
+     * {@code receive} has taken the frames in the way.
+     *
+     * @return false if the decoder rejected the unit (corrupt, or missing the
+     *         frames it predicts from); decoding carries on with the next one
+     */
+    boolean send(byte[] data, int length) {
+        if (pendingLength >= 0) {
+            System.err.println("[Mirror] Decoder never took a held packet; dropping it");
+            pendingLength = -1;
+        }
+        if (input.capacity() < length + PADDING.length) {
+            input.close();
+            input = new BytePointer(Math.max(length + PADDING.length, input.capacity() * 2));
+        }
+        input.position(0).put(data, 0, length);
+        input.position(length).put(PADDING, 0, PADDING.length);
+        input.position(0);
+        return submit(length);
+    }
+
+    /** Send the unit in {@link #input}; EAGAIN means it was not taken and is held. */
+    private boolean submit(int length) {
+        packet.data(input);
+        packet.size(length);
+        int ret = avcodec.avcodec_send_packet(context, packet);
+        packet.data(null);
+        packet.size(0);
+        if (ret == avutil.AVERROR_EAGAIN()) {
+            pendingLength = length;
+            return true;
+        }
+        if (ret < 0) {
+            if (++errors <= 5) {
+                System.err.println("[Mirror] Decoder rejected a packet: " + describe(ret));
+            }
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return true if a decoded frame is ready for {@link #convertTo}
+     * @throws IllegalStateException if a GPU frame cannot be copied back
+     */
+    boolean receive() {
+        int ret = avcodec.avcodec_receive_frame(context, frame);
+        if (ret == avutil.AVERROR_EAGAIN() && pendingLength >= 0) {
+            // Output drained, so the held unit fits now
+            int length = pendingLength;
+            pendingLength = -1;
+            if (!submit(length) || pendingLength >= 0) {
+                return false;
+            }
+            ret = avcodec.avcodec_receive_frame(context, frame);
+        }
+        if (ret != 0) {
+            return false;
+        }
+        hardwareFrames = frame.format() == hardwareFormat;
+        if (!hardwareFrames) {
+            output = frame;
+            return true;
+        }
+        avutil.av_frame_unref(softwareFrame);
+        int copied = avutil.av_hwframe_transfer_data(softwareFrame, frame, 0);
+        if (copied < 0) {
+            throw new IllegalStateException("Cannot copy frame from GPU: " + describe(copied));
+        }
+        output = softwareFrame;
+        return true;
+    }
+
+    /** Packets the decoder has rejected so far. */
+    int rejectedPackets() {
+        return errors;
+    }
+
+    /** Whether this decoder was set up on a GPU backend. */
+    boolean hardware() {
+        return backend.hardware();
+    }
+
+    String backendName() {
+        return backend.name();
+    }
+
+    /** Whether the last frame was decoded on the GPU. */
+    boolean hardwareFrames() {
+        return hardwareFrames;
+    }
+
+    int width() {
+        return output.width();
+    }
+
+    int height() {
+        return output.height();
+    }
+
+    /**
+     * Write the last received frame as BGRA, the layout JavaFX draws without
+     * conversion, straight into {@code pixels}.
+     */
+    void convertTo(BytePointer pixels, int stride) {
+        int width = output.width();
+        int height = output.height();
+        scaler = swscale.sws_getCachedContext(scaler, width, height, output.format(), width, height,
+                avutil.AV_PIX_FMT_BGRA, swscale.SWS_POINT, null, null, (DoublePointer) null);
+        if (scaler == null) {
+            throw new IllegalStateException("No conversion from pixel format " + output.format());
+        }
+        target.put(0, pixels);
+        targetStride.put(0, stride);
+        swscale.sws_scale(scaler, output.data(), output.linesize(), 0, height, target, targetStride);
+    }
+
+    @Override
+    public void close() {
+        avcodec.avcodec_free_context(context);
+        avcodec.av_packet_free(packet);
+        avutil.av_frame_free(frame);
+        avutil.av_frame_free(softwareFrame);
+        if (scaler != null) {
+            swscale.sws_freeContext(scaler);
+        }
+        input.close();
+        target.close();
+        targetStride.close();
+    }
+
+    private static String describe(int error) {
+        byte[] message = new byte[128];
+        avutil.av_strerror(error, message, message.length);
+        int end = 0;
+        while (end < message.length && message[end] != 0) {
+            end++;
+        }
+        return new String(message, 0, end) + " (" + error + ")";
+    }
+}
@@ -3,6 +3,7 @@ package com.airbamin.desktop.mirror;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BooleanSupplier;
 
 public class MirrorReceiver implements Runnable {
 
@@ -63,30 +64,14 @@ public class MirrorReceiver implements Runnable {
                 System.out.println("Waiting for connection...");
                 clientSocket = serverSocket.accept();
                 System.out.println("Client connected: " + clientSocket.getInetAddress());
+                if (decoder != null) {
+                    decoder.stats().connected();
+                }
 
                 java.io.DataInputStream in = new java.io.DataInputStream(clientSocket.getInputStream());
-
-                while (running.get() && !clientSocket.isClosed()) {
-                    try {
-                        // Read length (4 bytes)
-                        int length = in.readInt();
-
-                        if (length > BUFFER_SIZE || length < 0) {
-                            System.err.println("Invalid frame length: " + length);
-                            break;
-                        }
-
-                        byte[] data = new byte[length];
-                        in.readFully(data);
-
-                        if (decoder != null) {
-                            decoder.decode(data);
-                        }
-                    } catch (IOException e) {
-                        System.out.println("Client disconnected or error: " + e.getMessage());
-                        break;
-                    }
-                }
+                java.net.Socket socket = clientSocket;
+                readUnits(in, decoder != null ? decoder.units() : null, decoder != null ? decoder.stats() : null,
+                        () -> running.get() && !socket.isClosed());
             } catch (IOException e) {
                 if (running.get()) {
                     e.printStackTrace();
@@ -94,4 +79,41 @@ public class MirrorReceiver implements Runnable {
             }
         }
     }
+
+    /**
+     * Read the phone's length-prefixed access units from {@code in} until it
+     * ends or fails, or {@code open} turns false. Without a queue, or when the
+     * queue is full, a unit is skipped.
+     */
+    static void readUnits(java.io.DataInputStream in, AccessUnitQueue units, MirrorStats stats,
+            BooleanSupplier open) {
+        while (open.getAsBoolean()) {
+            try {
+                // Read length (4 bytes)
+                int length = in.readInt();
+                long received = System.nanoTime();
+
+                if (length > BUFFER_SIZE || length < 0) {
+                    System.err.println("Invalid frame length: " + length);
+                    break;
+                }
+
+                if (stats != null) {
+                    stats.received(length, received);
+                }
+
+                // Read straight into a pooled slot; a full queue means the decoder is behind, so drop
+                AccessUnitQueue.Unit unit = units != null ? units.claim(length) : null;
+                if (unit == null) {
+                    in.skipNBytes(length);
+                    continue;
+                }
+                in.readFully(unit.data, 0, length);
+                units.publish(unit, received);
+            } catch (IOException e) {
+                System.out.println("Client disconnected or error: " + e.getMessage());
+                break;
+            }
+        }
+    }
 }
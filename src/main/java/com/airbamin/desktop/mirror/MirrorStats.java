@@ -0,0 +1,149 @@
+package com.airbamin.desktop.mirror;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Locale;
+
+/**
+ * Per-stage metrics for a mirroring session, so a lagging picture can be
+ * pinned on the network, the decoder or the FX thread. Each stage records
+ * into its own fields from its own thread ({@link MirrorReceiver} arrivals,
+ * the decode thread's decode times, the presenter's frames) and nothing
+ * takes a lock; {@link #sample} turns them into one row per interval.
+ * <p>
+ * Latency runs from the unit coming off the socket to its frame being put
+ * on screen. The phone sends no capture timestamps, so encoding and the
+ * network transit itself are not included.
+ */
+public final class MirrorStats {
+
+    /** About an hour of once-a-second samples. */
+    private static final int MAX_SAMPLES = 3600;
+    private static final String CSV_HEADER = "elapsed_s,width,height,decoder,bitrate_kbps,jitter_ms,decode_ms,"
+            + "queue_depth,dropped,fps,latency_ms,latency_max_ms";
+
+    /**
+     * One interval of the session.
+     *
+     * @param jitterMillis  mean deviation of unit inter-arrival times from their running mean
+     * @param dropped       frames dropped during the interval, on overflow or for being late
+     * @param latencyMillis average socket-to-screen time of frames presented in the interval
+     */
+    public record Sample(double elapsedSeconds, int width, int height, String decoder, double bitrateKbps,
+            double jitterMillis, double decodeMillis, int queueDepth, long dropped, double fps,
+            double latencyMillis, double latencyMaxMillis) {
+
+        String toCsv() {
+            return String.format(Locale.ROOT, "%.1f,%d,%d,%s,%.0f,%.2f,%.2f,%d,%d,%.1f,%.1f,%.1f", elapsedSeconds,
+                    width, height, decoder, bitrateKbps, jitterMillis, decodeMillis, queueDepth, dropped, fps,
+                    latencyMillis, latencyMaxMillis);
+        }
+    }
+
+    private final AccessUnitQueue units;
+    private final long startNanos = System.nanoTime();
+
+    // Receiver thread
+    private volatile long bytesReceived;
+    private long lastArrivalNanos;
+    private double meanIntervalNanos;
+    private volatile double jitterNanos;
+
+    // Decode thread
+    private volatile long decodeNanos;
+    private volatile String decoder = DecodeBackend.SOFTWARE.name();
+    private volatile int width;
+    private volatile int height;
+
+    // FX thread: the presenter and sample() both run there
+    private long presented;
+    private long latencyTotalNanos;
+    private long latencyMaxNanos;
+    private long sampledAtNanos = startNanos;
+    private long sampledBytes;
+    private long sampledDropped;
+    private final ArrayDeque<Sample> session = new ArrayDeque<>();
+
+    MirrorStats(AccessUnitQueue units) {
+        this.units = units;
+    }
+
+    /** A new phone connected: its first unit is not an inter-arrival interval. */
+    void connected() {
+        lastArrivalNanos = 0;
+    }
+
+    /** A unit of {@code length} bytes came off the socket, whether or not it was queued. */
+    void received(int length, long nanos) {
+        bytesReceived += length + 4;
+        if (lastArrivalNanos != 0) {
+            long interval = nanos - lastArrivalNanos;
+            if (meanIntervalNanos == 0) {
+                meanIntervalNanos = interval;
+            }
+            // Same 1/16 gain as the RTP interarrival jitter estimate
+            jitterNanos += (Math.abs(interval - meanIntervalNanos) - jitterNanos) / 16;
+            meanIntervalNanos += (interval - meanIntervalNanos) / 16;
+        }
+        lastArrivalNanos = nanos;
+    }
+
+    /** The decoder produced a frame; {@code nanos} covers send, receive and any GPU copy. */
+    void decoded(long nanos, String decoder, int width, int height) {
+        long average = decodeNanos;
+        decodeNanos = average == 0 ? nanos : (average * 7 + nanos) / 8;
+        this.decoder = decoder;
+        this.width = width;
+        this.height = height;
+    }
+
+    /** A frame whose unit arrived at {@code receivedNanos} went on screen. */
+    void presented(long receivedNanos) {
+        long latency = System.nanoTime() - receivedNanos;
+        presented++;
+        latencyTotalNanos += latency;
+        latencyMaxNanos = Math.max(latencyMaxNanos, latency);
+    }
+
+    /**
+     * Close the current interval and add it to the session log. Call from the
+     * FX thread, about once a second.
+     */
+    public Sample sample() {
+        long now = System.nanoTime();
+        double seconds = Math.max(1, now - sampledAtNanos) / 1e9;
+        long bytes = bytesReceived;
+        long dropped = units.dropped();
+        Sample sample = new Sample((now - startNanos) / 1e9, width, height, decoder,
+                (bytes - sampledBytes) * 8 / 1000.0 / seconds, jitterNanos / 1e6, decodeNanos / 1e6,
+                units.depth(), dropped - sampledDropped, presented / seconds,
+                presented == 0 ? 0 : latencyTotalNanos / 1e6 / presented, latencyMaxNanos / 1e6);
+        sampledAtNanos = now;
+        sampledBytes = bytes;
+        sampledDropped = dropped;
+        presented = 0;
+        latencyTotalNanos = 0;
+        latencyMaxNanos = 0;
+        if (session.size() == MAX_SAMPLES) {
+            session.removeFirst();
+        }
+        session.addLast(sample);
+        return sample;
+    }
+
+    /** Write the session's samples so far as CSV, one row per interval. Call from the FX thread. */
+    public void writeCsv(Path file) throws IOException {
+        try (Writer out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            out.write(CSV_HEADER);
+            out.write('\n');
+            for (Sample sample : session) {
+                out.write(sample.toCsv());
+                out.write('\n');
+            }
+        }
+    }
+}
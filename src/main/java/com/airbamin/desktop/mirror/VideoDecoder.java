@@ -1,35 +1,75 @@
 package com.airbamin.desktop.mirror;
 
+import javafx.animation.AnimationTimer;
 import javafx.application.Platform;
 import javafx.scene.image.ImageView;
-import org.bytedeco.javacv.FFmpegFrameGrabber;
-import org.bytedeco.javacv.Frame;
-import org.bytedeco.ffmpeg.global.avcodec;
-import org.bytedeco.javacv.JavaFXFrameConverter;
+import javafx.scene.image.PixelBuffer;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+import org.bytedeco.javacpp.BytePointer;
 
-import java.io.IOException;
-import java.io.PipedInputStream;
-import java.io.PipedOutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class VideoDecoder {
 
-    private FFmpegFrameGrabber grabber;
-    private final PipedInputStream inputStream;
-    private final PipedOutputStream outputStream;
+    // About a second of video at 60 fps
+    private static final int QUEUE_CAPACITY = 64;
+
+    private final AccessUnitQueue units;
     private final ImageView targetView;
     private volatile boolean running = false;
     private Thread decodeThread;
 
-    private final JavaFXFrameConverter converter = new JavaFXFrameConverter();
+    // Frames are presented through three reused surfaces: the view shows one, the one it
+    // showed before rests for a pulse, and the decoder writes the next frame into the third,
+    // so presenting allocates nothing. The decoder writes pixels outside updateBuffer, so a
+    // surface only goes back to it once the render thread has finished uploading it; that
+    // upload is over by the pulse after the one that replaced it.
+    // A surface moves decoder -> ready -> (pulse) front -> retired -> (pulse) spare -> decoder.
+    private static final int SURFACES = 3;
+    private final AtomicReference<Surface> ready = new AtomicReference<>();
+    private final AtomicReference<Surface> spare = new AtomicReference<>();
+    private Surface front; // FX thread only
+    private Surface retired; // FX thread only
+    // Decode thread only: the frame size and how many surfaces exist for it
+    private int surfaceWidth;
+    private int surfaceHeight;
+    private int surfaces;
+    private final AnimationTimer presenter = new AnimationTimer() {
+        @Override
+        public void handle(long now) {
+            present();
+        }
+    };
+    private volatile long lastFrameAgeNanos;
+    private final MirrorStats stats;
 
     public VideoDecoder(ImageView targetView) {
         this.targetView = targetView;
-        this.inputStream = new PipedInputStream(1024 * 1024); // 1MB buffer
-        try {
-            this.outputStream = new PipedOutputStream(this.inputStream);
-        } catch (IOException e) {
-            throw new RuntimeException("Failed to create piped stream", e);
-        }
+        this.units = new AccessUnitQueue(QUEUE_CAPACITY,
+                Long.getLong("airbamin.mirror.latencyBudgetMs", AccessUnitQueue.DEFAULT_BUDGET_MILLIS));
+        this.stats = new MirrorStats(units);
+    }
+
+    /** The queue {@link MirrorReceiver} fills with access units from the phone. */
+    AccessUnitQueue units() {
+        return units;
+    }
+
+    /** Time from socket read to decode of the most recent frame. */
+    public long lastFrameAgeMillis() {
+        return lastFrameAgeNanos / 1_000_000;
+    }
+
+    /** Metrics for this session, from the socket through to the screen. */
+    public MirrorStats stats() {
+        return stats;
+    }
+
+    /** Frames skipped to keep mirroring within the latency budget. */
+    public long droppedFrames() {
+        return units.dropped();
     }
 
     public void start() {
@@ -37,77 +77,202 @@ public class VideoDecoder {
             return;
         running = true;
 
-        decodeThread = new Thread(() -> {
-            try {
-                // Initialize grabber with input stream
-                grabber = new FFmpegFrameGrabber(inputStream);
-                grabber.setFormat("h264");
-                grabber.setVideoCodec(avcodec.AV_CODEC_ID_H264);
-                // Allow more probe data so SPS/PPS can be parsed
-                grabber.setOption("probesize", "2000000"); // ~2MB
-                grabber.setOption("analyzeduration", "2000000");
-                // Low latency settings
-                grabber.setOption("fflags", "nobuffer");
-                grabber.setOption("flags", "low_delay");
-
-                grabber.start();
-
-                int frameCount = 0;
-                while (running) {
-                    Frame frame = grabber.grabImage();
-                    if (frame != null) {
-                        frameCount++;
-                        if (frameCount <= 3) {
-                            System.out.println("Decoded frame " + frameCount + " size: "
-                                    + frame.imageWidth + "x" + frame.imageHeight);
-                        }
-                        updateImage(frame);
-                    }
-                }
-            } catch (Exception e) {
-                e.printStackTrace();
-            } finally {
-                try {
-                    if (grabber != null)
-                        grabber.stop();
-                } catch (Exception e) {
-                    e.printStackTrace();
-                }
-            }
-        }, "VideoDecoder");
+        decodeThread = new Thread(this::decodeLoop, "VideoDecoder");
 
         decodeThread.start();
+        onFxThread(presenter::start);
     }
 
     public void stop() {
         running = false;
+        units.close();
+        onFxThread(presenter::stop);
+    }
+
+    private void decodeLoop() {
+        H264Decoder codec = null;
         try {
-            outputStream.close();
-        } catch (IOException e) {
+            H264Decoder.preload();
+            DecodeBackend backend = DecodeBackend.probe();
+            byte[] config = null; // kept to reopen the decoder if the GPU gives up
+            long startedNanos = 0;
+            int frameCount = 0;
+            while (running) {
+                AccessUnitQueue.Unit unit = units.take();
+                if (unit == null) {
+                    break;
+                }
+                try {
+                    if (startedNanos == 0) {
+                        startedNanos = unit.receivedNanos;
+                    }
+                    boolean isConfig = unit.kind == AccessUnitQueue.Kind.CONFIG;
+                    if (isConfig && config == null) {
+                        config = java.util.Arrays.copyOf(unit.data, unit.length);
+                    }
+                    if (codec == null) {
+                        // The phone sends its codec config first; it becomes the decoder's extradata
+                        codec = openCodec(backend, config);
+                        if (isConfig) {
+                            continue;
+                        }
+                    }
+                    long decodeStart = System.nanoTime();
+                    if (!codec.send(unit.data, unit.length)) {
+                        if (codec.hardware() && frameCount == 0 && codec.rejectedPackets() >= 10) {
+                            System.err.println("[Mirror] " + backend.name() + " cannot decode this stream");
+                            codec.close();
+                            codec = null;
+                            backend = DecodeBackend.SOFTWARE;
+                            codec = openCodec(backend, config);
+                        }
+                        continue;
+                    }
+                    while (codec.receive()) {
+                        long now = System.nanoTime();
+                        recordDecodeTime(now - decodeStart, codec);
+                        long age = now - unit.receivedNanos;
+                        lastFrameAgeNanos = age;
+                        // Catching up: a newer frame is already waiting, so skip converting this one
+                        if (age > units.budgetNanos() && units.depth() > 0) {
+                            continue;
+                        }
+                        updateImage(codec, unit.receivedNanos);
+                        frameCount++;
+                        if (frameCount == 1) {
+                            System.out.println("[Mirror] First frame " + codec.width() + "x" + codec.height()
+                                    + " after " + (System.nanoTime() - startedNanos) / 1_000_000 + " ms");
+                        }
+                        decodeStart = System.nanoTime();
+                    }
+                } catch (IllegalStateException e) {
+                    if (codec == null || !codec.hardware()) {
+                        throw e;
+                    }
+                    // The GPU path failed mid-stream; carry on in software from the next keyframe
+                    System.err.println("[Mirror] " + backend.name() + " failed, decoding in software: " + e.getMessage());
+                    codec.close();
+                    codec = null;
+                    backend = DecodeBackend.SOFTWARE;
+                    codec = openCodec(backend, config);
+                } finally {
+                    units.release();
+                }
+            }
+        } catch (Exception e) {
             e.printStackTrace();
+        } finally {
+            if (codec != null) {
+                codec.close();
+            }
         }
     }
 
-    public void decode(byte[] data) {
-        try {
-            outputStream.write(data);
-            outputStream.flush();
-        } catch (IOException e) {
-            e.printStackTrace();
+    /** Open the decoder on the backend, or in software if that backend will not open. */
+    private H264Decoder openCodec(DecodeBackend backend, byte[] config) {
+        int configLength = config == null ? 0 : config.length;
+        if (backend.hardware()) {
+            try {
+                return new H264Decoder(backend, config, configLength);
+            } catch (IllegalStateException e) {
+                System.err.println("[Mirror] " + e.getMessage() + ", decoding in software");
+            }
+        }
+        return new H264Decoder(DecodeBackend.SOFTWARE, config, configLength);
+    }
+
+    private void recordDecodeTime(long nanos, H264Decoder codec) {
+        stats.decoded(nanos, codec.hardwareFrames() ? codec.backendName() : DecodeBackend.SOFTWARE.name(),
+                codec.width(), codec.height());
+    }
+
+    private static void onFxThread(Runnable action) {
+        if (Platform.isFxApplicationThread()) {
+            action.run();
+        } else {
+            Platform.runLater(action);
         }
     }
 
-    private void updateImage(Frame frame) {
-        if (frame == null || frame.imageWidth <= 0 || frame.imageHeight <= 0)
+    /**
+     * Convert the decoded frame into a free surface and queue it for the
+     * next pulse. A frame still waiting there is overwritten, so however far the
+     * FX thread falls behind it only ever draws the newest frame.
+     */
+    private void updateImage(H264Decoder codec, long receivedNanos) {
+        int width = codec.width();
+        int height = codec.height();
+        if (width <= 0 || height <= 0)
             return;
 
-        // Convert to JavaFX Image
-        javafx.scene.image.Image image = converter.convert(frame);
+        if (width != surfaceWidth || height != surfaceHeight) {
+            // First frame, or the phone rotated: start a new set of surfaces
+            surfaceWidth = width;
+            surfaceHeight = height;
+            surfaces = 0;
+        }
+        Surface target = ready.getAndSet(null);
+        if (target == null) {
+            target = spare.getAndSet(null);
+        }
+        if (target != null && !target.fits(width, height)) {
+            target = null;
+        }
+        if (target == null) {
+            if (surfaces >= SURFACES) {
+                // All are on screen or still being uploaded for the moment it takes a pulse
+                return;
+            }
+            target = new Surface(width, height);
+            surfaces++;
+        }
+
+        codec.convertTo(target.address, width * 4);
+        target.receivedNanos = receivedNanos;
+        ready.set(target);
+    }
+
+    /**
+     * Runs once per pulse: show the newest ready surface, and hand back the
+     * one retired on the previous pulse, whose last texture upload is done.
+     */
+    private void present() {
+        if (retired != null) {
+            spare.set(retired);
+            retired = null;
+        }
+        Surface next = ready.getAndSet(null);
+        if (next == null) {
+            return;
+        }
+        next.buffer.updateBuffer(buffer -> null);
+        if (targetView.getImage() != next.image) {
+            targetView.setImage(next.image);
+        }
+        stats.presented(next.receivedNanos);
+        retired = front;
+        front = next;
+    }
+
+    /** A frame-sized pixel buffer the view draws from directly. */
+    private static final class Surface {
+        final ByteBuffer pixels;
+        final BytePointer address;
+        final PixelBuffer<ByteBuffer> buffer;
+        final WritableImage image;
+        // When the frame now in the buffer arrived from the phone
+        long receivedNanos;
+
+        Surface(int width, int height) {
+            pixels = ByteBuffer.allocateDirect(width * height * 4);
+            address = new BytePointer(pixels);
+            // Decoded frames are opaque, so straight BGRA is also premultiplied
+            buffer = new PixelBuffer<>(width, height, pixels, PixelFormat.getByteBgraPreInstance());
+            image = new WritableImage(buffer);
+        }
 
-        if (image != null) {
-            Platform.runLater(() -> {
-                targetView.setImage(image);
-            });
+        boolean fits(int width, int height) {
+            return buffer.getWidth() == width && buffer.getHeight() == height;
         }
     }
 }
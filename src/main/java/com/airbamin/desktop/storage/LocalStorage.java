@@ -215,6 +215,11 @@ public class LocalStorage {
     private static final String KEY_AUTO_REFRESH = "autoRefresh";
     private static final String KEY_DEVICE_ID = "deviceId";
     private static final String KEY_UPLOAD_DIR = "uploadDir";
+    private static final String KEY_TRANSFER_TRANSPORT = "transferTransport";
+    private static final String KEY_TRANSFER_FSYNC = "transferFsync";
+    private static final String KEY_TRANSFER_DEDUP = "transferDedup";
+    private static final String KEY_TRANSFER_GLOBAL_LIMIT = "transferGlobalLimit";
+    private static final String KEY_TRANSFER_CLIENT_LIMIT = "transferClientLimit";
 
     public static boolean loadAutoRefresh() {
         try {
@@ -298,6 +303,105 @@ public class LocalStorage {
         }
     }
 
+    /**
+     * Transport behind the local transfer server: "jdk" (default) or "nio".
+     */
+    public static String loadTransferTransport() {
+        try {
+            JsonObject json = readSettings();
+            if (json.has(KEY_TRANSFER_TRANSPORT)) {
+                return json.get(KEY_TRANSFER_TRANSPORT).getAsString();
+            }
+        } catch (Exception ignored) {
+        }
+        return "jdk";
+    }
+
+    public static void saveTransferTransport(String transport) {
+        try {
+            JsonObject json = readSettings();
+            json.addProperty(KEY_TRANSFER_TRANSPORT, transport);
+            writeSettings(json);
+        } catch (Exception ignored) {
+        }
+    }
+
+    /**
+     * Whether received files are flushed to disk before they are published
+     * into the upload folder. Slower, but survives power loss.
+     */
+    public static boolean loadTransferFsync() {
+        try {
+            JsonObject json = readSettings();
+            if (json.has(KEY_TRANSFER_FSYNC)) {
+                return json.get(KEY_TRANSFER_FSYNC).getAsBoolean();
+            }
+        } catch (Exception ignored) {
+        }
+        return false;
+    }
+
+    public static void saveTransferFsync(boolean value) {
+        try {
+            JsonObject json = readSettings();
+            json.addProperty(KEY_TRANSFER_FSYNC, value);
+            writeSettings(json);
+        } catch (Exception ignored) {
+        }
+    }
+
+    /** Duplicate handling for received files: off, skip or link. */
+    public static String loadTransferDedup() {
+        try {
+            JsonObject json = readSettings();
+            if (json.has(KEY_TRANSFER_DEDUP)) {
+                return json.get(KEY_TRANSFER_DEDUP).getAsString();
+            }
+        } catch (Exception ignored) {
+        }
+        return "off";
+    }
+
+    public static void saveTransferDedup(String mode) {
+        try {
+            JsonObject json = readSettings();
+            json.addProperty(KEY_TRANSFER_DEDUP, mode);
+            writeSettings(json);
+        } catch (Exception ignored) {
+        }
+    }
+
+    /** Bandwidth cap for all transfers together, in bytes per second; 0 for none. */
+    public static long loadTransferGlobalLimit() {
+        return loadLong(KEY_TRANSFER_GLOBAL_LIMIT);
+    }
+
+    /** Bandwidth cap for each phone, in bytes per second; 0 for none. */
+    public static long loadTransferClientLimit() {
+        return loadLong(KEY_TRANSFER_CLIENT_LIMIT);
+    }
+
+    public static void saveTransferLimits(long global, long perClient) {
+        try {
+            JsonObject json = readSettings();
+            json.addProperty(KEY_TRANSFER_GLOBAL_LIMIT, global);
+            json.addProperty(KEY_TRANSFER_CLIENT_LIMIT, perClient);
+            writeSettings(json);
+        } catch (Exception ignored) {
+        }
+    }
+
+    private static long loadLong(String key) {
+        try {
+            JsonObject json = readSettings();
+            if (json.has(key)) {
+                return Math.max(0, json.get(key).getAsLong());
+            }
+        } catch (Exception ignored) {
+        }
+        return 0;
+    }
+
     private static JsonObject readSettings() {
         try {
             if (!Files.exists(SETTINGS_FILE)) {
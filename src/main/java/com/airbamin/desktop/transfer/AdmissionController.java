@@ -0,0 +1,223 @@
+package com.airbamin.desktop.transfer;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntSupplier;
+
+/**
+ * Admission control for the transfer server. Requests run on a bounded pool
+ * with a bounded queue, each client IP may only have a fixed number of requests
+ * in flight, and anything over either limit is answered at once with
+ * {@code 503} and {@code Retry-After} instead of piling up threads and memory.
+ * Live counters are available through {@link #snapshot()}; a client with no
+ * request in flight for {@link #CLIENT_IDLE_MINUTES} minutes is forgotten.
+ */
+public class AdmissionController implements Executor {
+
+    public static final int DEFAULT_MAX_WORKERS = 256;
+    public static final int DEFAULT_QUEUE_LIMIT = 512;
+    public static final int DEFAULT_MAX_PER_CLIENT = 32;
+    private static final int RETRY_AFTER_SECONDS = 2;
+    /** Refused requests waiting for their 503; past this they are dropped without one. */
+    private static final int SHED_QUEUE_LIMIT = 64;
+    static final long CLIENT_IDLE_MINUTES = 10;
+    private static final long CLIENT_IDLE_NANOS = TimeUnit.MINUTES.toNanos(CLIENT_IDLE_MINUTES);
+    private static final long PRUNE_INTERVAL_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+    /** How the guarded handler treats a request the pool refused. */
+    private enum Shedding {
+        NONE, REPLY, CLOSE
+    }
+
+    /** Set while a refused task runs, so its guarded handler sheds it. */
+    private static final ThreadLocal<Shedding> SHEDDING = ThreadLocal.withInitial(() -> Shedding.NONE);
+
+    private final int maxPerClient;
+    private final int queueLimit;
+    private final ThreadPoolExecutor pool;
+    private final ThreadPoolExecutor shedder;
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicLong rejectedTotal = new AtomicLong();
+    private final Map<String, ClientCounters> clients = new ConcurrentHashMap<>();
+    private final AtomicLong lastPrune = new AtomicLong(System.nanoTime());
+    private volatile IntSupplier queueProbe;
+
+    public AdmissionController() {
+        this(DEFAULT_MAX_WORKERS, DEFAULT_QUEUE_LIMIT, DEFAULT_MAX_PER_CLIENT);
+    }
+
+    public AdmissionController(int maxWorkers, int queueLimit, int maxPerClient) {
+        this.maxPerClient = maxPerClient;
+        this.queueLimit = queueLimit;
+        AtomicInteger threadIds = new AtomicInteger();
+        this.pool = new ThreadPoolExecutor(maxWorkers, maxWorkers, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(queueLimit),
+                r -> {
+                    Thread t = new Thread(r, "transfer-http-" + threadIds.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+        this.pool.allowCoreThreadTimeOut(true);
+        this.shedder = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(SHED_QUEUE_LIMIT),
+                r -> {
+                    Thread t = new Thread(r, "transfer-http-shed");
+                    t.setDaemon(true);
+                    return t;
+                });
+        this.shedder.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Executor for transports that hand us one task per request. When the
+     * queue is full the task goes to a single shedding thread, where its
+     * guarded handler answers 503 without touching the request body. The
+     * caller is the transport's dispatcher, so it never writes a response
+     * itself: if the shedding thread is backed up too, the task runs inline
+     * only to close its connection.
+     */
+    @Override
+    public void execute(Runnable task) {
+        try {
+            pool.execute(task);
+        } catch (RejectedExecutionException e) {
+            try {
+                shedder.execute(() -> runShedding(task, Shedding.REPLY));
+            } catch (RejectedExecutionException full) {
+                runShedding(task, Shedding.CLOSE);
+            }
+        }
+    }
+
+    private static void runShedding(Runnable task, Shedding mode) {
+        SHEDDING.set(mode);
+        try {
+            task.run();
+        } finally {
+            SHEDDING.remove();
+        }
+    }
+
+    /**
+     * Transports with their own worker queue report its depth through this
+     * probe instead of using the built-in pool; pass null to go back to it.
+     */
+    public void setQueueProbe(IntSupplier queueProbe) {
+        this.queueProbe = queueProbe;
+    }
+
+    public HttpHandler guard(HttpHandler handler) {
+        return exchange -> {
+            Shedding shedding = SHEDDING.get();
+            if (shedding == Shedding.CLOSE) {
+                rejectedTotal.incrementAndGet();
+                exchange.close();
+                return;
+            }
+            String client = clientKey(exchange);
+            long now = System.nanoTime();
+            // Stamped under the map's lock, so a concurrent prune cannot drop the entry
+            ClientCounters counters = clients.compute(client, (key, existing) -> {
+                ClientCounters fresh = existing != null ? existing : new ClientCounters();
+                fresh.lastSeenNanos = now;
+                return fresh;
+            });
+            pruneIdleClients(now);
+
+            IntSupplier probe = queueProbe;
+            if (shedding == Shedding.REPLY || (probe != null && probe.getAsInt() >= queueLimit)) {
+                reject(exchange, counters);
+                return;
+            }
+            if (counters.active.incrementAndGet() > maxPerClient) {
+                counters.active.decrementAndGet();
+                reject(exchange, counters);
+                return;
+            }
+            active.incrementAndGet();
+            try {
+                handler.handle(exchange);
+            } finally {
+                active.decrementAndGet();
+                counters.active.decrementAndGet();
+            }
+        };
+    }
+
+    public void shutdown() {
+        pool.shutdownNow();
+        shedder.shutdownNow();
+    }
+
+    public Snapshot snapshot() {
+        Map<String, ClientSnapshot> perClient = new TreeMap<>();
+        clients.forEach((ip, counters) -> perClient.put(ip,
+                new ClientSnapshot(counters.active.get(), counters.rejected.get())));
+        return new Snapshot(active.get(), queueLength(), rejectedTotal.get(), perClient);
+    }
+
+    private int queueLength() {
+        IntSupplier probe = queueProbe;
+        return probe != null ? probe.getAsInt() : pool.getQueue().size();
+    }
+
+    private void reject(HttpExchange exchange, ClientCounters counters) throws IOException {
+        counters.rejected.incrementAndGet();
+        rejectedTotal.incrementAndGet();
+        byte[] body = "Server busy, retry shortly".getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Retry-After", Integer.toString(RETRY_AFTER_SECONDS));
+        exchange.getResponseHeaders().set("Connection", "close");
+        exchange.sendResponseHeaders(503, body.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(body);
+        }
+    }
+
+    /** Forget clients with nothing in flight that have not been seen for a while. */
+    private void pruneIdleClients(long now) {
+        long last = lastPrune.get();
+        if (now - last < PRUNE_INTERVAL_NANOS || !lastPrune.compareAndSet(last, now)) {
+            return;
+        }
+        for (String client : clients.keySet()) {
+            clients.computeIfPresent(client, (key, counters) -> counters.active.get() == 0
+                    && now - counters.lastSeenNanos > CLIENT_IDLE_NANOS ? null : counters);
+        }
+    }
+
+    private String clientKey(HttpExchange exchange) {
+        InetSocketAddress address = exchange.getRemoteAddress();
+        if (address == null || address.getAddress() == null) {
+            return "unknown";
+        }
+        return address.getAddress().getHostAddress();
+    }
+
+    private static final class ClientCounters {
+        private final AtomicInteger active = new AtomicInteger();
+        private final AtomicLong rejected = new AtomicLong();
+        private volatile long lastSeenNanos;
+    }
+
+    public record ClientSnapshot(int active, long rejected) {
+    }
+
+    public record Snapshot(int activeRequests, int queueLength, long rejectedTotal,
+            Map<String, ClientSnapshot> clients) {
+    }
+}
@@ -0,0 +1,581 @@
+package com.airbamin.desktop.transfer;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Paces transfer bodies so several phones share the link, and the desktop
+ * user keeps some of it. Two kinds of token bucket apply: one for the whole
+ * server and one per client IP, each refilled at its configured rate in
+ * bytes per second (0 means unlimited). A bucket may go into debt by one
+ * chunk; the next chunk waits until it is paid off.
+ * <p>
+ * When several transfers wait for the shared bucket, it is handed out by
+ * start-time fair queuing: every grant advances the transfer's virtual
+ * finish time by {@code bytes / weight}, and the waiting transfer with the
+ * earliest start goes next. A transfer with weight 2 therefore gets twice
+ * the bytes of one with weight 1, and one that goes idle (a phone that
+ * stops reading) does not bank credit for later. A transfer held back by
+ * its own client's limit never blocks others.
+ * <p>
+ * With both limits off there is no budget to divide, so weight splits
+ * time instead: while a transfer with a higher weight is moving data, a
+ * lower one rests after each chunk so it spends only {@code weight / top}
+ * of its time sending, e.g. a quarter for NORMAL under HIGH. It never stops
+ * outright. Resting only helps when the higher transfer is held back by the
+ * shared link, so it is skipped while that transfer takes more than
+ * {@link #SLOWER_FACTOR} times as long per byte as the lower one: then its
+ * own phone is the bottleneck. The lower one runs at full speed again once
+ * the higher transfer finishes, pauses or has been idle for
+ * {@link #IDLE_NANOS}. Transfers of equal weight run side by side.
+ * <p>
+ * Each transfer can also be paused, which holds its stream at the next
+ * chunk, or cancelled, which fails it there with an IOException; see
+ * {@link TransferManager}. With both limits off, nothing paused and no
+ * transfer of higher weight open, streams only check a few volatile fields
+ * per chunk. Limits can be changed at any time and apply to running
+ * transfers at once.
+ */
+final class BandwidthScheduler {
+
+    /** Largest chunk granted at a time; keeps pacing and sharing fine-grained. */
+    static final int QUANTUM = 64 * 1024;
+    /** Largest zero-copy send while unlimited, so a pause or cancel lands within this many bytes. */
+    private static final int CONTROL_CHUNK = 1024 * 1024;
+    static final int MAX_WEIGHT = 16;
+    /** Buckets hold at most this much of a second's worth of tokens, so idle time buys only a short burst. */
+    private static final double BURST_SECONDS = 0.25;
+    private static final long MAX_WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+    /** An unlimited transfer that moved nothing for this long stops holding back lower weights. */
+    static final long IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(200);
+    /** A higher-weight transfer this much slower per byte than a lower one is limited by its client, not the link. */
+    static final double SLOWER_FACTOR = 2.0;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    private volatile long globalRate;
+    private volatile long clientRate;
+    /** Highest weight among open, unpaused transfers. */
+    private volatile int topWeight;
+    // Guarded by lock
+    private final Bucket global = new Bucket();
+    private final Map<String, Bucket> clients = new HashMap<>();
+    private final List<Flow> waiting = new ArrayList<>();
+    private final List<Flow> flows = new ArrayList<>();
+    private double virtualTime;
+    private long arrivals;
+
+    BandwidthScheduler(long globalRate, long clientRate) {
+        setLimits(globalRate, clientRate);
+    }
+
+    /**
+     * @param globalRate bytes per second for all transfers together, 0 for no limit
+     * @param clientRate bytes per second for each client IP, 0 for no limit
+     */
+    void setLimits(long globalRate, long clientRate) {
+        lock.lock();
+        try {
+            this.globalRate = Math.max(0, globalRate);
+            this.clientRate = Math.max(0, clientRate);
+            long now = System.nanoTime();
+            global.reset(this.globalRate, now);
+            for (Bucket bucket : clients.values()) {
+                bucket.reset(this.clientRate, now);
+            }
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    long globalRate() {
+        return globalRate;
+    }
+
+    long clientRate() {
+        return clientRate;
+    }
+
+    /**
+     * Register a transfer. It must be closed when done, which the streams
+     * from {@link #throttle(InputStream, Flow)} and
+     * {@link #throttle(OutputStream, Flow)} do.
+     *
+     * @param weight share relative to other transfers, 1 to {@link #MAX_WEIGHT}
+     */
+    Flow open(String client, int weight) {
+        lock.lock();
+        try {
+            Bucket bucket = clients.computeIfAbsent(client, key -> {
+                Bucket fresh = new Bucket();
+                fresh.reset(clientRate, System.nanoTime());
+                return fresh;
+            });
+            bucket.flows++;
+            Flow flow = new Flow(client, bucket, clampWeight(weight));
+            flows.add(flow);
+            updateTopWeight();
+            return flow;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Reads are charged after they return, so the socket is never read ahead of the budget by more than one chunk. */
+    InputStream throttle(InputStream in, Flow flow) {
+        return new ThrottledInputStream(in, flow);
+    }
+
+    /**
+     * Writes wait for their budget first. If {@code out} can hand its socket
+     * channel to {@link DownloadEngine}, so does the result, and zero-copy
+     * sends are paced through {@link DownloadEngine.ChannelSink#allowance}.
+     */
+    OutputStream throttle(OutputStream out, Flow flow) {
+        return out instanceof DownloadEngine.ChannelSink sink
+                ? new ThrottledSinkOutputStream(out, sink, flow)
+                : new ThrottledOutputStream(out, flow);
+    }
+
+    private static int clampWeight(int weight) {
+        return Math.max(1, Math.min(MAX_WEIGHT, weight));
+    }
+
+    /** Block until {@code flow} may move {@code bytes} more, and count them as moved. */
+    private void acquire(Flow flow, long bytes) throws IOException {
+        long busy = flow.measure(System.nanoTime(), bytes);
+        if (globalRate == 0 && clientRate == 0 && !flow.paused && !flow.cancelled && flow.weight >= topWeight) {
+            flow.activeAt = System.nanoTime();
+            flow.bytes += bytes;
+            return;
+        }
+        lock.lock();
+        try {
+            long restUntil = 0;
+            while (true) {
+                while (flow.paused && !flow.cancelled) {
+                    changed.await();
+                }
+                if (flow.cancelled) {
+                    throw new IOException("Transfer cancelled");
+                }
+                if (globalRate == 0 && clientRate == 0) {
+                    int above = outrankingWeight(flow);
+                    if (above == 0) {
+                        break;
+                    }
+                    long now = System.nanoTime();
+                    if (restUntil == 0) {
+                        restUntil = now + restNanos(flow, above, busy);
+                    }
+                    if (now >= restUntil) {
+                        break;
+                    }
+                    changed.awaitNanos(Math.min(restUntil - now, MAX_WAIT_NANOS));
+                    continue;
+                }
+                if (awaitTurn(flow)) {
+                    virtualTime = flow.start;
+                    flow.finish = flow.start + (double) bytes / flow.weight;
+                    if (globalRate > 0) {
+                        global.tokens -= bytes;
+                    }
+                    if (clientRate > 0) {
+                        flow.bucket.tokens -= bytes;
+                    }
+                    changed.signalAll();
+                    break;
+                }
+                // Paused, cancelled or unlimited while queued; go round again
+            }
+            flow.activeAt = System.nanoTime();
+            flow.bytes += bytes;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for bandwidth");
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Queue {@code flow} and wait until both buckets have tokens and it is
+     * first in line. Returns false if it stopped waiting for another reason.
+     */
+    private boolean awaitTurn(Flow flow) throws InterruptedException {
+        flow.start = Math.max(virtualTime, flow.finish);
+        flow.arrival = arrivals++;
+        waiting.add(flow);
+        try {
+            while (true) {
+                long now = System.nanoTime();
+                long globalLimit = globalRate;
+                long clientLimit = clientRate;
+                if ((globalLimit == 0 && clientLimit == 0) || flow.paused || flow.cancelled) {
+                    return false;
+                }
+                global.refill(globalLimit, now);
+                flow.bucket.refill(clientLimit, now);
+                long wait;
+                if (clientLimit > 0 && flow.bucket.tokens < 0) {
+                    wait = nanosToRepay(flow.bucket, clientLimit);
+                } else if (!next(flow, clientLimit)) {
+                    // Another transfer is ahead; it signals once served
+                    wait = MAX_WAIT_NANOS;
+                } else if (globalLimit > 0 && global.tokens < 0) {
+                    wait = nanosToRepay(global, globalLimit);
+                } else {
+                    return true;
+                }
+                changed.awaitNanos(Math.max(TimeUnit.MICROSECONDS.toNanos(200), Math.min(wait, MAX_WAIT_NANOS)));
+            }
+        } finally {
+            waiting.remove(flow);
+        }
+    }
+
+    /** Whether {@code flow} has the earliest start among waiting transfers its client limit lets through. */
+    private boolean next(Flow flow, long clientLimit) {
+        for (Flow other : waiting) {
+            if (other == flow || (clientLimit > 0 && other.bucket.tokens < 0)) {
+                continue;
+            }
+            if (other.start < flow.start || (other.start == flow.start && other.arrival < flow.arrival)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The highest weight above {@code flow}'s among transfers moving data as
+     * fast as the link lets them, or 0 if an unlimited {@code flow} need not
+     * give way to any.
+     */
+    private int outrankingWeight(Flow flow) {
+        if (flow.weight >= topWeight) {
+            return 0;
+        }
+        long now = System.nanoTime();
+        double linkBound = flow.nanosPerByte * SLOWER_FACTOR;
+        int above = 0;
+        for (Flow other : flows) {
+            if (other.weight > flow.weight && !other.paused && !other.cancelled
+                    && now - other.activeAt < IDLE_NANOS && other.nanosPerByte <= linkBound) {
+                above = Math.max(above, other.weight);
+            }
+        }
+        return above;
+    }
+
+    /**
+     * How long an outranked unlimited flow rests before its next chunk: the
+     * time it spent moving the last one, scaled so it is busy for
+     * {@code weight / above} of the time. Capped at {@link #IDLE_NANOS} so a
+     * chunk that took long (a stalled phone) does not buy a long stop.
+     */
+    private static long restNanos(Flow flow, int above, long busy) {
+        return Math.min(IDLE_NANOS, busy * (above - flow.weight) / flow.weight);
+    }
+
+    /** Called with the lock held whenever a flow opens, closes or changes weight or pause state. */
+    private void updateTopWeight() {
+        int top = 0;
+        for (Flow flow : flows) {
+            if (!flow.paused && !flow.cancelled) {
+                top = Math.max(top, flow.weight);
+            }
+        }
+        topWeight = top;
+    }
+
+    private static long nanosToRepay(Bucket bucket, long rate) {
+        return (long) (-bucket.tokens * 1_000_000_000.0 / rate) + 1;
+    }
+
+    private void close(Flow flow) {
+        lock.lock();
+        try {
+            if (--flow.bucket.flows == 0) {
+                clients.remove(flow.client, flow.bucket);
+            }
+            flows.remove(flow);
+            updateTopWeight();
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Change a flag a waiting stream may be blocked on, and wake it. */
+    private void signal(Runnable change) {
+        lock.lock();
+        try {
+            change.run();
+            updateTopWeight();
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static final class Bucket {
+        double tokens;
+        long refilledAt;
+        int flows;
+
+        void reset(long rate, long now) {
+            tokens = Math.min(tokens, capacity(rate));
+            refilledAt = now;
+        }
+
+        void refill(long rate, long now) {
+            if (rate > 0) {
+                tokens = Math.min(capacity(rate), tokens + (now - refilledAt) * rate / 1_000_000_000.0);
+            }
+            refilledAt = now;
+        }
+
+        private static double capacity(long rate) {
+            return Math.max(QUANTUM, rate * BURST_SECONDS);
+        }
+    }
+
+    /** One transfer's place in the fair queue, and its controls. */
+    final class Flow implements AutoCloseable {
+        private final String client;
+        private final Bucket bucket;
+        private volatile int weight;
+        private volatile boolean paused;
+        private volatile boolean cancelled;
+        /** Written only by the transfer's own thread. */
+        private volatile long bytes;
+        private volatile boolean failed;
+        private volatile Runnable onClose;
+        /** When the flow last moved data, or opened; System.nanoTime(). */
+        private volatile long activeAt = System.nanoTime();
+        /** Recent time spent on the underlying stream per byte, averaged over chunks; 0 until measured. */
+        private volatile double nanosPerByte;
+        private double start;
+        private double finish;
+        private long arrival;
+        private boolean closed;
+
+        private Flow(String client, Bucket bucket, int weight) {
+            this.client = client;
+            this.bucket = bucket;
+            this.weight = weight;
+        }
+
+        String client() {
+            return client;
+        }
+
+        /**
+         * Fold the time since the last grant, which went on moving a chunk,
+         * into {@link #nanosPerByte}. Called only by the transfer's own thread.
+         *
+         * @return that time
+         */
+        private long measure(long now, long bytes) {
+            long busy = Math.max(0, now - activeAt);
+            double sample = (double) busy / Math.max(1, bytes);
+            double previous = nanosPerByte;
+            nanosPerByte = previous == 0 ? sample : previous + (sample - previous) / 4;
+            return busy;
+        }
+
+        int weight() {
+            return weight;
+        }
+
+        /** Takes effect from the transfer's next chunk. */
+        void setWeight(int weight) {
+            signal(() -> this.weight = clampWeight(weight));
+        }
+
+        void setPaused(boolean paused) {
+            signal(() -> this.paused = paused);
+        }
+
+        boolean isPaused() {
+            return paused;
+        }
+
+        /** Fail the transfer at its next chunk. */
+        void cancel() {
+            signal(() -> cancelled = true);
+        }
+
+        boolean isCancelled() {
+            return cancelled;
+        }
+
+        /** Bytes moved so far. */
+        long bytes() {
+            return bytes;
+        }
+
+        /** Whether reading or writing the underlying stream threw. */
+        boolean failed() {
+            return failed;
+        }
+
+        /** Run once, after the flow is closed. */
+        void onClose(Runnable action) {
+            this.onClose = action;
+        }
+
+        @Override
+        public void close() {
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+            }
+            BandwidthScheduler.this.close(this);
+            Runnable action = onClose;
+            if (action != null) {
+                action.run();
+            }
+        }
+    }
+
+    private interface StreamCall {
+        int run() throws IOException;
+    }
+
+    /** Run an I/O call on the underlying stream, remembering if it failed. */
+    private static int track(Flow flow, StreamCall call) throws IOException {
+        try {
+            return call.run();
+        } catch (IOException | RuntimeException e) {
+            flow.failed = true;
+            throw e;
+        }
+    }
+
+    private final class ThrottledInputStream extends FilterInputStream {
+        private final Flow flow;
+
+        ThrottledInputStream(InputStream in, Flow flow) {
+            super(in);
+            this.flow = flow;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int value = track(flow, () -> super.read());
+            if (value >= 0) {
+                acquire(flow, 1);
+            }
+            return value;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = track(flow, () -> super.read(b, off, Math.min(len, QUANTUM)));
+            if (read > 0) {
+                acquire(flow, read);
+            }
+            return read;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                flow.close();
+            }
+        }
+    }
+
+    private class ThrottledOutputStream extends FilterOutputStream {
+        final Flow flow;
+
+        ThrottledOutputStream(OutputStream out, Flow flow) {
+            super(out);
+            this.flow = flow;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            acquire(flow, 1);
+            track(flow, () -> {
+                out.write(b);
+                return 1;
+            });
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                int chunk = Math.min(len, QUANTUM);
+                int from = off;
+                acquire(flow, chunk);
+                track(flow, () -> {
+                    out.write(b, from, chunk);
+                    return chunk;
+                });
+                off += chunk;
+                len -= chunk;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                flow.close();
+            }
+        }
+    }
+
+    private final class ThrottledSinkOutputStream extends ThrottledOutputStream
+            implements DownloadEngine.ChannelSink {
+        private final DownloadEngine.ChannelSink sink;
+
+        ThrottledSinkOutputStream(OutputStream out, DownloadEngine.ChannelSink sink, Flow flow) {
+            super(out, flow);
+            this.sink = sink;
+        }
+
+        @Override
+        public WritableByteChannel channel() throws IOException {
+            return sink.channel();
+        }
+
+        @Override
+        public void flushBuffered() throws IOException {
+            sink.flushBuffered();
+        }
+
+        @Override
+        public void channelWritten(long bytes) throws IOException {
+            sink.channelWritten(bytes);
+        }
+
+        @Override
+        public long allowance(long wanted) throws IOException {
+            long granted = Math.min(wanted, globalRate == 0 && clientRate == 0 ? CONTROL_CHUNK : QUANTUM);
+            acquire(flow, granted);
+            return sink.allowance(granted);
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package com.airbamin.desktop.transfer;
+
+import com.sun.net.httpserver.Headers;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.zip.CRC32C;
+import java.util.zip.Checksum;
+
+/**
+ * CRC32C integrity digests for transfers, in the HTTP digest fields of RFC 9530
+ * ({@code Repr-Digest: crc32c=:AAAAAA==:}). CRC32C is hardware accelerated on
+ * current CPUs, so it is computed on every upload while the bytes stream past
+ * and costs next to nothing.
+ * <p>
+ * Digests are remembered per file, keyed by path and checked against the
+ * file's ETag, so a download only advertises a digest computed from exactly
+ * the bytes on disk. Files that were not received in this run get theirs on
+ * the first full download.
+ */
+final class ContentDigest {
+
+    static final String ALGORITHM = "crc32c";
+    private static final int MAX_CACHED = 16_384;
+    private static final int HASH_BUFFER = 1024 * 1024;
+
+    private static final Map<Path, Cached> CACHE = new LinkedHashMap<>(256, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Path, Cached> eldest) {
+            return size() > MAX_CACHED;
+        }
+    };
+
+    private record Cached(String etag, int crc) {
+    }
+
+    private ContentDigest() {
+    }
+
+    static Checksum newChecksum() {
+        return new CRC32C();
+    }
+
+    static int value(Checksum checksum) {
+        return (int) checksum.getValue();
+    }
+
+    /** The dictionary member for a digest field, e.g. {@code crc32c=:4waSgw==:}. */
+    static String field(int crc) {
+        byte[] bytes = ByteBuffer.allocate(4).putInt(crc).array();
+        return ALGORITHM + "=:" + Base64.getEncoder().encodeToString(bytes) + ":";
+    }
+
+    /**
+     * The CRC32C a client expects for the whole file, from {@code Repr-Digest},
+     * or from {@code Content-Digest} / the legacy {@code Digest} field when the
+     * request body is the whole file.
+     *
+     * @return the expected value, or null if the client sent none
+     * @throws IllegalArgumentException if a crc32c member is malformed
+     */
+    static Integer expectedRepresentation(Headers headers) {
+        Integer expected = parse(headers.getFirst("Repr-Digest"));
+        if (expected == null) {
+            expected = parse(headers.getFirst("Content-Digest"));
+        }
+        if (expected == null) {
+            expected = parse(headers.getFirst("Digest"));
+        }
+        return expected;
+    }
+
+    /** The CRC32C a client expects for this request's body alone ({@code Content-Digest}). */
+    static Integer expectedContent(Headers headers) {
+        return parse(headers.getFirst("Content-Digest"));
+    }
+
+    /**
+     * Pick the crc32c member out of a digest field. Accepts the RFC 9530 byte
+     * sequence form ({@code :base64:}) and the bare base64 of RFC 3230.
+     */
+    static Integer parse(String field) {
+        if (field == null) {
+            return null;
+        }
+        for (String member : field.split(",")) {
+            int eq = member.indexOf('=');
+            if (eq < 0 || !member.substring(0, eq).trim().toLowerCase(Locale.ROOT).equals(ALGORITHM)) {
+                continue;
+            }
+            String value = member.substring(eq + 1).trim();
+            if (value.length() >= 2 && value.startsWith(":") && value.endsWith(":")) {
+                value = value.substring(1, value.length() - 1);
+            }
+            byte[] bytes;
+            try {
+                bytes = Base64.getDecoder().decode(value);
+            } catch (IllegalArgumentException e) {
+                bytes = new byte[0];
+            }
+            if (bytes.length != 4) {
+                throw new IllegalArgumentException("crc32c digest must be 4 bytes of base64");
+            }
+            return ByteBuffer.wrap(bytes).getInt();
+        }
+        return null;
+    }
+
+    /** The remembered digest of {@code path}, if it was computed from the file as it is now. */
+    static Integer cached(Path path, String etag) {
+        synchronized (CACHE) {
+            Cached cached = CACHE.get(key(path));
+            return cached != null && cached.etag().equals(etag) ? cached.crc() : null;
+        }
+    }
+
+    static void remember(Path path, String etag, int crc) {
+        synchronized (CACHE) {
+            CACHE.put(key(path), new Cached(etag, crc));
+        }
+    }
+
+    /**
+     * One pass over a file. Only for uploads whose ranges arrived out of
+     * order, where no running digest could be kept.
+     */
+    static int compute(Path file) throws IOException {
+        Checksum checksum = newChecksum();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(HASH_BUFFER);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            while (channel.read(buffer) >= 0) {
+                buffer.flip();
+                checksum.update(buffer);
+                buffer.clear();
+            }
+        }
+        return value(checksum);
+    }
+
+    private static Path key(Path path) {
+        return path.toAbsolutePath().normalize();
+    }
+
+    /**
+     * Raised when received bytes do not match the digest the client sent. The
+     * upload is not kept.
+     */
+    static class MismatchException extends IOException {
+        private final int actual;
+
+        MismatchException(int expected, int actual) {
+            super("Checksum mismatch: expected " + field(expected) + ", received " + field(actual));
+            this.actual = actual;
+        }
+
+        int getActual() {
+            return actual;
+        }
+    }
+
+    /** Throw if {@code expected} is set and differs from {@code actual}. */
+    static void verify(Integer expected, int actual) throws MismatchException {
+        if (expected != null && expected != actual) {
+            throw new MismatchException(expected, actual);
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package com.airbamin.desktop.transfer;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Locale;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * {@code Accept-Encoding} negotiation and gzip/deflate compression for text
+ * responses (pages, JSON listings, metrics). Phones on a weak hotspot spend
+ * most of a page load waiting for bytes, and markup and JSON shrink four- to
+ * tenfold. File downloads never pass through here: they are mostly media that
+ * is compressed already, and they need exact byte ranges and zero-copy sends.
+ */
+final class ContentEncoding {
+
+    /** Bodies smaller than this go out as they are; the gzip framing would eat the gain. */
+    static final int MIN_SIZE = 1024;
+
+    enum Coding {
+        GZIP("gzip"), DEFLATE("deflate");
+
+        final String token;
+
+        Coding(String token) {
+            this.token = token;
+        }
+    }
+
+    private ContentEncoding() {
+    }
+
+    /**
+     * The coding to answer with, or null for identity. gzip wins over deflate
+     * at equal preference, because some browsers mishandle raw deflate.
+     */
+    static Coding negotiate(Headers requestHeaders) {
+        String accept = requestHeaders.getFirst("Accept-Encoding");
+        if (accept == null || accept.isBlank()) {
+            return null;
+        }
+        double gzip = -1;
+        double deflate = -1;
+        double any = -1;
+        for (String member : accept.split(",")) {
+            String[] parts = member.split(";");
+            String token = parts[0].trim().toLowerCase(Locale.ROOT);
+            double q = 1.0;
+            for (int i = 1; i < parts.length; i++) {
+                String param = parts[i].trim();
+                if (param.startsWith("q=") || param.startsWith("Q=")) {
+                    try {
+                        q = Double.parseDouble(param.substring(2).trim());
+                    } catch (NumberFormatException e) {
+                        q = 0;
+                    }
+                }
+            }
+            switch (token) {
+                case "gzip", "x-gzip" -> gzip = q;
+                case "deflate" -> deflate = q;
+                case "*" -> any = q;
+                default -> {
+                }
+            }
+        }
+        if (gzip < 0) {
+            gzip = any;
+        }
+        if (deflate < 0) {
+            deflate = any;
+        }
+        if (gzip <= 0 && deflate <= 0) {
+            return null;
+        }
+        return gzip >= deflate ? Coding.GZIP : Coding.DEFLATE;
+    }
+
+    /** Text formats worth compressing; everything else is assumed to be compressed or binary. */
+    static boolean compressible(String contentType) {
+        if (contentType == null) {
+            return false;
+        }
+        String type = contentType.toLowerCase(Locale.ROOT);
+        return type.startsWith("text/")
+                || type.startsWith("application/json")
+                || type.startsWith("application/javascript")
+                || type.startsWith("application/xml")
+                || type.startsWith("image/svg+xml");
+    }
+
+    /** Compress a whole body, e.g. once for a static page. */
+    static byte[] encode(byte[] data, Coding coding, int level) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 3 + 64);
+        if (coding == Coding.GZIP) {
+            try (OutputStream stream = new LevelGzipOutputStream(out, level)) {
+                stream.write(data);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        } else {
+            // HTTP "deflate" is the zlib format, i.e. a wrapped deflate stream
+            Deflater deflater = new Deflater(level);
+            try (OutputStream stream = new DeflaterOutputStream(out, deflater)) {
+                stream.write(data);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            } finally {
+                deflater.end();
+            }
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Wrap a response stream so a body of unknown length (sent chunked) is
+     * compressed as it is written. Closing the wrapper finishes the stream.
+     */
+    static OutputStream wrap(OutputStream out, Coding coding) throws IOException {
+        if (coding == null) {
+            return out;
+        }
+        return coding == Coding.GZIP ? new GZIPOutputStream(out, 8192) : new DeflaterOutputStream(out);
+    }
+
+    /**
+     * Send a text body, compressed when the client accepts it and it is large
+     * enough to benefit. The body is expected to be non-empty.
+     */
+    static void send(HttpExchange exchange, int status, String contentType, byte[] body) throws IOException {
+        Headers headers = exchange.getResponseHeaders();
+        headers.set("Content-Type", contentType);
+        byte[] payload = body;
+        if (compressible(contentType)) {
+            headers.add("Vary", "Accept-Encoding");
+            Coding coding = body.length >= MIN_SIZE ? negotiate(exchange.getRequestHeaders()) : null;
+            if (coding != null) {
+                payload = encode(body, coding, Deflater.DEFAULT_COMPRESSION);
+                headers.set("Content-Encoding", coding.token);
+            }
+        }
+        exchange.sendResponseHeaders(status, payload.length == 0 ? -1 : payload.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(payload);
+        }
+    }
+
+    /** Prepare headers for a chunked text response; returns the coding to wrap the body with. */
+    static Coding begin(HttpExchange exchange, String contentType) {
+        Headers headers = exchange.getResponseHeaders();
+        headers.set("Content-Type", contentType);
+        headers.add("Vary", "Accept-Encoding");
+        Coding coding = negotiate(exchange.getRequestHeaders());
+        if (coding != null) {
+            headers.set("Content-Encoding", coding.token);
+        }
+        return coding;
+    }
+
+    /** GZIPOutputStream with a caller-chosen compression level. */
+    private static final class LevelGzipOutputStream extends GZIPOutputStream {
+        LevelGzipOutputStream(OutputStream out, int level) throws IOException {
+            super(out);
+            def.setLevel(level);
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package com.airbamin.desktop.transfer;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.Checksum;
+
+/**
+ * Sends file bodies to HTTP clients straight from a {@link FileChannel}.
+ * When the response stream can hand out its socket channel the bytes go through
+ * {@link FileChannel#transferTo} (sendfile on Linux/macOS, TransmitFile on
+ * Windows). Otherwise it is read with positional reads into a reused 256 KB
+ * buffer and written in those bulk chunks, skipping the read() syscall per 8 KB
+ * that {@code Files.copy} does. Files are never memory-mapped: a mapping would
+ * keep a served file locked on Windows until the next GC, and a file truncated
+ * under it would crash the send with an InternalError instead of an IOException.
+ */
+public class DownloadEngine {
+
+    private static final long CHECKSUM_WINDOW = 16L * 1024 * 1024;
+    private static final int WRITE_CHUNK = 256 * 1024;
+    private static final ThreadLocal<byte[]> WRITE_BUFFERS = ThreadLocal.withInitial(() -> new byte[WRITE_CHUNK]);
+
+    /**
+     * Implemented by response streams that sit directly on a socket channel, so
+     * file bytes can be handed to the kernel without passing through the heap.
+     */
+    public interface ChannelSink {
+        WritableByteChannel channel() throws IOException;
+
+        /** Flush anything the stream buffered before raw channel writes start. */
+        void flushBuffered() throws IOException;
+
+        /** Account for bytes that bypassed the stream and went straight to the channel. */
+        void channelWritten(long bytes) throws IOException;
+
+        /**
+         * How many of {@code wanted} bytes may go to the channel now. Streams
+         * that pace their output block here and return a smaller amount.
+         */
+        default long allowance(long wanted) throws IOException {
+            return wanted;
+        }
+    }
+
+    /**
+     * Copy {@code length} bytes of {@code path}, starting at {@code offset}, to
+     * {@code out}. The stream is not closed.
+     */
+    public long send(Path path, long offset, long length, OutputStream out) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return send(channel, offset, length, out);
+        }
+    }
+
+    public long send(FileChannel source, long offset, long length, OutputStream out) throws IOException {
+        return send(source, offset, length, out, null);
+    }
+
+    /**
+     * As {@link #send(FileChannel, long, long, OutputStream)}, also folding the
+     * sent bytes into {@code checksum}. On the zero-copy path each window is
+     * read and checksummed just before the kernel sends it, so both read the
+     * same page-cache pages and the file is still read from disk only once.
+     */
+    public long send(FileChannel source, long offset, long length, OutputStream out, Checksum checksum)
+            throws IOException {
+        if (length <= 0) {
+            return 0;
+        }
+        if (out instanceof ChannelSink sink) {
+            sink.flushBuffered();
+            return transfer(source, offset, length, sink, checksum);
+        }
+        return copy(source, offset, length, out, checksum);
+    }
+
+    private long transfer(FileChannel source, long offset, long length, ChannelSink sink, Checksum checksum)
+            throws IOException {
+        WritableByteChannel target = sink.channel();
+        long position = offset;
+        long end = offset + length;
+        while (position < end) {
+            long windowEnd = end;
+            if (checksum != null) {
+                windowEnd = Math.min(end, position + CHECKSUM_WINDOW);
+                checksum(source, position, windowEnd, checksum);
+            }
+            long allowed = 0;
+            while (position < windowEnd) {
+                if (allowed == 0) {
+                    allowed = sink.allowance(windowEnd - position);
+                }
+                long sent = source.transferTo(position, allowed, target);
+                if (sent <= 0) {
+                    if (position >= source.size()) {
+                        throw new EOFException("File shrank while sending at byte " + position);
+                    }
+                    Thread.onSpinWait();
+                    continue;
+                }
+                sink.channelWritten(sent);
+                position += sent;
+                allowed -= sent;
+            }
+        }
+        return length;
+    }
+
+    private long copy(FileChannel source, long offset, long length, OutputStream out, Checksum checksum)
+            throws IOException {
+        byte[] buffer = WRITE_BUFFERS.get();
+        long position = offset;
+        long end = offset + length;
+        while (position < end) {
+            int chunk = (int) Math.min(buffer.length, end - position);
+            readFully(source, position, ByteBuffer.wrap(buffer, 0, chunk));
+            if (checksum != null) {
+                checksum.update(buffer, 0, chunk);
+            }
+            out.write(buffer, 0, chunk);
+            position += chunk;
+        }
+        return length;
+    }
+
+    private static void checksum(FileChannel source, long position, long end, Checksum checksum)
+            throws IOException {
+        byte[] buffer = WRITE_BUFFERS.get();
+        while (position < end) {
+            int chunk = (int) Math.min(buffer.length, end - position);
+            readFully(source, position, ByteBuffer.wrap(buffer, 0, chunk));
+            checksum.update(buffer, 0, chunk);
+            position += chunk;
+        }
+    }
+
+    /** Fill {@code buffer} from {@code position} on without moving the channel's own position. */
+    private static void readFully(FileChannel source, long position, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = source.read(buffer, position);
+            if (read < 0) {
+                throw new EOFException("File shrank while sending at byte " + position);
+            }
+            position += read;
+        }
+    }
+}
@@ -0,0 +1,229 @@
+package com.airbamin.desktop.transfer;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.stream.Stream;
+
+/**
+ * In-memory index of the files in an upload folder, newest first. The folder
+ * is scanned once on first use and then kept current by a {@link WatchService}
+ * plus direct updates from {@link TransferService} when it stores a file, so
+ * listings never touch the disk. One index is shared per folder.
+ * <p>
+ * If the platform cannot watch the folder, every listing rescans it, like the
+ * old {@code Files.list} implementation did.
+ */
+final class FileIndex {
+
+    private static final Map<Path, FileIndex> INDEXES = new ConcurrentHashMap<>();
+
+    /** Newest first; ties broken by name so distinct files never compare equal. */
+    static final Comparator<TransferService.FileRecord> ORDER = Comparator
+            .comparing(TransferService.FileRecord::lastModified).reversed()
+            .thenComparing(TransferService.FileRecord::name);
+
+    private final Path dir;
+    private final Map<String, TransferService.FileRecord> byName = new HashMap<>();
+    private final NavigableSet<TransferService.FileRecord> sorted = new ConcurrentSkipListSet<>(ORDER);
+    private final Map<Comparator<TransferService.FileRecord>, SortedView> views = new ConcurrentHashMap<>();
+    private volatile long version;
+    private volatile boolean loaded;
+    private volatile boolean watching;
+
+    private FileIndex(Path dir) {
+        this.dir = dir;
+    }
+
+    static FileIndex forDirectory(Path dir) {
+        return INDEXES.computeIfAbsent(dir.toAbsolutePath().normalize(), FileIndex::new);
+    }
+
+    /** All files, newest first. */
+    List<TransferService.FileRecord> list() throws IOException {
+        ensureLoaded();
+        return new ArrayList<>(sorted);
+    }
+
+    /** Files modified after {@code cutoff}, newest first. Only walks the matching head of the index. */
+    List<TransferService.FileRecord> listSince(LocalDateTime cutoff) throws IOException {
+        ensureLoaded();
+        List<TransferService.FileRecord> result = new ArrayList<>();
+        for (TransferService.FileRecord record : sorted) {
+            if (!record.lastModified().isAfter(cutoff)) {
+                break;
+            }
+            result.add(record);
+        }
+        return result;
+    }
+
+    /**
+     * Immutable snapshot of the index in the given order. Each distinct
+     * comparator's sort is cached until the index next changes, so paging
+     * through a large folder sorts it once rather than per page.
+     */
+    List<TransferService.FileRecord> sortedBy(Comparator<TransferService.FileRecord> order) throws IOException {
+        ensureLoaded();
+        long current = version;
+        SortedView view = views.get(order);
+        if (view != null && view.version == current) {
+            return view.files;
+        }
+        List<TransferService.FileRecord> files = new ArrayList<>(sorted);
+        if (order != ORDER) {
+            files.sort(order);
+        }
+        view = new SortedView(current, Collections.unmodifiableList(files));
+        views.put(order, view);
+        return view.files;
+    }
+
+    private record SortedView(long version, List<TransferService.FileRecord> files) {
+    }
+
+    /** Record a file that was just written, ahead of the watch event for it. */
+    synchronized void put(TransferService.FileRecord record) {
+        TransferService.FileRecord previous = byName.put(record.name(), record);
+        if (previous != null) {
+            sorted.remove(previous);
+        }
+        sorted.add(record);
+        version++;
+    }
+
+    private synchronized void remove(String name) {
+        TransferService.FileRecord previous = byName.remove(name);
+        if (previous != null) {
+            sorted.remove(previous);
+            version++;
+        }
+    }
+
+    private void ensureLoaded() throws IOException {
+        if (loaded && watching) {
+            return;
+        }
+        synchronized (this) {
+            if (loaded && watching) {
+                return;
+            }
+            if (!loaded) {
+                // Register before scanning so nothing written in between is missed
+                watching = startWatching();
+            }
+            rescan();
+            loaded = true;
+        }
+    }
+
+    private synchronized void rescan() throws IOException {
+        Map<String, TransferService.FileRecord> fresh = new HashMap<>();
+        if (Files.isDirectory(dir)) {
+            try (Stream<Path> stream = Files.list(dir)) {
+                stream.forEach(path -> {
+                    TransferService.FileRecord record = read(path);
+                    if (record != null) {
+                        fresh.put(record.name(), record);
+                    }
+                });
+            }
+        }
+        byName.clear();
+        byName.putAll(fresh);
+        sorted.clear();
+        sorted.addAll(fresh.values());
+        version++;
+    }
+
+    /** @return the record for a regular file, or null if it is gone or not a file */
+    private static TransferService.FileRecord read(Path path) {
+        if (!Files.isRegularFile(path)) {
+            return null;
+        }
+        try {
+            return TransferService.toFileRecord(path);
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            return new TransferService.FileRecord(path.getFileName().toString(), 0L, LocalDateTime.MIN);
+        }
+    }
+
+    private boolean startWatching() {
+        WatchService watcher;
+        try {
+            Files.createDirectories(dir);
+            watcher = dir.getFileSystem().newWatchService();
+            dir.register(watcher,
+                    StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_DELETE,
+                    StandardWatchEventKinds.ENTRY_MODIFY);
+        } catch (IOException | UnsupportedOperationException e) {
+            System.err.println("File index cannot watch " + dir + ", falling back to rescans: " + e.getMessage());
+            return false;
+        }
+        Thread thread = new Thread(() -> watchLoop(watcher), "transfer-file-index");
+        thread.setDaemon(true);
+        thread.start();
+        return true;
+    }
+
+    private void watchLoop(WatchService watcher) {
+        try {
+            while (true) {
+                WatchKey key = watcher.take();
+                boolean overflow = false;
+                // A write burst produces many MODIFY events per file; read each file once
+                Set<String> changed = new LinkedHashSet<>();
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        overflow = true;
+                    } else if (event.context() instanceof Path name) {
+                        changed.add(name.toString());
+                    }
+                }
+                if (overflow) {
+                    rescan();
+                } else {
+                    for (String name : changed) {
+                        TransferService.FileRecord record = read(dir.resolve(name));
+                        if (record == null) {
+                            remove(name);
+                        } else {
+                            put(record);
+                        }
+                    }
+                }
+                if (!key.reset()) {
+                    // Folder deleted or unmounted; fall back to rescans from now on
+                    watching = false;
+                    watcher.close();
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ClosedWatchServiceException | IOException e) {
+            watching = false;
+        }
+    }
+}
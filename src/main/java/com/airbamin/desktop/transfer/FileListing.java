@@ -0,0 +1,237 @@
+package com.airbamin.desktop.transfer;
+
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Query side of {@code /api/files}: sorting, filtering and keyset pagination
+ * over the {@link FileIndex}.
+ * <p>
+ * The cursor names the last file of the previous page (its sort key plus
+ * name), not a position, so files arriving while a phone pages through the
+ * folder never shift or repeat entries.
+ */
+final class FileListing {
+
+    static final int DEFAULT_LIMIT = 100;
+    static final int MAX_LIMIT = 1000;
+
+    enum Sort {
+        NAME(Comparator.comparing(TransferService.FileRecord::name, String.CASE_INSENSITIVE_ORDER)
+                .thenComparing(TransferService.FileRecord::name)),
+        SIZE(Comparator.comparingLong(TransferService.FileRecord::sizeBytes)
+                .thenComparing(TransferService.FileRecord::name)),
+        DATE(Comparator.comparing(TransferService.FileRecord::lastModified)
+                .thenComparing(TransferService.FileRecord::name, Comparator.reverseOrder()));
+
+        private final Comparator<TransferService.FileRecord> ascending;
+        private final Comparator<TransferService.FileRecord> descending;
+
+        Sort(Comparator<TransferService.FileRecord> ascending) {
+            this.ascending = ascending;
+            // Date descending is exactly the index's own order, so it needs no extra sort
+            this.descending = "DATE".equals(name()) ? FileIndex.ORDER : ascending.reversed();
+        }
+
+        Comparator<TransferService.FileRecord> comparator(boolean descending) {
+            return descending ? this.descending : ascending;
+        }
+    }
+
+    /**
+     * @param after      last file of the previous page, or null for the first page
+     * @param extensions lower-case extensions without the dot; empty means any
+     */
+    record Query(Sort sort, boolean descending, String prefix, Set<String> extensions, LocalDateTime since,
+            TransferService.FileRecord after, int limit) {
+
+        /**
+         * Parameters: {@code sort} (name, size, date), {@code order} (asc, desc),
+         * {@code prefix}, {@code ext} (comma separated), {@code since} (epoch
+         * millis), {@code limit} and {@code cursor}.
+         *
+         * @throws IllegalArgumentException for malformed parameters
+         */
+        static Query parse(Map<String, String> params) {
+            Sort sort = switch (params.getOrDefault("sort", "date").toLowerCase(Locale.ROOT)) {
+                case "name" -> Sort.NAME;
+                case "size" -> Sort.SIZE;
+                case "date" -> Sort.DATE;
+                default -> throw new IllegalArgumentException("sort must be name, size or date");
+            };
+            String order = params.get("order");
+            boolean descending = order == null ? sort != Sort.NAME : switch (order.toLowerCase(Locale.ROOT)) {
+                case "asc" -> false;
+                case "desc" -> true;
+                default -> throw new IllegalArgumentException("order must be asc or desc");
+            };
+
+            String prefix = params.get("prefix");
+            Set<String> extensions = new LinkedHashSet<>();
+            String ext = params.get("ext");
+            if (ext != null) {
+                for (String part : ext.split(",")) {
+                    String clean = part.trim().toLowerCase(Locale.ROOT);
+                    if (clean.startsWith(".")) {
+                        clean = clean.substring(1);
+                    }
+                    if (!clean.isEmpty()) {
+                        extensions.add(clean);
+                    }
+                }
+            }
+
+            LocalDateTime since = null;
+            String sinceParam = params.get("since");
+            if (sinceParam != null && !sinceParam.isBlank()) {
+                try {
+                    since = LocalDateTime.ofInstant(Instant.ofEpochMilli(Long.parseLong(sinceParam.trim())),
+                            ZoneId.systemDefault());
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("since must be epoch milliseconds");
+                }
+            }
+
+            int limit = DEFAULT_LIMIT;
+            String limitParam = params.get("limit");
+            if (limitParam != null && !limitParam.isBlank()) {
+                try {
+                    limit = Integer.parseInt(limitParam.trim());
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("limit must be a number");
+                }
+                if (limit < 1) {
+                    throw new IllegalArgumentException("limit must be positive");
+                }
+                limit = Math.min(limit, MAX_LIMIT);
+            }
+
+            TransferService.FileRecord after = null;
+            String cursor = params.get("cursor");
+            if (cursor != null && !cursor.isBlank()) {
+                after = decodeCursor(cursor.trim(), sort, descending);
+            }
+            return new Query(sort, descending, prefix == null || prefix.isEmpty() ? null : prefix,
+                    Collections.unmodifiableSet(extensions), since, after, limit);
+        }
+
+        private boolean matches(TransferService.FileRecord record) {
+            if (prefix != null && !record.name().regionMatches(true, 0, prefix, 0, prefix.length())) {
+                return false;
+            }
+            if (!extensions.isEmpty()) {
+                int dot = record.name().lastIndexOf('.');
+                if (dot < 0 || !extensions.contains(record.name().substring(dot + 1).toLowerCase(Locale.ROOT))) {
+                    return false;
+                }
+            }
+            return since == null || record.lastModified().isAfter(since);
+        }
+    }
+
+    /** @param nextCursor cursor for the following page, or null on the last page */
+    record Page(List<TransferService.FileRecord> files, String nextCursor) {
+    }
+
+    private FileListing() {
+    }
+
+    static Page page(FileIndex index, Query query) throws IOException {
+        Comparator<TransferService.FileRecord> order = query.sort().comparator(query.descending());
+        List<TransferService.FileRecord> files = index.sortedBy(order);
+
+        int start = 0;
+        if (query.after() != null) {
+            int found = Collections.binarySearch(files, query.after(), order);
+            start = found >= 0 ? found + 1 : -found - 1;
+        }
+        // Newest-first listings can stop at the first file older than "since"
+        boolean sinceBounded = query.since() != null && query.sort() == Sort.DATE && query.descending();
+
+        List<TransferService.FileRecord> page = new ArrayList<>(Math.min(query.limit(), 64));
+        boolean more = false;
+        for (int i = start; i < files.size(); i++) {
+            TransferService.FileRecord record = files.get(i);
+            if (sinceBounded && !record.lastModified().isAfter(query.since())) {
+                break;
+            }
+            if (!query.matches(record)) {
+                continue;
+            }
+            if (page.size() == query.limit()) {
+                more = true;
+                break;
+            }
+            page.add(record);
+        }
+        String next = more ? encodeCursor(page.get(page.size() - 1), query.sort(), query.descending()) : null;
+        return new Page(page, next);
+    }
+
+    /** Stream the page as JSON without building the whole document in memory. */
+    static void writeJson(Page page, OutputStream out) throws IOException {
+        Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+        JsonWriter json = new JsonWriter(writer);
+        json.beginObject();
+        json.name("files").beginArray();
+        for (TransferService.FileRecord record : page.files()) {
+            json.beginObject();
+            json.name("name").value(record.name());
+            json.name("size").value(record.sizeBytes());
+            json.name("modified").value(epochMillis(record.lastModified()));
+            json.endObject();
+        }
+        json.endArray();
+        json.name("nextCursor");
+        if (page.nextCursor() == null) {
+            json.nullValue();
+        } else {
+            json.value(page.nextCursor());
+        }
+        json.endObject();
+        json.flush();
+    }
+
+    private static long epochMillis(LocalDateTime time) {
+        return time == LocalDateTime.MIN ? 0L : time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    private static String encodeCursor(TransferService.FileRecord last, Sort sort, boolean descending) {
+        String raw = sort.name() + "|" + (descending ? "desc" : "asc") + "|" + last.sizeBytes() + "|"
+                + last.lastModified() + "|" + last.name();
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static TransferService.FileRecord decodeCursor(String cursor, Sort sort, boolean descending) {
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            String[] parts = raw.split("\\|", 5);
+            if (parts.length != 5 || !parts[0].equals(sort.name())
+                    || !parts[1].equals(descending ? "desc" : "asc")) {
+                throw new IllegalArgumentException("cursor does not match sort and order");
+            }
+            return new TransferService.FileRecord(parts[4], Long.parseLong(parts[2]),
+                    LocalDateTime.parse(parts[3]));
+        } catch (NumberFormatException | DateTimeParseException e) {
+            throw new IllegalArgumentException("invalid cursor");
+        }
+    }
+}
@@ -0,0 +1,250 @@
+package com.airbamin.desktop.transfer;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Persistent SHA-256 index of the upload folder, used to spot re-sent files.
+ * Entries live in {@code .airbamin/hashes.log}, one appended line per stored
+ * file ({@code sha256 size mtime name}, tab separated); later lines win and
+ * the log is compacted on load when most of it is stale. An entry only counts
+ * while the file still has the recorded size and modification time, so files
+ * edited or deleted by hand are never mistaken for duplicates.
+ * <p>
+ * Files that were in the folder before deduplication was switched on are
+ * hashed once by a low-priority background thread.
+ */
+final class HashIndex {
+
+    private static final Map<Path, HashIndex> INDEXES = new ConcurrentHashMap<>();
+    private static final String LOG_FILE = "hashes.log";
+    private static final int HASH_BUFFER = 1024 * 1024;
+
+    private final Path uploadDir;
+    private final Path logFile;
+    private final Map<String, Entry> byName = new HashMap<>();
+    private final Map<String, String> nameBySha = new HashMap<>();
+    private boolean loaded;
+    private boolean backfillStarted;
+
+    private record Entry(String sha256, long size, long mtime) {
+    }
+
+    private HashIndex(Path uploadDir) {
+        this.uploadDir = uploadDir;
+        this.logFile = uploadDir.resolve(UploadSessionManager.META_DIR).resolve(LOG_FILE);
+    }
+
+    static HashIndex forDirectory(Path uploadDir) {
+        return INDEXES.computeIfAbsent(uploadDir.toAbsolutePath().normalize(), HashIndex::new);
+    }
+
+    static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    static String hex(byte[] digest) {
+        return HexFormat.of().formatHex(digest);
+    }
+
+    /**
+     * The stored file with this content, or null. Stale entries (file gone or
+     * changed since it was hashed) are dropped on the way.
+     */
+    synchronized Path find(String sha256) {
+        ensureLoaded();
+        String name = nameBySha.get(sha256.toLowerCase(java.util.Locale.ROOT));
+        if (name == null) {
+            return null;
+        }
+        Path path = uploadDir.resolve(name);
+        Entry entry = byName.get(name);
+        if (entry == null || !matches(path, entry)) {
+            forget(name);
+            return null;
+        }
+        return path;
+    }
+
+    /** Remember the hash of a file that was just stored. */
+    synchronized void record(Path file, String sha256) {
+        ensureLoaded();
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+            String name = file.getFileName().toString();
+            Entry entry = new Entry(sha256, attrs.size(), attrs.lastModifiedTime().toMillis());
+            put(name, entry);
+            append(name, entry);
+        } catch (IOException e) {
+            System.err.println("Could not index hash of " + file + ": " + e.getMessage());
+        }
+    }
+
+    /** Hash files that are not indexed yet, once per process. */
+    synchronized void startBackfill(FileIndex files) {
+        if (backfillStarted) {
+            return;
+        }
+        backfillStarted = true;
+        Thread backfill = new Thread(() -> runBackfill(files), "transfer-hash-backfill");
+        backfill.setDaemon(true);
+        backfill.setPriority(Thread.MIN_PRIORITY);
+        backfill.start();
+    }
+
+    static String hash(Path file) throws IOException {
+        MessageDigest digest = newDigest();
+        byte[] buffer = new byte[HASH_BUFFER];
+        try (InputStream in = Files.newInputStream(file)) {
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        return hex(digest.digest());
+    }
+
+    private void runBackfill(FileIndex files) {
+        int hashed = 0;
+        synchronized (this) {
+            ensureLoaded();
+        }
+        try {
+            List<TransferService.FileRecord> records = files.list();
+            for (TransferService.FileRecord record : records) {
+                Path path = uploadDir.resolve(record.name());
+                synchronized (this) {
+                    Entry entry = byName.get(record.name());
+                    if (entry != null && matches(path, entry)) {
+                        continue;
+                    }
+                }
+                try {
+                    // Read the attributes first so a write during hashing leaves a stale entry, not a wrong one
+                    BasicFileAttributes before = Files.readAttributes(path, BasicFileAttributes.class);
+                    String sha = hash(path);
+                    synchronized (this) {
+                        Entry entry = new Entry(sha, before.size(), before.lastModifiedTime().toMillis());
+                        put(record.name(), entry);
+                        append(record.name(), entry);
+                    }
+                    hashed++;
+                } catch (IOException e) {
+                    // Vanished or unreadable; skip it
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Hash backfill failed: " + e.getMessage());
+        }
+        if (hashed > 0) {
+            System.out.println("Indexed hashes of " + hashed + " existing file(s)");
+        }
+    }
+
+    private static boolean matches(Path path, Entry entry) {
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+            return attrs.isRegularFile() && attrs.size() == entry.size()
+                    && attrs.lastModifiedTime().toMillis() == entry.mtime();
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private void put(String name, Entry entry) {
+        Entry previous = byName.put(name, entry);
+        if (previous != null && name.equals(nameBySha.get(previous.sha256()))) {
+            nameBySha.remove(previous.sha256());
+        }
+        nameBySha.put(entry.sha256(), name);
+    }
+
+    private void forget(String name) {
+        Entry previous = byName.remove(name);
+        if (previous != null && name.equals(nameBySha.get(previous.sha256()))) {
+            nameBySha.remove(previous.sha256());
+        }
+    }
+
+    private void ensureLoaded() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        if (!Files.exists(logFile)) {
+            return;
+        }
+        int lines = 0;
+        try {
+            for (String line : Files.readAllLines(logFile, StandardCharsets.UTF_8)) {
+                String[] parts = line.split("\t", 4);
+                if (parts.length != 4) {
+                    continue;
+                }
+                try {
+                    put(parts[3], new Entry(parts[0], Long.parseLong(parts[1]), Long.parseLong(parts[2])));
+                    lines++;
+                } catch (NumberFormatException ignored) {
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Could not read hash index " + logFile + ": " + e.getMessage());
+            return;
+        }
+        if (lines > 2 * byName.size() + 1000) {
+            compact();
+        }
+    }
+
+    private void compact() {
+        Path tmp = logFile.resolveSibling(LOG_FILE + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, Entry> entry : byName.entrySet()) {
+                writer.write(line(entry.getKey(), entry.getValue()));
+            }
+        } catch (IOException e) {
+            System.err.println("Could not compact hash index: " + e.getMessage());
+            return;
+        }
+        try {
+            Files.move(tmp, logFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.err.println("Could not compact hash index: " + e.getMessage());
+        }
+    }
+
+    private void append(String name, Entry entry) {
+        if (name.indexOf('\n') >= 0 || name.indexOf('\r') >= 0) {
+            return;
+        }
+        try {
+            Files.createDirectories(logFile.getParent());
+            Files.writeString(logFile, line(name, entry), StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            System.err.println("Could not update hash index: " + e.getMessage());
+        }
+    }
+
+    private static String line(String name, Entry entry) {
+        return entry.sha256() + "\t" + entry.size() + "\t" + entry.mtime() + "\t" + name + "\n";
+    }
+}
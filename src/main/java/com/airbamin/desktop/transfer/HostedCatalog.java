@@ -0,0 +1,430 @@
+package com.airbamin.desktop.transfer;
+
+import com.google.gson.stream.JsonWriter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.zip.Deflater;
+
+/**
+ * The files shared from this computer for phones to download. Every entry has
+ * a short id and a unique name, both looked up in a hash index, and carries
+ * its size and modification time from when it was last checked, so listing
+ * and finding files costs no disk access. The JSON listing is serialized and
+ * compressed once per change and served with an ETag.
+ * <p>
+ * Metadata is re-checked for a file whenever it is downloaded, and for the
+ * whole catalog in the background when a listing is asked for and the last
+ * check is older than {@link #REVALIDATE_AFTER_MILLIS}; that request still
+ * gets the current listing. Hosted folders are walked recursively on first
+ * demand, not when they are chosen, and a file inside one can be downloaded
+ * by name before the walk has happened. Dot files and dot folders are left
+ * out, and symbolic links inside hosted folders are not followed.
+ */
+final class HostedCatalog {
+
+    static final long REVALIDATE_AFTER_MILLIS = 30_000;
+
+    /**
+     * @param id   short identifier, unique within the catalog; null for a file
+     *             found inside a hosted folder that is not listed yet
+     * @param name what phones see and download by: the file name, or
+     *             {@code Folder/sub/file.jpg} for a file in a hosted folder
+     */
+    record Entry(String id, String name, Path path, long size, long lastModified) {
+
+        /** The last segment of the name, for Content-Disposition. */
+        String fileName() {
+            return name.substring(name.lastIndexOf('/') + 1);
+        }
+    }
+
+    /** A hosted folder. Its files become entries named {@code prefix/relative/path}. */
+    private static final class Root {
+        final Path dir;
+        final Path realDir;
+        final String prefix;
+        boolean enumerated;
+
+        Root(Path dir, Path realDir, String prefix) {
+            this.dir = dir;
+            this.realDir = realDir;
+            this.prefix = prefix;
+        }
+    }
+
+    private final Map<String, Entry> byId = new ConcurrentHashMap<>();
+    private final Map<String, Entry> byName = new ConcurrentHashMap<>();
+    private final List<Root> roots = new CopyOnWriteArrayList<>();
+    // Everything below, and Root.enumerated, is guarded by this
+    private final List<String> order = new ArrayList<>();
+    private final Set<String> topLevelNames = new HashSet<>();
+    private long nextId;
+    /** Bumped when the hosted set is replaced, so a background check of the old set is discarded. */
+    private long generation;
+    private boolean revalidating;
+    private volatile WebAsset listing;
+    private volatile long validatedAt;
+
+    /** Host exactly these files and folders, replacing whatever was hosted before. */
+    synchronized void replace(List<File> items) {
+        byId.clear();
+        byName.clear();
+        order.clear();
+        roots.clear();
+        topLevelNames.clear();
+        generation++;
+        for (File item : items) {
+            Path path = item.toPath().toAbsolutePath().normalize();
+            try {
+                BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+                if (attrs.isDirectory()) {
+                    Path folderName = path.getFileName();
+                    String prefix = uniqueTopLevel(folderName == null ? "Folder" : folderName.toString());
+                    roots.add(new Root(path, path.toRealPath(), prefix));
+                } else if (attrs.isRegularFile()) {
+                    add(path, uniqueTopLevel(path.getFileName().toString()), attrs);
+                }
+            } catch (IOException e) {
+                System.err.println("Cannot host " + path + ": " + e.getMessage());
+            }
+        }
+        listing = null;
+        validatedAt = System.currentTimeMillis();
+    }
+
+    Entry findById(String id) {
+        return byId.get(id);
+    }
+
+    /**
+     * The entry called {@code name}, or for a name inside a hosted folder the
+     * file it points at, even if the folder has not been walked yet.
+     *
+     * @return the entry, or null if nothing hosted has that name
+     */
+    Entry findByName(String name) {
+        Entry entry = byName.get(name);
+        if (entry != null) {
+            return entry;
+        }
+        for (Root root : roots) {
+            if (name.startsWith(root.prefix + "/")) {
+                return resolve(root, name);
+            }
+        }
+        return null;
+    }
+
+    /** Every entry in listing order, walking hosted folders first if needed. */
+    synchronized List<Entry> entries() {
+        enumeratePending();
+        List<Entry> entries = new ArrayList<>(order.size());
+        for (String id : order) {
+            entries.add(byId.get(id));
+        }
+        return entries;
+    }
+
+    /**
+     * The listing as {@code [{"id","name","size","modified"}...]}, built on
+     * first use after a change. Starts a background re-check if the metadata
+     * is stale.
+     */
+    WebAsset listing() {
+        WebAsset current = listing;
+        if (current == null) {
+            current = buildListing();
+        }
+        if (System.currentTimeMillis() - validatedAt > REVALIDATE_AFTER_MILLIS) {
+            revalidateInBackground();
+        }
+        return current;
+    }
+
+    /**
+     * Re-check one entry's metadata, e.g. right before it is downloaded.
+     *
+     * @return the current entry, or null if the file is gone
+     */
+    Entry refresh(Entry entry) {
+        BasicFileAttributes attrs;
+        try {
+            attrs = Files.readAttributes(entry.path(), BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            remove(entry);
+            return null;
+        } catch (IOException e) {
+            return entry;
+        }
+        if (!attrs.isRegularFile()) {
+            remove(entry);
+            return null;
+        }
+        Entry current = withAttributes(entry, attrs);
+        if (current != entry) {
+            update(entry, current);
+        }
+        return current;
+    }
+
+    private synchronized WebAsset buildListing() {
+        enumeratePending();
+        if (listing == null) {
+            listing = WebAsset.of("application/json", serialize(), Deflater.DEFAULT_COMPRESSION);
+        }
+        return listing;
+    }
+
+    private byte[] serialize() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(64 + order.size() * 80);
+        try (Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8)) {
+            JsonWriter json = new JsonWriter(writer);
+            json.beginArray();
+            for (String id : order) {
+                Entry entry = byId.get(id);
+                json.beginObject();
+                json.name("id").value(entry.id());
+                json.name("name").value(entry.name());
+                json.name("size").value(entry.size());
+                json.name("modified").value(entry.lastModified());
+                json.endObject();
+            }
+            json.endArray();
+            json.flush();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return out.toByteArray();
+    }
+
+    private void enumeratePending() {
+        for (Root root : roots) {
+            if (!root.enumerated) {
+                root.enumerated = true;
+                for (Map.Entry<Path, BasicFileAttributes> file : walk(root, Set.of()).entrySet()) {
+                    add(file.getKey(), nameIn(root, file.getKey()), file.getValue());
+                }
+                listing = null;
+            }
+        }
+    }
+
+    /** Regular files under a root, except those in {@code known}, in path order. */
+    private static Map<Path, BasicFileAttributes> walk(Root root, Set<Path> known) {
+        Map<Path, BasicFileAttributes> found = new TreeMap<>();
+        try {
+            Files.walkFileTree(root.dir, new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                    return !dir.equals(root.dir) && hidden(dir) ? FileVisitResult.SKIP_SUBTREE : FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    if (attrs.isRegularFile() && !hidden(file) && !known.contains(file)) {
+                        found.put(file, attrs);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException e) {
+                    // Unreadable folders are left out rather than failing the whole listing
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            System.err.println("Cannot list hosted folder " + root.dir + ": " + e.getMessage());
+        }
+        return found;
+    }
+
+    private static boolean hidden(Path path) {
+        return path.getFileName() != null && path.getFileName().toString().startsWith(".");
+    }
+
+    /** A file named inside a hosted folder, checked to really be a regular file within it. */
+    private static Entry resolve(Root root, String name) {
+        String relative = name.substring(root.prefix.length() + 1);
+        for (String segment : relative.split("/", -1)) {
+            if (segment.isEmpty() || segment.startsWith(".")) {
+                return null;
+            }
+        }
+        try {
+            Path path = root.dir.resolve(relative).normalize();
+            BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+            if (!path.startsWith(root.dir) || !attrs.isRegularFile() || !path.toRealPath().startsWith(root.realDir)) {
+                return null;
+            }
+            return new Entry(null, name, path, attrs.size(), attrs.lastModifiedTime().toMillis());
+        } catch (InvalidPathException | IOException e) {
+            return null;
+        }
+    }
+
+    private static String nameIn(Root root, Path file) {
+        StringBuilder name = new StringBuilder(root.prefix);
+        for (Path segment : root.dir.relativize(file)) {
+            name.append('/').append(segment);
+        }
+        return name.toString();
+    }
+
+    private void add(Path path, String name, BasicFileAttributes attrs) {
+        String id = Long.toString(++nextId, 36);
+        Entry entry = new Entry(id, name, path, attrs.size(), attrs.lastModifiedTime().toMillis());
+        byId.put(id, entry);
+        byName.put(name, entry);
+        order.add(id);
+    }
+
+    private synchronized void update(Entry previous, Entry current) {
+        if (previous.id() != null && byId.replace(previous.id(), previous, current)) {
+            byName.put(current.name(), current);
+            listing = null;
+        }
+    }
+
+    private synchronized void remove(Entry entry) {
+        if (entry.id() != null && byId.remove(entry.id(), entry)) {
+            byName.remove(entry.name(), entry);
+            order.remove(entry.id());
+            listing = null;
+        }
+    }
+
+    private static Entry withAttributes(Entry entry, BasicFileAttributes attrs) {
+        long modified = attrs.lastModifiedTime().toMillis();
+        if (attrs.size() == entry.size() && modified == entry.lastModified()) {
+            return entry;
+        }
+        return new Entry(entry.id(), entry.name(), entry.path(), attrs.size(), modified);
+    }
+
+    /** Names of individual files and hosted folders must not clash; later ones get numbered. */
+    private String uniqueTopLevel(String name) {
+        String candidate = name;
+        String stem = name;
+        String ext = "";
+        int dot = name.lastIndexOf('.');
+        if (dot > 0) {
+            stem = name.substring(0, dot);
+            ext = name.substring(dot);
+        }
+        for (int n = 2; !topLevelNames.add(candidate); n++) {
+            candidate = stem + " (" + n + ")" + ext;
+        }
+        return candidate;
+    }
+
+    private void revalidateInBackground() {
+        synchronized (this) {
+            if (revalidating) {
+                return;
+            }
+            revalidating = true;
+        }
+        Thread thread = new Thread(this::revalidate, "transfer-hosted-catalog");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stat every entry and re-walk walked folders, outside the lock, then
+     * apply the differences in one step. The listing is only rebuilt if
+     * something changed.
+     */
+    private void revalidate() {
+        try {
+            long seen;
+            List<Entry> entries = new ArrayList<>();
+            List<Root> walked = new ArrayList<>();
+            synchronized (this) {
+                seen = generation;
+                for (String id : order) {
+                    entries.add(byId.get(id));
+                }
+                for (Root root : roots) {
+                    if (root.enumerated) {
+                        walked.add(root);
+                    }
+                }
+            }
+
+            List<Entry> changed = new ArrayList<>();
+            List<Entry> gone = new ArrayList<>();
+            Set<Path> known = new HashSet<>();
+            for (Entry entry : entries) {
+                known.add(entry.path());
+                BasicFileAttributes attrs;
+                try {
+                    attrs = Files.readAttributes(entry.path(), BasicFileAttributes.class);
+                } catch (NoSuchFileException e) {
+                    gone.add(entry);
+                    continue;
+                } catch (IOException e) {
+                    // Keep what we have; the next check may succeed
+                    continue;
+                }
+                if (!attrs.isRegularFile()) {
+                    gone.add(entry);
+                } else if (withAttributes(entry, attrs) != entry) {
+                    changed.add(withAttributes(entry, attrs));
+                }
+            }
+            Map<Root, Map<Path, BasicFileAttributes>> added = new HashMap<>();
+            for (Root root : walked) {
+                added.put(root, walk(root, known));
+            }
+
+            synchronized (this) {
+                if (seen != generation) {
+                    return;
+                }
+                for (Entry current : changed) {
+                    Entry previous = byId.get(current.id());
+                    if (previous != null) {
+                        update(previous, current);
+                    }
+                }
+                for (Entry entry : gone) {
+                    remove(entry);
+                }
+                for (Map.Entry<Root, Map<Path, BasicFileAttributes>> files : added.entrySet()) {
+                    for (Map.Entry<Path, BasicFileAttributes> file : files.getValue().entrySet()) {
+                        add(file.getKey(), nameIn(files.getKey(), file.getKey()), file.getValue());
+                        listing = null;
+                    }
+                }
+                validatedAt = System.currentTimeMillis();
+            }
+        } finally {
+            synchronized (this) {
+                revalidating = false;
+            }
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package com.airbamin.desktop.transfer;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Parser for {@code Range: bytes=...} request headers (RFC 9110 section 14).
+ * Ranges are resolved against the representation size, sorted and coalesced
+ * so a client cannot make us send the same bytes many times over.
+ */
+final class HttpRanges {
+
+    /** Upper bound on ranges per request; anything larger is answered with the full body. */
+    private static final int MAX_RANGES = 64;
+
+    private HttpRanges() {
+    }
+
+    record ByteRange(long start, long end) {
+        long length() {
+            return end - start + 1;
+        }
+
+        String contentRange(long size) {
+            return "bytes " + start + "-" + end + "/" + size;
+        }
+    }
+
+    /** Outcome of evaluating a Range header. */
+    record Result(Status status, List<ByteRange> ranges) {
+        static final Result FULL = new Result(Status.FULL, List.of());
+        static final Result UNSATISFIABLE = new Result(Status.UNSATISFIABLE, List.of());
+    }
+
+    enum Status {
+        FULL, PARTIAL, UNSATISFIABLE
+    }
+
+    static Result parse(String header, long size) {
+        if (header == null || header.isBlank()) {
+            return Result.FULL;
+        }
+        String value = header.trim();
+        if (!value.regionMatches(true, 0, "bytes=", 0, 6)) {
+            // Unknown range unit: ignore the header as the RFC requires
+            return Result.FULL;
+        }
+
+        String[] specs = value.substring(6).split(",");
+        if (specs.length > MAX_RANGES) {
+            return Result.FULL;
+        }
+
+        List<ByteRange> ranges = new ArrayList<>();
+        for (String raw : specs) {
+            String spec = raw.trim();
+            if (spec.isEmpty()) {
+                continue;
+            }
+            int dash = spec.indexOf('-');
+            if (dash < 0) {
+                return Result.FULL;
+            }
+            try {
+                String first = spec.substring(0, dash).trim();
+                String last = spec.substring(dash + 1).trim();
+                if (first.isEmpty()) {
+                    // Suffix range: last N bytes
+                    long suffix = Long.parseLong(last);
+                    if (suffix > 0 && size > 0) {
+                        ranges.add(new ByteRange(Math.max(0, size - suffix), size - 1));
+                    }
+                    continue;
+                }
+                long start = Long.parseLong(first);
+                long end = last.isEmpty() ? size - 1 : Math.min(Long.parseLong(last), size - 1);
+                if (start < 0 || (!last.isEmpty() && Long.parseLong(last) < start)) {
+                    return Result.FULL;
+                }
+                if (start < size) {
+                    ranges.add(new ByteRange(start, end));
+                }
+            } catch (NumberFormatException e) {
+                return Result.FULL;
+            }
+        }
+
+        if (ranges.isEmpty()) {
+            return Result.UNSATISFIABLE;
+        }
+        return new Result(Status.PARTIAL, coalesce(ranges));
+    }
+
+    private static List<ByteRange> coalesce(List<ByteRange> ranges) {
+        if (ranges.size() == 1) {
+            return ranges;
+        }
+        ranges.sort(Comparator.comparingLong(ByteRange::start));
+        List<ByteRange> merged = new ArrayList<>();
+        ByteRange current = ranges.get(0);
+        for (int i = 1; i < ranges.size(); i++) {
+            ByteRange next = ranges.get(i);
+            if (next.start() <= current.end() + 1) {
+                current = new ByteRange(current.start(), Math.max(current.end(), next.end()));
+            } else {
+                merged.add(current);
+                current = next;
+            }
+        }
+        merged.add(current);
+        return merged;
+    }
+}
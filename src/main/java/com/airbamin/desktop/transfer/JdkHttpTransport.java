@@ -0,0 +1,49 @@
+package com.airbamin.desktop.transfer;
+
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The original transport: the JDK {@link HttpServer}, running requests on the
+ * bounded pool of the {@link AdmissionController}.
+ */
+class JdkHttpTransport implements TransferTransport {
+
+    private final InetSocketAddress address;
+    private final AdmissionController admission;
+    private final Map<String, HttpHandler> contexts = new LinkedHashMap<>();
+    private HttpServer server;
+
+    JdkHttpTransport(InetSocketAddress address, AdmissionController admission) {
+        this.address = address;
+        this.admission = admission;
+    }
+
+    @Override
+    public void createContext(String path, HttpHandler handler) {
+        contexts.put(path, handler);
+    }
+
+    @Override
+    public void start() throws IOException {
+        HttpServer created = HttpServer.create(address, 0);
+        contexts.forEach(created::createContext);
+        admission.setQueueProbe(null);
+        created.setExecutor(admission);
+        created.start();
+        server = created;
+    }
+
+    @Override
+    public void stop() {
+        if (server != null) {
+            server.stop(0);
+            server = null;
+        }
+    }
+}
@@ -1,10 +1,15 @@
 package com.airbamin.desktop.transfer;
 
+import com.airbamin.desktop.storage.LocalStorage;
 import com.airbamin.desktop.ui.MirrorWindowManager;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
 import com.sun.net.httpserver.Headers;
 import com.sun.net.httpserver.HttpExchange;
-import com.sun.net.httpserver.HttpServer;
+import com.sun.net.httpserver.HttpHandler;
 
+import java.io.BufferedOutputStream;
 import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -13,15 +18,28 @@ import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.URI;
 import java.net.URLDecoder;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Optional;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Checksum;
 
 /**
  * Lightweight HTTP server that mirrors the critical Spring endpoints locally.
@@ -31,11 +49,23 @@ import java.util.concurrent.Executors;
 public class LocalTransferServer {
 
     private static final int PORT = 9090;
+    private static final int MAX_ARCHIVE_REQUEST = 1024 * 1024;
+    private static final int ARCHIVE_BUFFER = 64 * 1024;
+    /** Pages for phone browsers (src/main/resources/web), read and precompressed once. */
+    private static final WebAsset UPLOAD_PAGE = WebAsset.load("/web/upload.html", "text/html; charset=UTF-8");
+    private static final WebAsset FILES_PAGE = WebAsset.load("/web/files.html", "text/html; charset=UTF-8");
     private static LocalTransferServer INSTANCE;
 
     private volatile TransferService transferService = new TransferService();
-    private HttpServer server;
-    private ExecutorService executor;
+    private volatile UploadSessionManager uploadSessions = new UploadSessionManager(transferService);
+    private final DownloadEngine downloadEngine = new DownloadEngine();
+    private TransferTransport server;
+    private volatile AdmissionController admission = new AdmissionController();
+    private final MetricsRegistry metrics = new MetricsRegistry();
+    private final ProgressAggregator progress = new ProgressAggregator(this::notifyUploadProgress);
+    private final BandwidthScheduler bandwidth = new BandwidthScheduler(LocalStorage.loadTransferGlobalLimit(),
+            LocalStorage.loadTransferClientLimit());
+    private final TransferManager transfers = new TransferManager(bandwidth);
     private final CopyOnWriteArrayList<ServerListener> listeners = new CopyOnWriteArrayList<>();
     private int activePort = PORT;
     private Thread shutdownHook;
@@ -50,13 +80,14 @@ public class LocalTransferServer {
         return INSTANCE;
     }
 
-    private final CopyOnWriteArrayList<java.io.File> hostedFiles = new CopyOnWriteArrayList<>();
+    private final HostedCatalog hostedCatalog = new HostedCatalog();
 
+    /**
+     * Share these files with phones, replacing what was shared before. A
+     * folder is shared with everything in it, recursively.
+     */
     public void hostFiles(List<java.io.File> files) {
-        hostedFiles.clear();
-        if (files != null) {
-            hostedFiles.addAll(files);
-        }
+        hostedCatalog.replace(files == null ? List.of() : files);
     }
 
     public synchronized boolean start() {
@@ -64,17 +95,19 @@ public class LocalTransferServer {
             return true;
         }
 
+        TransferTransport.Kind kind = TransferTransport.configuredKind();
         int candidate = PORT;
         while (candidate < PORT + 100) {
             try {
                 // Bind to 0.0.0.0 (all interfaces) so phones can connect
-                HttpServer created = HttpServer.create(new InetSocketAddress("0.0.0.0", candidate), 0);
+                TransferTransport created = TransferTransport.create(kind,
+                        new InetSocketAddress("0.0.0.0", candidate), admission);
                 configureServer(created);
+                created.start();
                 activePort = candidate;
                 server = created;
-                server.start();
                 registerShutdownHook();
-                System.out.println("Transfer server started on port: " + candidate);
+                System.out.println("Transfer server started on port: " + candidate + " (" + kind + " transport)");
                 return true;
             } catch (IOException e) {
                 candidate++;
@@ -88,12 +121,11 @@ public class LocalTransferServer {
 
     public synchronized void stop() {
         if (server != null) {
-            server.stop(0);
+            server.stop();
             server = null;
-        }
-        if (executor != null) {
-            executor.shutdownNow();
-            executor = null;
+            // Release the request threads; the next start gets a fresh pool
+            admission.shutdown();
+            admission = new AdmissionController();
         }
         if (shutdownHook != null) {
             try {
@@ -106,25 +138,65 @@ public class LocalTransferServer {
         }
     }
 
-    private void configureServer(HttpServer server) {
-        server.createContext("/", this::handleRoot);
-        server.createContext("/ping", this::handlePing);
-        server.createContext("/upload", this::handleUpload);
-        server.createContext("/files", this::handleFiles);
-        server.createContext("/download", this::handleDownload);
+    private void configureServer(TransferTransport server) {
+        route(server, "/", this::handleRoot);
+        route(server, "/ping", this::handlePing);
+        route(server, "/upload", this::handleUpload);
+        route(server, "/upload/sessions", this::handleUploadSession);
+        route(server, "/upload/batch", this::handleUploadBatch);
+        route(server, "/files", this::handleFiles);
+        route(server, "/api/files", this::handleApiFiles);
+        route(server, "/api/files/has", this::handleHasFile);
+        route(server, "/download", this::handleDownload);
 
         // Reverse Transfer Endpoints
-        server.createContext("/api/files/list-hosted", this::handleListHosted);
-        server.createContext("/api/files/download-hosted", this::handleDownloadHosted);
-        server.createContext("/api/mirror/start", this::handleMirrorStart);
-        server.createContext("/disconnect", this::handleDisconnect);
+        route(server, "/api/files/list-hosted", this::handleListHosted);
+        route(server, "/api/files/download-hosted", this::handleDownloadHosted);
+        route(server, "/api/files/archive", this::handleArchive);
+        route(server, "/api/mirror/start", this::handleMirrorStart);
+        route(server, "/disconnect", this::handleDisconnect);
+        route(server, "/metrics", this::handleMetrics);
+        route(server, "/api/transfers", this::handleTransfers);
+    }
+
+    private void route(TransferTransport server, String path, HttpHandler handler) {
+        server.createContext(path, admission.guard(metrics.instrument(path, handler)));
+    }
+
+    public MetricsRegistry getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Cap upload and download bandwidth, in bytes per second (0 = no limit).
+     * Takes effect immediately, running transfers included.
+     *
+     * @param total     all transfers together
+     * @param perClient each phone (client IP)
+     */
+    public void setBandwidthLimits(long total, long perClient) {
+        bandwidth.setLimits(total, perClient);
+    }
+
+    public long getBandwidthLimit() {
+        return bandwidth.globalRate();
+    }
+
+    public long getClientBandwidthLimit() {
+        return bandwidth.clientRate();
+    }
 
-        executor = Executors.newCachedThreadPool(r -> {
-            Thread t = new Thread(r, "transfer-http");
-            t.setDaemon(true);
-            return t;
-        });
-        server.setExecutor(executor);
+    /** Running uploads and downloads, with pause, resume, cancel and priority controls. */
+    public TransferManager getTransferManager() {
+        return transfers;
+    }
+
+    /**
+     * Live request counters: active requests, queue depth and rejections per
+     * client IP.
+     */
+    public AdmissionController.Snapshot getAdmissionSnapshot() {
+        return admission.snapshot();
     }
 
     private void registerShutdownHook() {
@@ -167,228 +239,27 @@ public class LocalTransferServer {
         return transferService;
     }
 
+    /** Apply saved deduplication and fsync settings to uploads from now on. */
+    public void reloadTransferSettings() {
+        transferService.reloadSettings();
+    }
+
     public synchronized void updateUploadDir(Path newPath) {
         if (newPath == null) {
             return;
         }
         transferService = new TransferService(newPath);
+        uploadSessions = new UploadSessionManager(transferService);
     }
 
     private void handleRoot(HttpExchange exchange) throws IOException {
         notifyClientConnected(exchange);
-        if (!"GET".equalsIgnoreCase(exchange.getRequestMethod())) {
+        if (!"GET".equalsIgnoreCase(exchange.getRequestMethod())
+                && !"HEAD".equalsIgnoreCase(exchange.getRequestMethod())) {
             sendResponse(exchange, 405, "Method Not Allowed");
             return;
         }
-        String html = """
-                        <!DOCTYPE html>
-                        <html>
-                        <head>
-                            <meta charset="UTF-8">
-                            <meta name="viewport" content="width=device-width, initial-scale=1.0, maximum-scale=1.0, user-scalable=no">
-                            <title>AirBamin - Upload</title>
-                            <style>
-                                * { margin:0; padding:0; box-sizing:border-box; }
-                                body {
-                                    font-family:-apple-system,BlinkMacSystemFont,"Segoe UI",Roboto,sans-serif;
-                                    background:linear-gradient(135deg,#667eea 0%,#764ba2 100%);
-                                    min-height:100vh;
-                                    display:flex;
-                                    align-items:center;
-                                    justify-content:center;
-                                    padding:20px;
-                                }
-                                .container {
-                                    background:#fff;
-                                    padding:30px;
-                                    border-radius:20px;
-                                    box-shadow:0 20px 60px rgba(0,0,0,0.3);
-                                    max-width:520px;
-                                    width:100%;
-                                }
-                                .logo { text-align:center; font-size:64px; margin-bottom:18px; }
-                                h1 { text-align:center; color:#1f2937; margin-bottom:6px; }
-                                .sub { text-align:center; color:#6b7280; margin-bottom:24px; }
-                                .upload-area {
-                                    border:3px dashed #667eea;
-                                    border-radius:16px;
-                                    padding:46px 24px;
-                                    background:#f8f9ff;
-                                    text-align:center;
-                                    transition:all .3s;
-                                    cursor:pointer;
-                                    margin-bottom:18px;
-                                }
-                                .upload-area.dragover { border-color:#10b981; background:#d1fae5; }
-                                input[type=file] { display:none; }
-                                .file-label {
-                                    display:inline-block;
-                                    padding:14px 30px;
-                                    border-radius:12px;
-                                    background:linear-gradient(135deg,#667eea 0%,#764ba2 100%);
-                                    color:#fff;
-                                    font-weight:700;
-                                }
-                                .file-info {
-                                    margin:15px 0;
-                                    padding:14px;
-                                    border-radius:12px;
-                                    background:linear-gradient(135deg,#e0e7ff,#ddd6fe);
-                                    display:none;
-                                    font-weight:600;
-                                }
-                                .upload-btn {
-                                    width:100%;
-                                    padding:18px;
-                                    background:linear-gradient(135deg,#10b981,#059669);
-                                    border:none;
-                                    border-radius:12px;
-                                    color:#fff;
-                                    font-size:18px;
-                                    font-weight:800;
-                                    cursor:pointer;
-                                    text-transform:uppercase;
-                                }
-                                .upload-btn:disabled { opacity:.4; cursor:not-allowed; }
-                                .progress-container { margin:22px 0; display:none; }
-                                .progress-wrapper {
-                                    width:100%;
-                                    height:40px;
-                                    background:#e5e7eb;
-                                    border-radius:22px;
-                                    overflow:hidden;
-                                    position:relative;
-                                }
-                                .progress-bar {
-                                    height:100%;
-                                    width:0%;
-                                    background:linear-gradient(90deg,#667eea,#764ba2);
-                                    transition:width .2s linear;
-                                }
-                                .progress-text {
-                                    position:absolute;
-                                    top:50%;
-                                    left:50%;
-                                    transform:translate(-50%,-50%);
-                                    font-weight:800;
-                                    color:#1f2937;
-                                }
-                                .status {
-                                    text-align:center;
-                                    font-weight:700;
-                                    padding:14px;
-                                    border-radius:12px;
-                                    display:none;
-                                }
-                                .status.success { background:#d1fae5; color:#065f46; }
-                                .status.error { background:#fee2e2; color:#991b1b; }
-                                .links { margin-top:14px; text-align:center; font-size:14px; }
-                                .links a { color:#4f46e5; text-decoration:none; font-weight:600; }
-                            </style>
-                        </head>
-                        <body>
-                        <div class="container">
-                            <div class="logo">✈️</div>
-                            <h1>AirBamin</h1>
-                            <p class="sub">Phone → PC Upload</p>
-                            <form id="uploadForm">
-                                <div class="upload-area" id="uploadArea">
-                                    <div style="font-size:48px;margin-bottom:10px;">📁</div>
-                                    <label for="fileInput" class="file-label">Select Files</label>
-                                    <input type="file" id="fileInput" multiple>
-                                </div>
-                                <div class="file-info" id="fileInfo"></div>
-                                <div class="progress-container" id="progressContainer">
-                                    <div class="progress-wrapper">
-                                        <div class="progress-bar" id="progressBar"></div>
-                                        <div class="progress-text" id="progressText">0%</div>
-                                    </div>
-                                </div>
-                                <button type="submit" class="upload-btn" id="uploadBtn" disabled>Start Upload</button>
-                                <div class="status" id="status"></div>
-                            </form>
-                            <div class="links">
-                                <a href="/files">View uploaded files</a>
-                            </div>
-                        </div>
-                        <script>
-                            const fileInput = document.getElementById('fileInput');
-                            const uploadArea = document.getElementById('uploadArea');
-                            const uploadBtn = document.getElementById('uploadBtn');
-                            const fileInfo = document.getElementById('fileInfo');
-                            const progressContainer = document.getElementById('progressContainer');
-                            const progressBar = document.getElementById('progressBar');
-                            const progressText = document.getElementById('progressText');
-                            const statusEl = document.getElementById('status');
-
-                            uploadArea.addEventListener('dragover', (e) => {
-                                e.preventDefault();
-                                uploadArea.classList.add('dragover');
-                            });
-                            uploadArea.addEventListener('dragleave', () => uploadArea.classList.remove('dragover'));
-                            uploadArea.addEventListener('drop', (e) => {
-                                e.preventDefault();
-                                uploadArea.classList.remove('dragover');
-                                fileInput.files = e.dataTransfer.files;
-                                handleFiles();
-                            });
-                            fileInput.addEventListener('change', handleFiles);
-
-                            function handleFiles() {
-                                const files = fileInput.files;
-                                if (!files.length) { uploadBtn.disabled = true; return; }
-                                let totalSize = 0;
-                                for (let i = 0; i < files.length; i++) totalSize += files[i].size;
-                                fileInfo.innerHTML = `<strong>${files.length}</strong> file(s) | <strong>${(totalSize / (1024*1024)).toFixed(2)} MB</strong>`;
-                                fileInfo.style.display = 'block';
-                                uploadBtn.disabled = false;
-                            }
-
-                            document.getElementById('uploadForm').addEventListener('submit', async (e) => {
-                                e.preventDefault();
-                                const files = fileInput.files;
-                                if (!files.length) return;
-
-                                uploadBtn.disabled = true;
-                                progressContainer.style.display = 'block';
-                                statusEl.style.display = 'block';
-                                statusEl.className = 'status';
-                                statusEl.textContent = '⚡ Uploading… keep this page open.';
-
-                                let total = 0;
-                                for (let i = 0; i < files.length; i++) total += files[i].size;
-                                let uploaded = 0;
-
-                const batchId = Date.now().toString();
-
-                for (let i = 0; i < files.length; i++) {
-                                    const file = files[i];
-                                    await new Promise((resolve) => {
-                                        const xhr = new XMLHttpRequest();
-                                        xhr.upload.addEventListener('progress', (evt) => {
-                                            if (evt.lengthComputable) {
-                                                const percent = Math.round(((uploaded + evt.loaded) / total) * 100);
-                                                progressBar.style.width = percent + '%';
-                                                progressText.textContent = percent + '%';
-                                            }
-                                        });
-                                        xhr.onload = () => { uploaded += file.size; resolve(); };
-                                        xhr.onerror = () => { statusEl.className = 'status error'; statusEl.textContent = 'Upload failed'; resolve(); };
-                                        xhr.open('PUT', '/upload?filename=' + encodeURIComponent(file.name) + '&batchId=' + batchId + '&index=' + (i+1) + '&total=' + files.length);
-                                        xhr.send(file);
-                                    });
-                                }
-
-                                statusEl.className = 'status success';
-                                statusEl.textContent = '✅ Upload complete! Files saved to your PC.';
-                                setTimeout(() => { statusEl.style.display = 'none'; }, 3500);
-                                setTimeout(() => { location.reload(); }, 3000);
-                            });
-                        </script>
-                        </body>
-                        </html>
-                        """;
-        sendHtml(exchange, html);
+        UPLOAD_PAGE.send(exchange);
     }
 
     private void handleUpload(HttpExchange exchange) throws IOException {
@@ -400,7 +271,8 @@ public class LocalTransferServer {
         Headers headers = exchange.getResponseHeaders();
         headers.add("Access-Control-Allow-Origin", "*");
         headers.add("Access-Control-Allow-Methods", "PUT, POST, OPTIONS");
-        headers.add("Access-Control-Allow-Headers", "Content-Type");
+        headers.add("Access-Control-Allow-Headers", "Content-Type, Repr-Digest, Content-Digest, Digest");
+        headers.add("Access-Control-Expose-Headers", "Repr-Digest");
 
         // Handle OPTIONS preflight request
         if ("OPTIONS".equalsIgnoreCase(method)) {
@@ -422,70 +294,331 @@ public class LocalTransferServer {
         notifyUploadStarted(exchange, filename);
 
         long contentLength = readContentLength(exchange);
+        Integer expectedDigest;
+        try {
+            expectedDigest = ContentDigest.expectedRepresentation(exchange.getRequestHeaders());
+        } catch (IllegalArgumentException e) {
+            sendResponse(exchange, 400, e.getMessage());
+            return;
+        }
 
         try (InputStream body = wrapWithProgress(exchange, filename, contentLength, exchange.getRequestBody())) {
-            TransferService.FileRecord record = transferService.saveStream(filename, body);
+            TransferService.FileRecord record = transferService.saveStream(filename, body, expectedDigest);
+            setReprDigest(headers, transferService.getUploadDir().resolve(record.name()), record);
             notifyUploadCompleted(exchange, record);
             if (total <= 1 || index >= total) {
                 notifyBatchCompleted(exchange, batchId);
             }
             sendResponse(exchange, 200, "Uploaded " + record.name());
+        } catch (ContentDigest.MismatchException e) {
+            headers.set("Repr-Digest", ContentDigest.field(e.getActual()));
+            sendResponse(exchange, 400, "Upload failed: " + e.getMessage());
+        } catch (IOException e) {
+            sendResponse(exchange, 500, "Upload failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Many files in one {@code multipart/form-data} POST, for sets of small
+     * files where a request per file would spend more time on round trips than
+     * on data. Each file part is stored through {@link TransferService} as soon
+     * as it has been read, so the request is never buffered and a dropped
+     * connection keeps every file that arrived whole. A file that cannot be
+     * stored is skipped and the rest of the request still goes through. Answers
+     * {@code {"files":[{"part","name","size"}...],"failed":[{"part","error"}...]}},
+     * {@code part} counting the request's files from 0, plus {@code "error"}
+     * if the request itself broke off.
+     * <p>
+     * Query: {@code batchId}, {@code count} (files in this request, for the
+     * progress label), and {@code index}/{@code total} (position of the
+     * request's last file in the whole selection) as for {@code /upload}.
+     */
+    private void handleUploadBatch(HttpExchange exchange) throws IOException {
+        notifyClientConnected(exchange);
+
+        Headers headers = exchange.getResponseHeaders();
+        headers.add("Access-Control-Allow-Origin", "*");
+        headers.add("Access-Control-Allow-Methods", "POST, OPTIONS");
+        headers.add("Access-Control-Allow-Headers", "Content-Type");
+
+        if ("OPTIONS".equalsIgnoreCase(exchange.getRequestMethod())) {
+            sendResponse(exchange, 200, "OK");
+            return;
+        }
+        if (!"POST".equalsIgnoreCase(exchange.getRequestMethod())) {
+            sendResponse(exchange, 405, "Method Not Allowed");
+            return;
+        }
+        String boundary = MultipartReader.boundary(exchange.getRequestHeaders().getFirst("Content-Type"));
+        if (boundary == null) {
+            sendResponse(exchange, 400, "Expected multipart/form-data");
+            return;
+        }
+
+        Map<String, String> params = queryParams(exchange.getRequestURI());
+        int count = parseInt(params.get("count"), 0);
+        int index = parseInt(params.get("index"), 1);
+        int total = parseInt(params.get("total"), 1);
+        String label = count > 0 ? count + " files" : "batch upload";
+
+        StringBuilder files = new StringBuilder();
+        StringBuilder failed = new StringBuilder();
+        int status = 200;
+        String error = null;
+        try (InputStream body = wrapWithProgress(exchange, label, readContentLength(exchange),
+                exchange.getRequestBody())) {
+            MultipartReader reader = new MultipartReader(body, boundary);
+            MultipartReader.Part part;
+            int ordinal = 0;
+            while ((part = reader.next()) != null) {
+                if (part.filename() == null || part.filename().isBlank()) {
+                    continue;
+                }
+                int partIndex = ordinal++;
+                notifyUploadStarted(exchange, part.filename());
+                try {
+                    TransferService.FileRecord record = transferService.saveStream(part.filename(), part.body());
+                    notifyUploadCompleted(exchange, record);
+                    files.append(files.isEmpty() ? "" : ",").append(String.format(
+                            "{\"part\":%d,\"name\":\"%s\",\"size\":%d}", partIndex,
+                            escapeJson(record.name()), record.sizeBytes()));
+                } catch (IOException e) {
+                    if (reader.isBroken()) {
+                        throw e;
+                    }
+                    // Only this file is lost (e.g. a name the file system refuses); the reader skips its rest
+                    failed.append(failed.isEmpty() ? "" : ",").append(String.format(
+                            "{\"part\":%d,\"error\":\"%s\"}", partIndex, escapeJson(e.getMessage())));
+                }
+            }
+        } catch (MultipartReader.MalformedException e) {
+            status = 400;
+            error = e.getMessage();
+        } catch (IOException e) {
+            status = 500;
+            error = "Upload failed: " + e.getMessage();
+        }
+        if (status == 200 && (total <= 1 || index >= total)) {
+            notifyBatchCompleted(exchange, params.getOrDefault("batchId", ""));
+        }
+
+        StringBuilder json = new StringBuilder("{\"files\":[").append(files).append("],\"failed\":[")
+                .append(failed).append(']');
+        if (error != null) {
+            json.append(",\"error\":\"").append(escapeJson(error)).append('"');
+        }
+        json.append('}');
+        sendJson(exchange, status, json.toString());
+    }
+
+    /**
+     * Resumable upload protocol:
+     * <pre>
+     * POST   /upload/sessions?filename=X&amp;size=N   create, returns {"id","offset","ranges"}
+     *        (&amp;mode=parallel)                       preallocate and accept ranges on many connections
+     * GET    /upload/sessions/{id}                 received ranges (also HEAD, Upload-Offset header)
+     * PUT    /upload/sessions/{id}?offset=N        write a chunk starting at N
+     * POST   /upload/sessions/{id}/commit          move the finished file into the upload folder
+     * DELETE /upload/sessions/{id}                 abandon the upload
+     * </pre>
+     * A PUT may carry a CRC32C {@code Content-Digest} for its chunk and the
+     * commit a {@code Repr-Digest} for the whole file; a chunk or file that
+     * fails the check is answered with 400 and not kept.
+     */
+    private void handleUploadSession(HttpExchange exchange) throws IOException {
+        notifyClientConnected(exchange);
+
+        String method = exchange.getRequestMethod();
+        Headers headers = exchange.getResponseHeaders();
+        headers.add("Access-Control-Allow-Origin", "*");
+        headers.add("Access-Control-Allow-Methods", "GET, HEAD, PUT, POST, DELETE, OPTIONS");
+        headers.add("Access-Control-Allow-Headers", "Content-Type, Repr-Digest, Content-Digest, Digest");
+        headers.add("Access-Control-Expose-Headers", "Upload-Offset, Repr-Digest, Content-Digest");
+
+        if ("OPTIONS".equalsIgnoreCase(method)) {
+            sendResponse(exchange, 200, "OK");
+            return;
+        }
+
+        String[] segments = exchange.getRequestURI().getPath()
+                .substring("/upload/sessions".length())
+                .split("/");
+        String id = segments.length > 1 ? segments[1] : null;
+        String action = segments.length > 2 ? segments[2] : null;
+        Map<String, String> params = queryParams(exchange.getRequestURI());
+        UploadSessionManager sessions = uploadSessions;
+
+        if (id == null || id.isEmpty()) {
+            if (!"POST".equalsIgnoreCase(method)) {
+                sendResponse(exchange, 405, "Method Not Allowed");
+                return;
+            }
+            long size = parseLong(params.get("size"), -1);
+            UploadSessionManager.Mode mode = "parallel".equalsIgnoreCase(params.get("mode"))
+                    ? UploadSessionManager.Mode.PARALLEL
+                    : UploadSessionManager.Mode.SEQUENTIAL;
+            if (mode == UploadSessionManager.Mode.PARALLEL && size < 0) {
+                sendResponse(exchange, 400, "Parallel uploads need size");
+                return;
+            }
+            UploadSessionManager.UploadSession session = sessions.create(
+                    params.getOrDefault("filename", "upload.bin"), size, mode);
+            sendJson(exchange, 201, session.toJson().toString());
+            return;
+        }
+
+        UploadSessionManager.UploadSession session = sessions.get(id).orElse(null);
+        if (session == null) {
+            sendResponse(exchange, 404, "Unknown upload session");
+            return;
+        }
+        headers.set("Upload-Offset", Long.toString(session.contiguous()));
+
+        try {
+            if ("commit".equals(action) && "POST".equalsIgnoreCase(method)) {
+                TransferService.FileRecord record = sessions.commit(session,
+                        ContentDigest.expectedRepresentation(exchange.getRequestHeaders()));
+                setReprDigest(headers, transferService.getUploadDir().resolve(record.name()), record);
+                notifyUploadCompleted(exchange, record);
+                int index = parseInt(params.get("index"), 1);
+                int total = parseInt(params.get("total"), 1);
+                if (total <= 1 || index >= total) {
+                    notifyBatchCompleted(exchange, params.getOrDefault("batchId", ""));
+                }
+                sendResponse(exchange, 200, "Uploaded " + record.name());
+            } else if (action != null) {
+                sendResponse(exchange, 404, "Not found");
+            } else if ("GET".equalsIgnoreCase(method)) {
+                sendJson(exchange, 200, session.toJson().toString());
+            } else if ("HEAD".equalsIgnoreCase(method)) {
+                exchange.sendResponseHeaders(200, -1);
+                exchange.close();
+            } else if ("PUT".equalsIgnoreCase(method)) {
+                long offset = parseLong(params.get("offset"), session.contiguous());
+                if (session.received() == 0 && session.progress().get() == 0) {
+                    notifyUploadStarted(exchange, session.filename());
+                }
+                long total = session.size() > 0 ? session.size() : -1;
+                if (session.mode() == UploadSessionManager.Mode.SEQUENTIAL) {
+                    session.progress().set(offset);
+                }
+                try (InputStream body = wrapWithProgress(exchange, session.id(), session.filename(), total, session.progress(),
+                        exchange.getRequestBody())) {
+                    long received = sessions.write(session, offset, body,
+                            ContentDigest.expectedContent(exchange.getRequestHeaders()));
+                    headers.set("Upload-Offset", Long.toString(received));
+                    sendJson(exchange, 200, session.toJson().toString());
+                }
+            } else if ("DELETE".equalsIgnoreCase(method)) {
+                sessions.discard(session);
+                exchange.sendResponseHeaders(204, -1);
+                exchange.close();
+            } else {
+                sendResponse(exchange, 405, "Method Not Allowed");
+            }
+        } catch (UploadSessionManager.OffsetMismatchException e) {
+            headers.set("Upload-Offset", Long.toString(e.getCurrentOffset()));
+            sendJson(exchange, 409, session.toJson().toString());
+        } catch (IllegalArgumentException e) {
+            sendResponse(exchange, 400, e.getMessage());
+        } catch (ContentDigest.MismatchException e) {
+            headers.set("Upload-Offset", Long.toString(session.contiguous()));
+            headers.set("commit".equals(action) ? "Repr-Digest" : "Content-Digest",
+                    ContentDigest.field(e.getActual()));
+            sendResponse(exchange, 400, "Upload failed: " + e.getMessage());
         } catch (IOException e) {
+            headers.set("Upload-Offset", Long.toString(session.contiguous()));
             sendResponse(exchange, 500, "Upload failed: " + e.getMessage());
         }
     }
 
     private void handleFiles(HttpExchange exchange) throws IOException {
         notifyClientConnected(exchange);
+        if (!"GET".equalsIgnoreCase(exchange.getRequestMethod())
+                && !"HEAD".equalsIgnoreCase(exchange.getRequestMethod())) {
+            sendResponse(exchange, 405, "Method Not Allowed");
+            return;
+        }
+        // Rows are fetched page by page from /api/files, so the page stays small
+        // however many files the folder holds.
+        FILES_PAGE.send(exchange);
+    }
+
+    /**
+     * JSON file listing with keyset pagination, see {@link FileListing.Query#parse}
+     * for the parameters. Pages are written straight to the response stream.
+     */
+    private void handleApiFiles(HttpExchange exchange) throws IOException {
+        notifyClientConnected(exchange);
+
+        Headers headers = exchange.getResponseHeaders();
+        headers.add("Access-Control-Allow-Origin", "*");
+        headers.add("Access-Control-Allow-Methods", "GET, OPTIONS");
+        headers.add("Access-Control-Allow-Headers", "Content-Type");
+
+        if ("OPTIONS".equalsIgnoreCase(exchange.getRequestMethod())) {
+            sendResponse(exchange, 200, "OK");
+            return;
+        }
         if (!"GET".equalsIgnoreCase(exchange.getRequestMethod())) {
             sendResponse(exchange, 405, "Method Not Allowed");
             return;
         }
 
-        List<TransferService.FileRecord> files = transferService.listFiles();
-        StringBuilder sb = new StringBuilder();
-        sb.append("""
-                <!DOCTYPE html>
-                <html><head><meta charset='UTF-8'><title>Uploaded Files</title>
-                <style>
-                body{font-family:Arial;background:#111;color:#eee;padding:24px;}
-                table{width:100%;border-collapse:collapse;}
-                th,td{border:1px solid #333;padding:8px;}
-                th{background:#1f2937;}
-                a{color:#38bdf8;}
-                </style></head><body>
-                <h2>Uploaded Files</h2>
-                <p><a href='/'>← Back to upload page</a></p>
-                """);
-        if (files.isEmpty()) {
-            sb.append("<p>No files uploaded yet.</p>");
-        } else {
-            sb.append(
-                    "<table><tr><th>#</th><th>Name</th><th>Size (KB)</th><th>Last Modified</th><th>Download</th></tr>");
-            int index = 1;
-            for (TransferService.FileRecord file : files) {
-                sb.append("<tr><td>")
-                        .append(index++)
-                        .append("</td><td>")
-                        .append(escape(file.name()))
-                        .append("</td><td>")
-                        .append(file.sizeKb())
-                        .append("</td><td>")
-                        .append(escape(file.formattedDate()))
-                        .append("</td><td><a href=\"/download?filename=")
-                        .append(urlEncode(file.name()))
-                        .append("\">Download</a></td></tr>");
-            }
-            sb.append("</table>");
+        FileListing.Query query;
+        try {
+            query = FileListing.Query.parse(queryParams(exchange.getRequestURI()));
+        } catch (IllegalArgumentException e) {
+            sendJson(exchange, 400, "{\"error\":\"" + escapeJson(e.getMessage()) + "\"}");
+            return;
         }
-        sb.append("</body></html>");
+        FileListing.Page page = FileListing.page(transferService.index(), query);
 
-        sendHtml(exchange, sb.toString());
+        headers.set("Cache-Control", "no-store");
+        ContentEncoding.Coding coding = ContentEncoding.begin(exchange, "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(200, 0);
+        try (OutputStream os = ContentEncoding.wrap(exchange.getResponseBody(), coding)) {
+            FileListing.writeJson(page, os);
+        }
+    }
+
+    /**
+     * {@code GET /api/files/has?sha256=<hex>}: lets a client skip uploading
+     * content the folder already holds. Always answers "no" while
+     * deduplication is switched off.
+     */
+    private void handleHasFile(HttpExchange exchange) throws IOException {
+        Headers headers = exchange.getResponseHeaders();
+        headers.add("Access-Control-Allow-Origin", "*");
+        headers.add("Access-Control-Allow-Methods", "GET, OPTIONS");
+
+        if ("OPTIONS".equalsIgnoreCase(exchange.getRequestMethod())) {
+            sendResponse(exchange, 200, "OK");
+            return;
+        }
+        if (!"GET".equalsIgnoreCase(exchange.getRequestMethod())) {
+            sendResponse(exchange, 405, "Method Not Allowed");
+            return;
+        }
+        String sha256 = queryParams(exchange.getRequestURI()).get("sha256");
+        if (sha256 == null || !sha256.matches("(?i)[0-9a-f]{64}")) {
+            sendJson(exchange, 400, "{\"error\":\"sha256 must be 64 hex characters\"}");
+            return;
+        }
+        Optional<TransferService.FileRecord> existing = transferService.findByHash(sha256);
+        if (existing.isPresent()) {
+            TransferService.FileRecord record = existing.get();
+            sendJson(exchange, 200, String.format("{\"exists\":true,\"name\":\"%s\",\"size\":%d}",
+                    escapeJson(record.name()), record.sizeBytes()));
+        } else {
+            sendJson(exchange, 200, "{\"exists\":false}");
+        }
     }
 
     private void handleDownload(HttpExchange exchange) throws IOException {
         notifyClientConnected(exchange);
-        if (!"GET".equalsIgnoreCase(exchange.getRequestMethod())) {
+        if (!"GET".equalsIgnoreCase(exchange.getRequestMethod())
+                && !"HEAD".equalsIgnoreCase(exchange.getRequestMethod())) {
             sendResponse(exchange, 405, "Method Not Allowed");
             return;
         }
@@ -495,19 +628,13 @@ public class LocalTransferServer {
             return;
         }
 
-        Path path = transferService.getUploadDir().resolve(filename).normalize();
-        if (!path.startsWith(transferService.getUploadDir()) || !Files.exists(path)) {
+        Path path = transferService.resolveServed(filename);
+        if (path == null || !Files.isRegularFile(path)) {
             sendResponse(exchange, 404, "Not found");
             return;
         }
 
-        Headers headers = exchange.getResponseHeaders();
-        headers.add("Content-Type", "application/octet-stream");
-        headers.add("Content-Disposition", "attachment; filename=\"" + filename + "\"");
-        exchange.sendResponseHeaders(200, Files.size(path));
-        try (OutputStream os = exchange.getResponseBody()) {
-            Files.copy(path, os);
-        }
+        sendFile(exchange, path, filename);
     }
 
     private void handleListHosted(HttpExchange exchange) throws IOException {
@@ -516,7 +643,7 @@ public class LocalTransferServer {
         // CORS
         Headers headers = exchange.getResponseHeaders();
         headers.add("Access-Control-Allow-Origin", "*");
-        headers.add("Access-Control-Allow-Methods", "GET, OPTIONS");
+        headers.add("Access-Control-Allow-Methods", "GET, HEAD, OPTIONS");
         headers.add("Access-Control-Allow-Headers", "Content-Type");
 
         if ("OPTIONS".equalsIgnoreCase(exchange.getRequestMethod())) {
@@ -524,68 +651,325 @@ public class LocalTransferServer {
             return;
         }
 
-        if (!"GET".equalsIgnoreCase(exchange.getRequestMethod())) {
+        if (!"GET".equalsIgnoreCase(exchange.getRequestMethod())
+                && !"HEAD".equalsIgnoreCase(exchange.getRequestMethod())) {
             sendResponse(exchange, 405, "Method Not Allowed");
             return;
         }
 
-        StringBuilder json = new StringBuilder("[");
-        for (int i = 0; i < hostedFiles.size(); i++) {
-            java.io.File file = hostedFiles.get(i);
-            json.append(String.format("{\"name\":\"%s\",\"size\":%d}",
-                    escapeJson(file.getName()), file.length()));
-            if (i < hostedFiles.size() - 1) {
-                json.append(",");
-            }
-        }
-        json.append("]");
-
-        headers.add("Content-Type", "application/json");
-        sendResponse(exchange, 200, json.toString());
+        hostedCatalog.listing().send(exchange);
     }
 
+    /** {@code ?id=...} as given by the listing, or {@code ?filename=...} with the listed name. */
     private void handleDownloadHosted(HttpExchange exchange) throws IOException {
         notifyClientConnected(exchange);
 
         // CORS
         Headers headers = exchange.getResponseHeaders();
         headers.add("Access-Control-Allow-Origin", "*");
-        headers.add("Access-Control-Allow-Methods", "GET, OPTIONS");
+        headers.add("Access-Control-Allow-Methods", "GET, HEAD, OPTIONS");
+        headers.add("Access-Control-Allow-Headers", "Range, If-Range");
+        headers.add("Access-Control-Expose-Headers", "Accept-Ranges, Content-Range, Content-Length, ETag, Repr-Digest");
 
         if ("OPTIONS".equalsIgnoreCase(exchange.getRequestMethod())) {
             sendResponse(exchange, 200, "OK");
             return;
         }
 
-        if (!"GET".equalsIgnoreCase(exchange.getRequestMethod())) {
+        if (!"GET".equalsIgnoreCase(exchange.getRequestMethod())
+                && !"HEAD".equalsIgnoreCase(exchange.getRequestMethod())) {
             sendResponse(exchange, 405, "Method Not Allowed");
             return;
         }
 
-        String filename = queryParams(exchange.getRequestURI()).get("filename");
-        if (filename == null) {
+        Map<String, String> params = queryParams(exchange.getRequestURI());
+        String id = params.get("id");
+        String filename = params.get("filename");
+        if (id == null && filename == null) {
             sendResponse(exchange, 400, "Missing filename");
             return;
         }
 
-        java.io.File targetFile = hostedFiles.stream()
-                .filter(f -> f.getName().equals(filename))
-                .findFirst()
-                .orElse(null);
-
-        if (targetFile == null || !targetFile.exists()) {
+        HostedCatalog.Entry entry = id != null ? hostedCatalog.findById(id) : hostedCatalog.findByName(filename);
+        if (entry != null) {
+            entry = hostedCatalog.refresh(entry);
+        }
+        if (entry == null) {
             sendResponse(exchange, 404, "File not found or not hosted");
             return;
         }
 
-        headers.add("Content-Type", "application/octet-stream");
+        sendFile(exchange, entry.path(), entry.fileName());
+    }
+
+    /**
+     * Several files as one ZIP, streamed as it is built:
+     * <pre>
+     * GET  /api/files/archive?source=hosted&amp;name=a.jpg&amp;name=b.pdf
+     * GET  /api/files/archive?source=uploads&amp;all=1
+     * POST /api/files/archive   {"source":"hosted","names":["a.jpg","b.pdf"]}
+     * </pre>
+     * {@code source} is {@code hosted} (the files shared from this computer,
+     * the default) or {@code uploads} (the upload folder). One request replaces
+     * a download per file, which matters for sets of many small files.
+     */
+    private void handleArchive(HttpExchange exchange) throws IOException {
+        notifyClientConnected(exchange);
+
+        String method = exchange.getRequestMethod();
+        Headers headers = exchange.getResponseHeaders();
+        headers.add("Access-Control-Allow-Origin", "*");
+        headers.add("Access-Control-Allow-Methods", "GET, POST, OPTIONS");
+        headers.add("Access-Control-Allow-Headers", "Content-Type");
+
+        if ("OPTIONS".equalsIgnoreCase(method)) {
+            sendResponse(exchange, 200, "OK");
+            return;
+        }
+        if (!"GET".equalsIgnoreCase(method) && !"POST".equalsIgnoreCase(method)) {
+            sendResponse(exchange, 405, "Method Not Allowed");
+            return;
+        }
+
+        Map<String, String> params = queryParams(exchange.getRequestURI());
+        String source = params.getOrDefault("source", "hosted");
+        boolean all = "1".equals(params.get("all")) || "true".equalsIgnoreCase(params.get("all"));
+        List<String> names = queryValues(exchange.getRequestURI(), "name");
+        if ("POST".equalsIgnoreCase(method)) {
+            try (InputStream body = exchange.getRequestBody()) {
+                JsonObject json = JsonParser.parseString(
+                        new String(body.readNBytes(MAX_ARCHIVE_REQUEST), StandardCharsets.UTF_8)).getAsJsonObject();
+                if (json.has("source")) {
+                    source = json.get("source").getAsString();
+                }
+                if (json.has("names")) {
+                    for (JsonElement name : json.getAsJsonArray("names")) {
+                        names.add(name.getAsString());
+                    }
+                }
+            } catch (RuntimeException e) {
+                sendResponse(exchange, 400, "Expected {\"source\":...,\"names\":[...]}");
+                return;
+            }
+        }
+        if (!all && names.isEmpty()) {
+            sendResponse(exchange, 400, "Missing name");
+            return;
+        }
+
+        ZipStream zip = new ZipStream();
+        if ("uploads".equalsIgnoreCase(source)) {
+            Path dir = transferService.getUploadDir();
+            if (all) {
+                for (TransferService.FileRecord record : transferService.listFiles()) {
+                    addToArchive(zip, record.name(), dir.resolve(record.name()));
+                }
+            } else {
+                for (String name : names) {
+                    Path path = transferService.resolveServed(name);
+                    if (path == null || !Files.isRegularFile(path)) {
+                        sendResponse(exchange, 404, "Not found: " + name);
+                        return;
+                    }
+                    zip.add(name, path);
+                }
+            }
+        } else if ("hosted".equalsIgnoreCase(source)) {
+            if (all) {
+                for (HostedCatalog.Entry entry : hostedCatalog.entries()) {
+                    addToArchive(zip, entry.name(), entry.path());
+                }
+            } else {
+                for (String name : names) {
+                    HostedCatalog.Entry entry = hostedCatalog.findByName(name);
+                    if (entry == null) {
+                        sendResponse(exchange, 404, "File not found or not hosted: " + name);
+                        return;
+                    }
+                    addToArchive(zip, entry.name(), entry.path());
+                }
+            }
+        } else {
+            sendResponse(exchange, 400, "source must be hosted or uploads");
+            return;
+        }
+        if (zip.size() == 0) {
+            sendResponse(exchange, 404, "No files to archive");
+            return;
+        }
+
+        String archiveName = "AirBamin-" + LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss"))
+                + ".zip";
+        headers.set("Content-Type", "application/zip");
+        headers.set("Content-Disposition", "attachment; filename=\"" + archiveName + "\"");
+        // Only all-STORED archives have a length known up front; the rest go out chunked
+        long length = zip.exactLength();
+        exchange.sendResponseHeaders(200, length < 0 ? 0 : length);
+        try (OutputStream os = length < 0
+                ? new BufferedOutputStream(pacedResponseBody(exchange, archiveName, -1), ARCHIVE_BUFFER)
+                : pacedResponseBody(exchange, archiveName, length)) {
+            zip.writeTo(os, downloadEngine);
+        }
+    }
+
+    /** Add a file that was listed a moment ago; one deleted since is left out. */
+    private void addToArchive(ZipStream zip, String name, Path path) throws IOException {
+        try {
+            zip.add(name, path);
+        } catch (NoSuchFileException e) {
+            // Removed between listing and archiving
+        }
+    }
+
+    /**
+     * Send a file with HTTP range support: single ranges answer 206 with
+     * Content-Range, multiple ranges answer multipart/byteranges, and If-Range
+     * falls back to the full body when the client's validator is stale.
+     * <p>
+     * Every response carries the file's CRC32C {@code Repr-Digest} once it is
+     * known. It is known for files received in this run; for others the first
+     * full download computes it as it sends, and later requests advertise it.
+     */
+    private void sendFile(HttpExchange exchange, Path path, String filename) throws IOException {
+        TransferService.FileRecord record = TransferService.toFileRecord(path);
+        String etag = record.etag();
+        boolean headOnly = "HEAD".equalsIgnoreCase(exchange.getRequestMethod());
+
+        Headers headers = exchange.getResponseHeaders();
+        headers.set("Accept-Ranges", "bytes");
+        headers.set("ETag", etag);
+        headers.set("Last-Modified", httpDate(record));
+        boolean digestKnown = setReprDigest(headers, path, record);
         headers.add("Content-Disposition", "attachment; filename=\"" + filename + "\"");
-        exchange.sendResponseHeaders(200, targetFile.length());
-        try (OutputStream os = exchange.getResponseBody()) {
-            Files.copy(targetFile.toPath(), os);
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            HttpRanges.Result ranges = HttpRanges.Result.FULL;
+            String rangeHeader = exchange.getRequestHeaders().getFirst("Range");
+            if (rangeHeader != null && ifRangeMatches(exchange, etag, record)) {
+                ranges = HttpRanges.parse(rangeHeader, size);
+            }
+
+            switch (ranges.status()) {
+                case UNSATISFIABLE -> {
+                    headers.set("Content-Range", "bytes */" + size);
+                    exchange.sendResponseHeaders(416, -1);
+                    exchange.close();
+                }
+                case PARTIAL -> {
+                    if (ranges.ranges().size() == 1) {
+                        HttpRanges.ByteRange range = ranges.ranges().get(0);
+                        headers.set("Content-Type", "application/octet-stream");
+                        headers.set("Content-Range", range.contentRange(size));
+                        sendBody(exchange, 206, filename, channel, range.start(), range.length(), headOnly, null);
+                    } else {
+                        sendMultipartRanges(exchange, filename, channel, ranges.ranges(), size, headOnly);
+                    }
+                }
+                default -> {
+                    headers.set("Content-Type", "application/octet-stream");
+                    Checksum checksum = digestKnown || headOnly ? null : ContentDigest.newChecksum();
+                    sendBody(exchange, 200, filename, channel, 0, size, headOnly, checksum);
+                    if (checksum != null && size == record.sizeBytes()) {
+                        ContentDigest.remember(path, etag, ContentDigest.value(checksum));
+                    }
+                }
+            }
+        }
+    }
+
+    private void sendBody(HttpExchange exchange, int status, String filename, FileChannel channel, long offset,
+            long length, boolean headOnly, Checksum checksum) throws IOException {
+        if (headOnly) {
+            exchange.getResponseHeaders().set("Content-Length", Long.toString(length));
+            exchange.sendResponseHeaders(status, -1);
+            exchange.close();
+            return;
+        }
+        // A zero length tells HttpServer to use chunked encoding, so empty bodies use -1
+        exchange.sendResponseHeaders(status, length == 0 ? -1 : length);
+        try (OutputStream os = pacedResponseBody(exchange, filename, length)) {
+            downloadEngine.send(channel, offset, length, os, checksum);
+        }
+    }
+
+    /** @return whether the file's CRC32C is known and was added as {@code Repr-Digest} */
+    private boolean setReprDigest(Headers headers, Path path, TransferService.FileRecord record) {
+        Integer crc32c = ContentDigest.cached(path, record.etag());
+        if (crc32c == null) {
+            return false;
+        }
+        headers.set("Repr-Digest", ContentDigest.field(crc32c));
+        return true;
+    }
+
+    private void sendMultipartRanges(HttpExchange exchange, String filename, FileChannel channel,
+            List<HttpRanges.ByteRange> ranges, long size, boolean headOnly) throws IOException {
+        String boundary = "AIRBAMIN" + Long.toHexString(System.nanoTime());
+        byte[][] partHeaders = new byte[ranges.size()][];
+        long contentLength = 0;
+        for (int i = 0; i < ranges.size(); i++) {
+            HttpRanges.ByteRange range = ranges.get(i);
+            partHeaders[i] = ("\r\n--" + boundary + "\r\n"
+                    + "Content-Type: application/octet-stream\r\n"
+                    + "Content-Range: " + range.contentRange(size) + "\r\n\r\n")
+                    .getBytes(StandardCharsets.US_ASCII);
+            contentLength += partHeaders[i].length + range.length();
+        }
+        byte[] closing = ("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII);
+        contentLength += closing.length;
+
+        exchange.getResponseHeaders().set("Content-Type", "multipart/byteranges; boundary=" + boundary);
+        if (headOnly) {
+            exchange.getResponseHeaders().set("Content-Length", Long.toString(contentLength));
+            exchange.sendResponseHeaders(206, -1);
+            exchange.close();
+            return;
+        }
+        exchange.sendResponseHeaders(206, contentLength);
+        try (OutputStream os = pacedResponseBody(exchange, filename, contentLength)) {
+            for (int i = 0; i < ranges.size(); i++) {
+                HttpRanges.ByteRange range = ranges.get(i);
+                os.write(partHeaders[i]);
+                downloadEngine.send(channel, range.start(), range.length(), os);
+            }
+            os.write(closing);
+        }
+    }
+
+    /**
+     * If-Range: a strong ETag must match exactly, an HTTP-date must equal our
+     * Last-Modified. Anything else means the client's partial copy is stale.
+     */
+    private boolean ifRangeMatches(HttpExchange exchange, String etag, TransferService.FileRecord record) {
+        String ifRange = exchange.getRequestHeaders().getFirst("If-Range");
+        if (ifRange == null || ifRange.isBlank()) {
+            return true;
+        }
+        String value = ifRange.trim();
+        if (value.startsWith("\"") || value.startsWith("W/")) {
+            return value.equals(etag);
+        }
+        try {
+            ZonedDateTime since = ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME);
+            return since.toEpochSecond() == lastModifiedSeconds(record);
+        } catch (DateTimeParseException e) {
+            return false;
         }
     }
 
+    private String httpDate(TransferService.FileRecord record) {
+        return DateTimeFormatter.RFC_1123_DATE_TIME.format(
+                ZonedDateTime.ofInstant(Instant.ofEpochSecond(lastModifiedSeconds(record)), ZoneOffset.UTC));
+    }
+
+    private long lastModifiedSeconds(TransferService.FileRecord record) {
+        if (record.lastModified() == LocalDateTime.MIN) {
+            return 0L;
+        }
+        return record.lastModified().atZone(ZoneId.systemDefault()).toEpochSecond();
+    }
+
     private void handleMirrorStart(HttpExchange exchange) throws IOException {
         notifyClientConnected(exchange);
 
@@ -622,6 +1006,22 @@ public class LocalTransferServer {
                 .replace("\t", "\\t");
     }
 
+    /** Every value of a query parameter that may repeat, in order. */
+    private List<String> queryValues(URI uri, String name) {
+        List<String> values = new ArrayList<>();
+        String raw = uri.getRawQuery();
+        if (raw == null || raw.isEmpty()) {
+            return values;
+        }
+        for (String pair : raw.split("&")) {
+            int idx = pair.indexOf('=');
+            if (idx > 0 && name.equals(URLDecoder.decode(pair.substring(0, idx), StandardCharsets.UTF_8))) {
+                values.add(URLDecoder.decode(pair.substring(idx + 1), StandardCharsets.UTF_8));
+            }
+        }
+        return values;
+    }
+
     private Map<String, String> queryParams(URI uri) {
         Map<String, String> result = new ConcurrentHashMap<>();
         String raw = uri.getRawQuery();
@@ -640,14 +1040,8 @@ public class LocalTransferServer {
         return result;
     }
 
-    private void sendHtml(HttpExchange exchange, String html) throws IOException {
-        byte[] bytes = html.getBytes(StandardCharsets.UTF_8);
-        Headers headers = exchange.getResponseHeaders();
-        headers.add("Content-Type", "text/html; charset=UTF-8");
-        exchange.sendResponseHeaders(200, bytes.length);
-        try (OutputStream os = exchange.getResponseBody()) {
-            os.write(bytes);
-        }
+    private void sendJson(HttpExchange exchange, int status, String json) throws IOException {
+        ContentEncoding.send(exchange, status, "application/json", json.getBytes(StandardCharsets.UTF_8));
     }
 
     private void sendResponse(HttpExchange exchange, int status, String body) throws IOException {
@@ -705,6 +1099,116 @@ public class LocalTransferServer {
         }
     }
 
+    /**
+     * Prometheus scrape endpoint. Only answered for loopback clients, since it
+     * lists the addresses of connected phones.
+     */
+    private void handleMetrics(HttpExchange exchange) throws IOException {
+        if (!fromLoopback(exchange)) {
+            sendResponse(exchange, 403, "Forbidden");
+            return;
+        }
+        if (!"GET".equalsIgnoreCase(exchange.getRequestMethod())) {
+            sendResponse(exchange, 405, "Method Not Allowed");
+            return;
+        }
+        byte[] body = metrics.renderPrometheus(admission.snapshot(), progress.activeCount())
+                .getBytes(StandardCharsets.UTF_8);
+        ContentEncoding.send(exchange, 200, "text/plain; version=0.0.4; charset=utf-8", body);
+    }
+
+    /**
+     * Transfer controls, like {@code /metrics} only for tools on this
+     * computer; phones must not stop each other's transfers:
+     * <pre>
+     * GET  /api/transfers                        {"transfers":[{"id","name","client","direction","state",
+     *                                             "priority","bytes","total","rate"}...]}
+     * GET  /api/transfers/{id}                   one transfer
+     * POST /api/transfers/{id}/pause             also resume, cancel
+     * POST /api/transfers/{id}/priority?value=high   low, normal or high
+     * </pre>
+     */
+    private void handleTransfers(HttpExchange exchange) throws IOException {
+        if (!fromLoopback(exchange)) {
+            sendResponse(exchange, 403, "Forbidden");
+            return;
+        }
+        String method = exchange.getRequestMethod();
+        String[] segments = exchange.getRequestURI().getPath().substring("/api/transfers".length()).split("/");
+        // segments[0] is empty unless the context prefix matched part of a longer name
+        if (segments.length > 0 && !segments[0].isEmpty() || segments.length > 3) {
+            sendResponse(exchange, 404, "Not Found");
+            return;
+        }
+        if (segments.length <= 1) {
+            if (!"GET".equalsIgnoreCase(method)) {
+                sendResponse(exchange, 405, "Method Not Allowed");
+                return;
+            }
+            StringBuilder json = new StringBuilder("{\"transfers\":[");
+            List<TransferManager.Snapshot> all = transfers.snapshot();
+            for (int i = 0; i < all.size(); i++) {
+                json.append(i > 0 ? "," : "").append(transferJson(all.get(i)));
+            }
+            sendJson(exchange, 200, json.append("]}").toString());
+            return;
+        }
+
+        long id = parseLong(segments[1], -1);
+        if (transfers.get(id) == null) {
+            sendResponse(exchange, 404, "No such transfer");
+            return;
+        }
+        if (segments.length == 2) {
+            if (!"GET".equalsIgnoreCase(method)) {
+                sendResponse(exchange, 405, "Method Not Allowed");
+                return;
+            }
+            sendJson(exchange, 200, transferJson(transfers.get(id)));
+            return;
+        }
+        if (!"POST".equalsIgnoreCase(method)) {
+            sendResponse(exchange, 405, "Method Not Allowed");
+            return;
+        }
+        boolean applied;
+        switch (segments[2]) {
+            case "pause" -> applied = transfers.pause(id);
+            case "resume" -> applied = transfers.resume(id);
+            case "cancel" -> applied = transfers.cancel(id);
+            case "priority" -> {
+                TransferManager.Priority priority;
+                try {
+                    priority = TransferManager.Priority.valueOf(
+                            String.valueOf(queryParams(exchange.getRequestURI()).get("value")).toUpperCase(Locale.ROOT));
+                } catch (IllegalArgumentException e) {
+                    sendResponse(exchange, 400, "value must be low, normal or high");
+                    return;
+                }
+                applied = transfers.setPriority(id, priority);
+            }
+            default -> {
+                sendResponse(exchange, 404, "Unknown action: " + segments[2]);
+                return;
+            }
+        }
+        if (!applied) {
+            sendResponse(exchange, 409, "Transfer already finished");
+            return;
+        }
+        sendJson(exchange, 200, transferJson(transfers.get(id)));
+    }
+
+    private String transferJson(TransferManager.Snapshot transfer) {
+        return String.format(Locale.ROOT,
+                "{\"id\":%d,\"name\":\"%s\",\"client\":\"%s\",\"direction\":\"%s\",\"state\":\"%s\","
+                        + "\"priority\":\"%s\",\"bytes\":%d,\"total\":%d,\"rate\":%d}",
+                transfer.id(), escapeJson(transfer.name()), escapeJson(transfer.client()),
+                transfer.direction().name().toLowerCase(Locale.ROOT), transfer.state().name().toLowerCase(Locale.ROOT),
+                transfer.priority().name().toLowerCase(Locale.ROOT), transfer.bytesDone(), transfer.totalBytes(),
+                transfer.bytesPerSecond());
+    }
+
     private void handleDisconnect(HttpExchange exchange) throws IOException {
         // CORS
         Headers headers = exchange.getResponseHeaders();
@@ -730,6 +1234,11 @@ public class LocalTransferServer {
         }
     }
 
+    private static boolean fromLoopback(HttpExchange exchange) {
+        InetSocketAddress remote = exchange.getRemoteAddress();
+        return remote != null && remote.getAddress() != null && remote.getAddress().isLoopbackAddress();
+    }
+
     private String remoteAddress(HttpExchange exchange) {
         try {
             InetSocketAddress address = exchange.getRemoteAddress();
@@ -746,14 +1255,6 @@ public class LocalTransferServer {
         }
     }
 
-    private String escape(String input) {
-        return input.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
-    }
-
-    private String urlEncode(String input) {
-        return java.net.URLEncoder.encode(input, StandardCharsets.UTF_8);
-    }
-
     public void addListener(ServerListener listener) {
         if (listener != null) {
             listeners.addIfAbsent(listener);
@@ -766,15 +1267,11 @@ public class LocalTransferServer {
         }
     }
 
-    private void notifyUploadProgress(HttpExchange exchange, String filename, long totalBytes, long readBytes) {
-        if (totalBytes <= 0) {
-            return;
-        }
-        double percent = Math.min(100.0, (readBytes * 100.0) / totalBytes);
-        String remote = remoteAddress(exchange);
+    private void notifyUploadProgress(List<UploadProgress> updates) {
+        List<UploadProgress> batch = List.copyOf(updates);
         for (ServerListener listener : listeners) {
             try {
-                listener.onUploadProgress(filename, remote, percent);
+                listener.onUploadProgress(batch);
             } catch (Exception ignored) {
             }
         }
@@ -784,18 +1281,37 @@ public class LocalTransferServer {
             String filename,
             long totalBytes,
             InputStream original) {
+        return wrapWithProgress(exchange, new Object(), filename, totalBytes, new AtomicLong(), original);
+    }
+
+    /**
+     * @param key     identifies the transfer; streams sharing a key are reported
+     *                as one upload
+     * @param counter running byte count for the whole file; shared when several
+     *                connections upload ranges of the same file
+     */
+    private InputStream wrapWithProgress(HttpExchange exchange,
+            Object key,
+            String filename,
+            long totalBytes,
+            AtomicLong counter,
+            InputStream original) {
+        // Progress counts what got past the pacing, so the speed shown is the paced one
+        InputStream paced = bandwidth.throttle(original, openFlow(exchange, filename,
+                TransferManager.Direction.UPLOAD, readContentLength(exchange)));
         if (totalBytes <= 0) {
-            return original;
+            return paced;
         }
-        return new FilterInputStream(original) {
-            private long bytesRead;
+        ProgressAggregator.Transfer transfer = progress.open(key, filename, remoteAddress(exchange), totalBytes,
+                counter);
+        return new FilterInputStream(paced) {
+            private boolean closed;
 
             @Override
             public int read() throws IOException {
                 int value = super.read();
                 if (value >= 0) {
-                    bytesRead++;
-                    notifyUploadProgress(exchange, filename, totalBytes, bytesRead);
+                    transfer.add(1);
                 }
                 return value;
             }
@@ -804,14 +1320,49 @@ public class LocalTransferServer {
             public int read(byte[] b, int off, int len) throws IOException {
                 int read = super.read(b, off, len);
                 if (read > 0) {
-                    bytesRead += read;
-                    notifyUploadProgress(exchange, filename, totalBytes, bytesRead);
+                    transfer.add(read);
                 }
                 return read;
             }
+
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    if (!closed) {
+                        closed = true;
+                        transfer.close();
+                    }
+                }
+            }
         };
     }
 
+    /** The response body of a file download, paced by the bandwidth limits and tracked as a transfer. */
+    private OutputStream pacedResponseBody(HttpExchange exchange, String name, long length) {
+        return bandwidth.throttle(exchange.getResponseBody(),
+                openFlow(exchange, name, TransferManager.Direction.DOWNLOAD, length));
+    }
+
+    /**
+     * Register a transfer with the {@link TransferManager}. Clients may ask
+     * for a smaller share of the bandwidth with {@code weight=1..4} (normal
+     * priority is 4), e.g. for a background sync. Only tools on this computer
+     * may ask for more, up to 16; a phone's transfer is raised above normal
+     * from the desktop UI or {@code /api/transfers}, so one phone cannot hold
+     * back everyone else's.
+     */
+    private BandwidthScheduler.Flow openFlow(HttpExchange exchange, String name, TransferManager.Direction direction,
+            long length) {
+        int weight = parseInt(queryParams(exchange.getRequestURI()).get("weight"),
+                TransferManager.Priority.NORMAL.weight);
+        if (!fromLoopback(exchange)) {
+            weight = Math.min(weight, TransferManager.Priority.NORMAL.weight);
+        }
+        return transfers.open(name, remoteAddress(exchange), direction, length, weight);
+    }
+
     private long readContentLength(HttpExchange exchange) {
         try {
             String header = exchange.getRequestHeaders().getFirst("Content-length");
@@ -837,6 +1388,17 @@ public class LocalTransferServer {
         }
     }
 
+    private long parseLong(String value, long defaultValue) {
+        if (value == null || value.isBlank()) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException ignored) {
+            return defaultValue;
+        }
+    }
+
     public interface ServerListener {
         default void onClientConnected(String remoteIp) {
         }
@@ -850,10 +1412,29 @@ public class LocalTransferServer {
         default void onUploadProgress(String filename, String remoteIp, double percent) {
         }
 
+        /**
+         * Coalesced progress for every upload that moved since the last batch,
+         * delivered at most every {@value ProgressAggregator#EMIT_INTERVAL_MS} ms
+         * from a single background thread.
+         */
+        default void onUploadProgress(List<UploadProgress> updates) {
+            for (UploadProgress update : updates) {
+                onUploadProgress(update.filename(), update.remoteIp(), update.percent());
+            }
+        }
+
         default void onBatchCompleted(String batchId, String remoteIp) {
         }
 
         default void onClientDisconnected() {
         }
     }
+
+    /**
+     * @param bytesPerSecond smoothed receive rate
+     * @param etaSeconds     estimated seconds left, or -1 while the rate is unknown
+     */
+    public record UploadProgress(String filename, String remoteIp, long bytesReceived, long totalBytes,
+            double percent, long bytesPerSecond, long etaSeconds) {
+    }
 }
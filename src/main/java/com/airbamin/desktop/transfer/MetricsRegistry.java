@@ -0,0 +1,499 @@
+package com.airbamin.desktop.transfer;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpContext;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpPrincipal;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.channels.WritableByteChannel;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Request and throughput counters for the transfer server: per-endpoint
+ * latency histograms, status codes and errors, bytes in and out per client,
+ * and a rolling bytes/s figure. Rendered in the Prometheus text format on
+ * {@code /metrics} and summarised by {@link #snapshot()} for the desktop UI.
+ * <p>
+ * Endpoints are labelled with their context path, never the full URI, so the
+ * number of series stays small.
+ */
+public class MetricsRegistry {
+
+    /** Upper bounds of the latency buckets, in seconds. */
+    private static final double[] LATENCY_BUCKETS = {
+            0.001, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30, 60, 300 };
+
+    private final Map<String, EndpointStats> endpoints = new ConcurrentHashMap<>();
+    private final Map<String, ClientStats> clients = new ConcurrentHashMap<>();
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder bytesOut = new LongAdder();
+    private final RateMeter inRate = new RateMeter();
+    private final RateMeter outRate = new RateMeter();
+    private final long startedAt = System.currentTimeMillis();
+
+    /**
+     * Wrap {@code handler} so every exchange it serves is timed and its
+     * request and response bodies are counted.
+     */
+    public HttpHandler instrument(String endpoint, HttpHandler handler) {
+        EndpointStats stats = endpoints.computeIfAbsent(endpoint, key -> new EndpointStats());
+        return exchange -> {
+            ClientStats client = clients.computeIfAbsent(clientKey(exchange), key -> new ClientStats());
+            client.requests.increment();
+            MeteredExchange metered = new MeteredExchange(exchange, client);
+            stats.inFlight.incrementAndGet();
+            long start = System.nanoTime();
+            boolean failed = false;
+            try {
+                handler.handle(metered);
+            } catch (IOException | RuntimeException e) {
+                failed = true;
+                throw e;
+            } finally {
+                stats.inFlight.decrementAndGet();
+                stats.record(System.nanoTime() - start, metered.status, failed);
+            }
+        };
+    }
+
+    /**
+     * Prometheus text exposition (version 0.0.4).
+     *
+     * @param admission admission counters to include, or null
+     * @param activeUploads number of uploads currently in flight
+     */
+    public String renderPrometheus(AdmissionController.Snapshot admission, int activeUploads) {
+        StringBuilder out = new StringBuilder(4096);
+
+        header(out, "airbamin_http_requests_total", "counter", "HTTP requests served, by endpoint and status code.");
+        sortedEndpoints().forEach((endpoint, stats) -> new TreeMap<>(stats.statusCounts).forEach((code, count) ->
+                out.append("airbamin_http_requests_total{endpoint=\"").append(escape(endpoint))
+                        .append("\",code=\"").append(code).append("\"} ").append(count.sum()).append('\n')));
+
+        header(out, "airbamin_http_errors_total", "counter",
+                "Requests that failed with a 4xx/5xx status or an exception.");
+        sortedEndpoints().forEach((endpoint, stats) -> sample(out, "airbamin_http_errors_total",
+                "endpoint", endpoint, stats.errors.sum()));
+
+        header(out, "airbamin_http_requests_in_flight", "gauge", "Requests currently being handled.");
+        sortedEndpoints().forEach((endpoint, stats) -> sample(out, "airbamin_http_requests_in_flight",
+                "endpoint", endpoint, stats.inFlight.get()));
+
+        header(out, "airbamin_http_request_duration_seconds", "histogram",
+                "Time from dispatch until the handler returned, including the body transfer.");
+        sortedEndpoints().forEach((endpoint, stats) -> {
+            String label = "endpoint=\"" + escape(endpoint) + "\"";
+            long cumulative = 0;
+            for (int i = 0; i < LATENCY_BUCKETS.length; i++) {
+                cumulative += stats.buckets[i].sum();
+                out.append("airbamin_http_request_duration_seconds_bucket{").append(label)
+                        .append(",le=\"").append(formatDouble(LATENCY_BUCKETS[i])).append("\"} ")
+                        .append(cumulative).append('\n');
+            }
+            long count = stats.count.sum();
+            out.append("airbamin_http_request_duration_seconds_bucket{").append(label)
+                    .append(",le=\"+Inf\"} ").append(count).append('\n');
+            out.append("airbamin_http_request_duration_seconds_sum{").append(label).append("} ")
+                    .append(stats.nanos.sum() / 1e9).append('\n');
+            out.append("airbamin_http_request_duration_seconds_count{").append(label).append("} ")
+                    .append(count).append('\n');
+        });
+
+        header(out, "airbamin_received_bytes_total", "counter", "Request body bytes read.");
+        out.append("airbamin_received_bytes_total ").append(bytesIn.sum()).append('\n');
+        header(out, "airbamin_sent_bytes_total", "counter", "Response body bytes written.");
+        out.append("airbamin_sent_bytes_total ").append(bytesOut.sum()).append('\n');
+        header(out, "airbamin_throughput_bytes_per_second", "gauge", "Recent body throughput.");
+        out.append("airbamin_throughput_bytes_per_second{direction=\"in\"} ")
+                .append(inRate.sample(bytesIn.sum())).append('\n');
+        out.append("airbamin_throughput_bytes_per_second{direction=\"out\"} ")
+                .append(outRate.sample(bytesOut.sum())).append('\n');
+
+        Map<String, ClientStats> sortedClients = new TreeMap<>(clients);
+        header(out, "airbamin_client_requests_total", "counter", "Requests per client address.");
+        sortedClients.forEach((ip, stats) -> sample(out, "airbamin_client_requests_total", "client", ip,
+                stats.requests.sum()));
+        header(out, "airbamin_client_received_bytes_total", "counter", "Request body bytes per client address.");
+        sortedClients.forEach((ip, stats) -> sample(out, "airbamin_client_received_bytes_total", "client", ip,
+                stats.bytesIn.sum()));
+        header(out, "airbamin_client_sent_bytes_total", "counter", "Response body bytes per client address.");
+        sortedClients.forEach((ip, stats) -> sample(out, "airbamin_client_sent_bytes_total", "client", ip,
+                stats.bytesOut.sum()));
+
+        header(out, "airbamin_uploads_active", "gauge", "Uploads currently receiving data.");
+        out.append("airbamin_uploads_active ").append(activeUploads).append('\n');
+
+        if (admission != null) {
+            header(out, "airbamin_admission_active_requests", "gauge", "Requests admitted and running.");
+            out.append("airbamin_admission_active_requests ").append(admission.activeRequests()).append('\n');
+            header(out, "airbamin_admission_queue_length", "gauge", "Requests waiting for a worker.");
+            out.append("airbamin_admission_queue_length ").append(admission.queueLength()).append('\n');
+            header(out, "airbamin_admission_rejected_total", "counter", "Requests shed with 503.");
+            out.append("airbamin_admission_rejected_total ").append(admission.rejectedTotal()).append('\n');
+        }
+
+        header(out, "airbamin_start_time_seconds", "gauge", "When the metrics registry was created.");
+        out.append("airbamin_start_time_seconds ").append(startedAt / 1000).append('\n');
+        return out.toString();
+    }
+
+    /** Totals for the diagnostics panel. */
+    public Snapshot snapshot() {
+        long requests = 0;
+        long errors = 0;
+        int inFlight = 0;
+        String slowest = null;
+        double slowestP95 = 0;
+        for (Map.Entry<String, EndpointStats> entry : endpoints.entrySet()) {
+            EndpointStats stats = entry.getValue();
+            requests += stats.count.sum();
+            errors += stats.errors.sum();
+            inFlight += stats.inFlight.get();
+            double p95 = stats.quantile(0.95);
+            if (p95 > slowestP95) {
+                slowestP95 = p95;
+                slowest = entry.getKey();
+            }
+        }
+        return new Snapshot(requests, errors, inFlight, bytesIn.sum(), bytesOut.sum(),
+                inRate.sample(bytesIn.sum()), outRate.sample(bytesOut.sum()), clients.size(),
+                slowest, slowestP95);
+    }
+
+    /**
+     * @param slowestEndpoint endpoint with the highest p95 latency, or null
+     * @param slowestP95Seconds that endpoint's p95, estimated from the histogram
+     */
+    public record Snapshot(long requests, long errors, int inFlight, long bytesIn, long bytesOut,
+            long bytesInPerSecond, long bytesOutPerSecond, int clients, String slowestEndpoint,
+            double slowestP95Seconds) {
+    }
+
+    private Map<String, EndpointStats> sortedEndpoints() {
+        return new TreeMap<>(endpoints);
+    }
+
+    private static void header(StringBuilder out, String name, String type, String help) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void sample(StringBuilder out, String name, String label, String value, long number) {
+        out.append(name).append('{').append(label).append("=\"").append(escape(value)).append("\"} ")
+                .append(number).append('\n');
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    private static String formatDouble(double value) {
+        if (value == Math.rint(value) && !Double.isInfinite(value)) {
+            return Long.toString((long) value);
+        }
+        return String.format(Locale.ROOT, "%.6g", value).replaceFirst("\\.?0+(e|$)", "$1");
+    }
+
+    private static String clientKey(HttpExchange exchange) {
+        InetSocketAddress address = exchange.getRemoteAddress();
+        if (address == null || address.getAddress() == null) {
+            return "unknown";
+        }
+        return address.getAddress().getHostAddress();
+    }
+
+    private static final class EndpointStats {
+        private final LongAdder[] buckets = new LongAdder[LATENCY_BUCKETS.length];
+        private final LongAdder count = new LongAdder();
+        private final LongAdder nanos = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final Map<Integer, LongAdder> statusCounts = new ConcurrentHashMap<>();
+
+        private EndpointStats() {
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        private void record(long elapsedNanos, int status, boolean failed) {
+            double seconds = elapsedNanos / 1e9;
+            for (int i = 0; i < LATENCY_BUCKETS.length; i++) {
+                if (seconds <= LATENCY_BUCKETS[i]) {
+                    buckets[i].increment();
+                    break;
+                }
+            }
+            count.increment();
+            nanos.add(elapsedNanos);
+            // No status means the handler died before answering.
+            int code = status > 0 ? status : 500;
+            statusCounts.computeIfAbsent(code, key -> new LongAdder()).increment();
+            if (failed || code >= 400) {
+                errors.increment();
+            }
+        }
+
+        /** Upper bound of the bucket holding the given quantile. */
+        private double quantile(double q) {
+            long total = count.sum();
+            if (total == 0) {
+                return 0;
+            }
+            long target = (long) Math.ceil(total * q);
+            long seen = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                seen += buckets[i].sum();
+                if (seen >= target) {
+                    return LATENCY_BUCKETS[i];
+                }
+            }
+            return LATENCY_BUCKETS[LATENCY_BUCKETS.length - 1];
+        }
+    }
+
+    private static final class ClientStats {
+        private final LongAdder requests = new LongAdder();
+        private final LongAdder bytesIn = new LongAdder();
+        private final LongAdder bytesOut = new LongAdder();
+    }
+
+    /** Bytes/s over the window since the previous sample, re-sampled at most once a second. */
+    private static final class RateMeter {
+        private long lastTotal = -1;
+        private long lastNanos;
+        private long rate;
+
+        synchronized long sample(long total) {
+            long now = System.nanoTime();
+            if (lastTotal < 0) {
+                lastTotal = total;
+                lastNanos = now;
+                return 0;
+            }
+            long elapsed = now - lastNanos;
+            if (elapsed >= 1_000_000_000L) {
+                rate = (long) ((total - lastTotal) * 1e9 / elapsed);
+                lastTotal = total;
+                lastNanos = now;
+            }
+            return rate;
+        }
+    }
+
+    /**
+     * Delegating exchange that counts body bytes and remembers the status
+     * code. Response streams that can write straight to the socket keep doing
+     * so; only the byte count is intercepted.
+     */
+    private final class MeteredExchange extends HttpExchange {
+        private final HttpExchange delegate;
+        private final ClientStats client;
+        private InputStream requestBody;
+        private OutputStream responseBody;
+        private OutputStream wrappedFrom;
+        private volatile int status;
+
+        MeteredExchange(HttpExchange delegate, ClientStats client) {
+            this.delegate = delegate;
+            this.client = client;
+        }
+
+        private void countIn(long bytes) {
+            bytesIn.add(bytes);
+            client.bytesIn.add(bytes);
+        }
+
+        private void countOut(long bytes) {
+            bytesOut.add(bytes);
+            client.bytesOut.add(bytes);
+        }
+
+        @Override
+        public Headers getRequestHeaders() {
+            return delegate.getRequestHeaders();
+        }
+
+        @Override
+        public Headers getResponseHeaders() {
+            return delegate.getResponseHeaders();
+        }
+
+        @Override
+        public URI getRequestURI() {
+            return delegate.getRequestURI();
+        }
+
+        @Override
+        public String getRequestMethod() {
+            return delegate.getRequestMethod();
+        }
+
+        @Override
+        public HttpContext getHttpContext() {
+            return delegate.getHttpContext();
+        }
+
+        @Override
+        public void close() {
+            delegate.close();
+        }
+
+        @Override
+        public synchronized InputStream getRequestBody() {
+            if (requestBody == null) {
+                requestBody = new FilterInputStream(delegate.getRequestBody()) {
+                    @Override
+                    public int read() throws IOException {
+                        int value = super.read();
+                        if (value >= 0) {
+                            countIn(1);
+                        }
+                        return value;
+                    }
+
+                    @Override
+                    public int read(byte[] b, int off, int len) throws IOException {
+                        int read = super.read(b, off, len);
+                        if (read > 0) {
+                            countIn(read);
+                        }
+                        return read;
+                    }
+
+                    @Override
+                    public long skip(long n) throws IOException {
+                        long skipped = super.skip(n);
+                        if (skipped > 0) {
+                            countIn(skipped);
+                        }
+                        return skipped;
+                    }
+                };
+            }
+            return requestBody;
+        }
+
+        @Override
+        public synchronized OutputStream getResponseBody() {
+            OutputStream current = delegate.getResponseBody();
+            if (responseBody == null || wrappedFrom != current) {
+                wrappedFrom = current;
+                responseBody = current instanceof DownloadEngine.ChannelSink sink
+                        ? new CountingSinkOutputStream(current, sink)
+                        : new CountingOutputStream(current);
+            }
+            return responseBody;
+        }
+
+        @Override
+        public void sendResponseHeaders(int rCode, long responseLength) throws IOException {
+            status = rCode;
+            delegate.sendResponseHeaders(rCode, responseLength);
+        }
+
+        @Override
+        public InetSocketAddress getRemoteAddress() {
+            return delegate.getRemoteAddress();
+        }
+
+        @Override
+        public int getResponseCode() {
+            return delegate.getResponseCode();
+        }
+
+        @Override
+        public InetSocketAddress getLocalAddress() {
+            return delegate.getLocalAddress();
+        }
+
+        @Override
+        public String getProtocol() {
+            return delegate.getProtocol();
+        }
+
+        @Override
+        public Object getAttribute(String name) {
+            return delegate.getAttribute(name);
+        }
+
+        @Override
+        public void setAttribute(String name, Object value) {
+            delegate.setAttribute(name, value);
+        }
+
+        @Override
+        public synchronized void setStreams(InputStream i, OutputStream o) {
+            delegate.setStreams(i, o);
+            requestBody = null;
+            responseBody = null;
+        }
+
+        @Override
+        public HttpPrincipal getPrincipal() {
+            return delegate.getPrincipal();
+        }
+
+        private class CountingOutputStream extends FilterOutputStream {
+            CountingOutputStream(OutputStream out) {
+                super(out);
+            }
+
+            @Override
+            public void write(int b) throws IOException {
+                out.write(b);
+                countOut(1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+                countOut(len);
+            }
+        }
+
+        private final class CountingSinkOutputStream extends CountingOutputStream
+                implements DownloadEngine.ChannelSink {
+            private final DownloadEngine.ChannelSink sink;
+
+            CountingSinkOutputStream(OutputStream out, DownloadEngine.ChannelSink sink) {
+                super(out);
+                this.sink = sink;
+            }
+
+            @Override
+            public WritableByteChannel channel() throws IOException {
+                return sink.channel();
+            }
+
+            @Override
+            public void flushBuffered() throws IOException {
+                sink.flushBuffered();
+            }
+
+            @Override
+            public void channelWritten(long bytes) throws IOException {
+                sink.channelWritten(bytes);
+                countOut(bytes);
+            }
+
+            @Override
+            public long allowance(long wanted) throws IOException {
+                return sink.allowance(wanted);
+            }
+        }
+    }
+}
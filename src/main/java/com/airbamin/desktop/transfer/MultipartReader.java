@@ -0,0 +1,296 @@
+package com.airbamin.desktop.transfer;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Incremental {@code multipart/form-data} parser. Parts are handed out one at
+ * a time with a stream over their body that ends at the next boundary, so a
+ * request carrying thousands of files is processed in one fixed-size buffer
+ * and each file can be stored while the rest of the request is still on the
+ * wire.
+ */
+final class MultipartReader {
+
+    private static final int BUFFER = 64 * 1024;
+    private static final int MAX_HEADER_BYTES = 16 * 1024;
+    private static final byte[] CRLF = { '\r', '\n' };
+
+    /**
+     * @param name     form field name
+     * @param filename file name as sent by the client, or null for plain fields
+     * @param body     the part's content; must be read before the next part is requested,
+     *                 anything left unread is skipped
+     */
+    record Part(String name, String filename, String contentType, InputStream body) {
+    }
+
+    /** Raised when the request is not well-formed multipart. */
+    static class MalformedException extends IOException {
+        MalformedException(String message) {
+            super(message);
+        }
+    }
+
+    private final InputStream in;
+    /** CRLF, "--" and the boundary: what ends every part body. */
+    private final byte[] delimiter;
+    private final byte[] buffer = new byte[BUFFER];
+    private int pos;
+    private int limit;
+    private PartStream current;
+    private boolean finished;
+    private boolean broken;
+
+    MultipartReader(InputStream in, String boundary) {
+        this.in = in;
+        this.delimiter = ("\r\n--" + boundary).getBytes(StandardCharsets.ISO_8859_1);
+        // The first boundary has no CRLF in front; pretend it does so every boundary looks alike
+        buffer[0] = '\r';
+        buffer[1] = '\n';
+        limit = 2;
+    }
+
+    /** The boundary parameter of a multipart/form-data Content-Type, or null if it is something else. */
+    static String boundary(String contentType) {
+        if (contentType == null || !contentType.toLowerCase(Locale.ROOT).startsWith("multipart/form-data")) {
+            return null;
+        }
+        String boundary = parameters(contentType).get("boundary");
+        return boundary == null || boundary.isEmpty() || boundary.length() > 70 ? null : boundary;
+    }
+
+    /**
+     * True once reading the request itself has failed (malformed, cut short or
+     * the connection broke), as opposed to a failure of whatever consumed a
+     * part body. No further parts can be read.
+     */
+    boolean isBroken() {
+        return broken;
+    }
+
+    /**
+     * Advance to the next part, skipping whatever is left of the current one.
+     *
+     * @return the part, or null after the closing boundary
+     */
+    Part next() throws IOException {
+        if (finished) {
+            return null;
+        }
+        if (current == null) {
+            // Skip the preamble up to and including the first boundary
+            new PartStream().skipToEnd();
+        } else {
+            current.skipToEnd();
+        }
+        current = null;
+
+        if (!fill(2)) {
+            throw new MalformedException("Request ended after a boundary");
+        }
+        if (buffer[pos] == '-' && buffer[pos + 1] == '-') {
+            finished = true;
+            return null;
+        }
+        // Transport padding may follow the boundary before its CRLF
+        while (buffer[pos] == ' ' || buffer[pos] == '\t') {
+            pos++;
+            if (!fill(2)) {
+                throw new MalformedException("Request ended after a boundary");
+            }
+        }
+        if (buffer[pos] != '\r' || buffer[pos + 1] != '\n') {
+            throw new MalformedException("Malformed boundary line");
+        }
+        pos += 2;
+
+        Map<String, String> headers = readHeaders();
+        Map<String, String> disposition = parameters(headers.getOrDefault("content-disposition", ""));
+        current = new PartStream();
+        return new Part(disposition.get("name"), disposition.get("filename"), headers.get("content-type"), current);
+    }
+
+    private Map<String, String> readHeaders() throws IOException {
+        Map<String, String> headers = new HashMap<>();
+        int total = 0;
+        while (true) {
+            String line = readLine();
+            total += line.length() + 2;
+            if (total > MAX_HEADER_BYTES) {
+                throw new MalformedException("Part headers too large");
+            }
+            if (line.isEmpty()) {
+                return headers;
+            }
+            int colon = line.indexOf(':');
+            if (colon > 0) {
+                headers.put(line.substring(0, colon).trim().toLowerCase(Locale.ROOT), line.substring(colon + 1).trim());
+            }
+        }
+    }
+
+    private String readLine() throws IOException {
+        int searched = 0;
+        while (true) {
+            int crlf = indexOf(CRLF, pos + searched, limit);
+            if (crlf >= 0) {
+                // Browsers send file names as raw UTF-8
+                String line = new String(buffer, pos, crlf - pos, StandardCharsets.UTF_8);
+                pos = crlf + 2;
+                return line;
+            }
+            int buffered = limit - pos;
+            searched = Math.max(0, buffered - 1);
+            if (buffered >= buffer.length || !fill(buffered + 1)) {
+                throw new MalformedException("Part headers not terminated");
+            }
+        }
+    }
+
+    /**
+     * Make at least {@code count} unread bytes available, compacting the buffer
+     * as needed. Returns false if the request ends first.
+     */
+    private boolean fill(int count) throws IOException {
+        if (limit - pos >= count) {
+            return true;
+        }
+        if (pos > 0) {
+            System.arraycopy(buffer, pos, buffer, 0, limit - pos);
+            limit -= pos;
+            pos = 0;
+        }
+        while (limit < count) {
+            int read;
+            try {
+                read = in.read(buffer, limit, buffer.length - limit);
+            } catch (IOException e) {
+                broken = true;
+                throw e;
+            }
+            if (read < 0) {
+                broken = true;
+                return false;
+            }
+            limit += read;
+        }
+        return true;
+    }
+
+    private int indexOf(byte[] pattern, int from, int to) {
+        byte first = pattern[0];
+        outer:
+        for (int i = from; i <= to - pattern.length; i++) {
+            if (buffer[i] != first) {
+                continue;
+            }
+            for (int j = 1; j < pattern.length; j++) {
+                if (buffer[i + j] != pattern[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    /** A part body: everything up to the next delimiter, which it consumes at the end. */
+    private final class PartStream extends InputStream {
+        private boolean ended;
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (ended) {
+                return -1;
+            }
+            if (len == 0) {
+                return 0;
+            }
+            int available = safeLength();
+            if (available == 0) {
+                ended = true;
+                pos += delimiter.length;
+                return -1;
+            }
+            int n = Math.min(len, available);
+            System.arraycopy(buffer, pos, b, off, n);
+            pos += n;
+            return n;
+        }
+
+        /**
+         * Bytes that can be returned without running into the delimiter. Zero
+         * means the delimiter starts right here.
+         */
+        private int safeLength() throws IOException {
+            if (ended) {
+                return 0;
+            }
+            if (!fill(delimiter.length)) {
+                throw new EOFException("Request ended before the closing boundary");
+            }
+            int found = indexOf(delimiter, pos, limit);
+            if (found >= 0) {
+                return found - pos;
+            }
+            // The delimiter may begin in the last few bytes; hold those back
+            return limit - pos - (delimiter.length - 1);
+        }
+
+        void skipToEnd() throws IOException {
+            while (!ended) {
+                int available = safeLength();
+                if (available == 0) {
+                    ended = true;
+                    pos += delimiter.length;
+                } else {
+                    pos += available;
+                }
+            }
+        }
+    }
+
+    /** {@code value; key=value; key="quoted value"} parameters, keys lower-cased. */
+    private static Map<String, String> parameters(String header) {
+        Map<String, String> params = new HashMap<>();
+        int i = header.indexOf(';');
+        while (i >= 0 && i < header.length()) {
+            int eq = header.indexOf('=', i);
+            if (eq < 0) {
+                break;
+            }
+            String key = header.substring(i + 1, eq).trim().toLowerCase(Locale.ROOT);
+            String value;
+            int next;
+            if (eq + 1 < header.length() && header.charAt(eq + 1) == '"') {
+                StringBuilder quoted = new StringBuilder();
+                int j = eq + 2;
+                while (j < header.length() && header.charAt(j) != '"') {
+                    quoted.append(header.charAt(j));
+                    j++;
+                }
+                // Browsers percent-encode quotes and line breaks in file names
+                value = quoted.toString().replace("%22", "\"").replace("%0D", "\r").replace("%0A", "\n");
+                next = header.indexOf(';', j);
+            } else {
+                next = header.indexOf(';', eq);
+                value = (next < 0 ? header.substring(eq + 1) : header.substring(eq + 1, next)).trim();
+            }
+            params.putIfAbsent(key, value);
+            i = next;
+        }
+        return params;
+    }
+}
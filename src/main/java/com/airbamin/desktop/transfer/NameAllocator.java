@@ -0,0 +1,266 @@
+package com.airbamin.desktop.transfer;
+
+import java.io.IOException;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * Hands out collision-free names in an upload folder ({@code photo.jpg},
+ * {@code photo_1.jpg}, {@code photo_2.jpg}, ...) and publishes finished files
+ * under them. The plain name is tried on every upload, so a name freed by a
+ * deleted file is used again. The folder is listed once to learn which names
+ * are taken; after that each base name keeps a counter, so the next free
+ * suffix is found without probing the disk name by name. Placing a file never
+ * overwrites an existing one, so two uploads of the same name racing each
+ * other end up in different files. One allocator is shared per folder.
+ */
+final class NameAllocator {
+
+    private static final Map<Path, NameAllocator> ALLOCATORS = new ConcurrentHashMap<>();
+    private static final String FALLBACK_NAME = "upload.bin";
+
+    private final Path dir;
+    private final Map<String, AtomicInteger> counters = new ConcurrentHashMap<>();
+    /** Names being placed right now, so two uploads never go for the same one. */
+    private final Set<String> publishing = ConcurrentHashMap.newKeySet();
+    private volatile boolean seeded;
+    private volatile boolean hardLinks = true;
+
+    private NameAllocator(Path dir) {
+        this.dir = dir;
+    }
+
+    static NameAllocator forDirectory(Path dir) {
+        return ALLOCATORS.computeIfAbsent(dir.toAbsolutePath().normalize(), NameAllocator::new);
+    }
+
+    /**
+     * Move a finished file from the staging area into the folder under a free
+     * variant of {@code originalFilename}. An existing file is never replaced:
+     * the file is hard-linked into place, which fails if the name is taken, and
+     * the next suffix is tried. Volumes without hard links (FAT, exFAT) fall
+     * back to an atomic rename after checking the name is free; concurrent
+     * uploads are still kept apart by the in-memory reservation.
+     *
+     * @return the published path
+     */
+    Path publish(Path staged, String originalFilename) throws IOException {
+        return allocate(originalFilename, target -> place(staged, target));
+    }
+
+    /**
+     * Give {@code existing} a second name in the folder, as a hard link under a
+     * free variant of {@code originalFilename}.
+     *
+     * @return the new path, or null if the volume does not support hard links
+     */
+    Path link(Path existing, String originalFilename) throws IOException {
+        if (!hardLinks) {
+            return null;
+        }
+        try {
+            return allocate(originalFilename, target -> {
+                try {
+                    Files.createLink(target, existing);
+                    return true;
+                } catch (FileAlreadyExistsException e) {
+                    return false;
+                }
+            });
+        } catch (UnsupportedOperationException | FileSystemException e) {
+            if (linksUnsupported(e)) {
+                hardLinks = false;
+            }
+            return null;
+        }
+    }
+
+    private interface Placement {
+        /** @return false if {@code target} is taken and the next name should be tried */
+        boolean placeAt(Path target) throws IOException;
+    }
+
+    private Path allocate(String originalFilename, Placement placement) throws IOException {
+        seed();
+        String name = sanitize(originalFilename);
+        String stem = name;
+        String ext = "";
+        int dot = name.lastIndexOf('.');
+        if (dot > 0) {
+            stem = name.substring(0, dot);
+            ext = name.substring(dot);
+        }
+        // The plain name every time, whatever the counter says: placing refuses a name in use,
+        // and one freed by a deleted file should be used again
+        Path target = tryName(name, placement);
+        if (target != null) {
+            raise(key(name), 1);
+            return target;
+        }
+        AtomicInteger counter = counters.computeIfAbsent(key(name), k -> new AtomicInteger());
+        while (true) {
+            int n = counter.getAndIncrement();
+            if (n == 0) {
+                continue;
+            }
+            String candidate = stem + "_" + n + ext;
+            String candidateKey = key(candidate);
+            if (isTaken(candidateKey)) {
+                // A file with exactly this name was seen or stored already
+                continue;
+            }
+            target = tryName(candidate, placement);
+            if (target != null) {
+                raise(candidateKey, 1);
+                return target;
+            }
+        }
+    }
+
+    /** @return the placed path, or null if {@code candidate} is taken or being placed by another upload */
+    private Path tryName(String candidate, Placement placement) throws IOException {
+        String candidateKey = key(candidate);
+        if (!publishing.add(candidateKey)) {
+            return null;
+        }
+        try {
+            Path target;
+            try {
+                target = dir.resolve(candidate);
+            } catch (InvalidPathException e) {
+                // e.g. characters the platform's file name encoding cannot represent
+                throw new IOException("Cannot store a file named " + candidate + ": " + e.getReason());
+            }
+            // False if taken behind our back (e.g. copied in by hand); the caller tries the next suffix
+            return placement.placeAt(target) ? target : null;
+        } finally {
+            publishing.remove(candidateKey);
+        }
+    }
+
+    private boolean place(Path staged, Path target) throws IOException {
+        if (hardLinks) {
+            try {
+                Files.createLink(target, staged);
+                try {
+                    Files.delete(staged);
+                } catch (IOException e) {
+                    // Published already; the leftover part is swept on the next start
+                }
+                return true;
+            } catch (FileAlreadyExistsException e) {
+                return false;
+            } catch (UnsupportedOperationException | FileSystemException e) {
+                if (linksUnsupported(e)) {
+                    hardLinks = false;
+                }
+                // Otherwise just this file could not be linked; the rename below decides
+            }
+        }
+        if (Files.exists(target, LinkOption.NOFOLLOW_LINKS)) {
+            return false;
+        }
+        try {
+            Files.move(staged, target, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(staged, target);
+        }
+        return true;
+    }
+
+    /**
+     * Whether a failed link means the volume has no hard links at all (FAT,
+     * exFAT, some network shares), as opposed to a problem with this one file.
+     */
+    private static boolean linksUnsupported(Exception e) {
+        return e instanceof UnsupportedOperationException
+                || (e instanceof FileSystemException
+                        && !(e instanceof AccessDeniedException)
+                        && !(e instanceof NoSuchFileException)
+                        && !(e instanceof FileAlreadyExistsException));
+    }
+
+    /**
+     * Reduce a client-supplied name to a single safe path segment: no
+     * directories, no characters Windows rejects, never empty.
+     */
+    static String sanitize(String originalFilename) {
+        if (originalFilename == null) {
+            return FALLBACK_NAME;
+        }
+        String name = originalFilename;
+        int slash = Math.max(name.lastIndexOf('/'), name.lastIndexOf('\\'));
+        if (slash >= 0) {
+            name = name.substring(slash + 1);
+        }
+        StringBuilder clean = new StringBuilder(name.length());
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (c < 0x20 || "<>:\"|?*".indexOf(c) >= 0) {
+                clean.append('_');
+            } else {
+                clean.append(c);
+            }
+        }
+        // Windows drops trailing dots and spaces, and "." / ".." are not file names
+        String result = clean.toString().strip().replaceAll("[. ]+$", "");
+        if (result.isEmpty() || result.chars().allMatch(c -> c == '.')) {
+            return FALLBACK_NAME;
+        }
+        return result;
+    }
+
+    private void seed() throws IOException {
+        if (seeded) {
+            return;
+        }
+        synchronized (this) {
+            if (seeded) {
+                return;
+            }
+            if (Files.isDirectory(dir)) {
+                try (Stream<Path> stream = Files.list(dir)) {
+                    stream.forEach(path -> noteExisting(path.getFileName().toString()));
+                }
+            }
+            seeded = true;
+        }
+    }
+
+    /**
+     * Only the name itself is recorded. {@code IMG_0001.jpg} is a camera's
+     * numbering, not a collision suffix, and must not push a new
+     * {@code IMG.jpg} off its plain name.
+     */
+    private void noteExisting(String name) {
+        raise(key(name), 1);
+    }
+
+    /** A counter past 0 means the plain name is in use. */
+    private boolean isTaken(String key) {
+        AtomicInteger counter = counters.get(key);
+        return counter != null && counter.get() > 0;
+    }
+
+    private void raise(String key, int next) {
+        counters.computeIfAbsent(key, k -> new AtomicInteger()).accumulateAndGet(next, Math::max);
+    }
+
+    /** Case-insensitive, so counters stay right on Windows and macOS file systems. */
+    private static String key(String name) {
+        return name.toLowerCase(java.util.Locale.ROOT);
+    }
+}
@@ -0,0 +1,397 @@
+package com.airbamin.desktop.transfer;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpContext;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpPrincipal;
+
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@link HttpExchange} for one request on a {@link NioHttpTransport}
+ * connection. It mirrors the JDK server's conventions: a response length of 0
+ * means chunked, -1 means no body. Fixed-length bodies expose the socket
+ * channel through {@link DownloadEngine.ChannelSink} so file downloads can use
+ * {@code transferTo}.
+ */
+class NioHttpExchange extends HttpExchange {
+
+    private static final byte[] CONTINUE = "HTTP/1.1 100 Continue\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+
+    private final SocketChannel channel;
+    private final String method;
+    private final URI uri;
+    private final String protocol;
+    private final Headers requestHeaders;
+    private final Headers responseHeaders = new Headers();
+    private final Map<String, Object> attributes = new HashMap<>();
+    private final BufferedOutputStream rawOut;
+    private final boolean expectContinue;
+
+    private InputStream requestBody;
+    private OutputStream responseBody;
+    private int responseCode = -1;
+    private boolean continueSent;
+    private boolean closeConnection;
+
+    NioHttpExchange(SocketChannel channel, String method, URI uri, String protocol, Headers requestHeaders,
+            InputStream body, BufferedOutputStream rawOut) {
+        this.channel = channel;
+        this.method = method;
+        this.uri = uri;
+        this.protocol = protocol;
+        this.requestHeaders = requestHeaders;
+        this.rawOut = rawOut;
+        this.expectContinue = "100-continue".equalsIgnoreCase(requestHeaders.getFirst("Expect"));
+        this.requestBody = expectContinue ? new ContinueInputStream(body) : body;
+
+        String connection = requestHeaders.getFirst("Connection");
+        boolean http10 = "HTTP/1.0".equalsIgnoreCase(protocol);
+        closeConnection = http10
+                ? connection == null || !connection.equalsIgnoreCase("keep-alive")
+                : connection != null && connection.equalsIgnoreCase("close");
+    }
+
+    @Override
+    public Headers getRequestHeaders() {
+        return requestHeaders;
+    }
+
+    @Override
+    public Headers getResponseHeaders() {
+        return responseHeaders;
+    }
+
+    @Override
+    public URI getRequestURI() {
+        return uri;
+    }
+
+    @Override
+    public String getRequestMethod() {
+        return method;
+    }
+
+    /** Contexts are resolved by the transport itself; handlers never need one. */
+    @Override
+    public HttpContext getHttpContext() {
+        return null;
+    }
+
+    @Override
+    public void close() {
+        try {
+            if (responseBody != null) {
+                responseBody.close();
+            } else if (responseCode < 0) {
+                closeConnection = true;
+            }
+            rawOut.flush();
+        } catch (IOException e) {
+            closeConnection = true;
+        }
+    }
+
+    @Override
+    public InputStream getRequestBody() {
+        return requestBody;
+    }
+
+    @Override
+    public OutputStream getResponseBody() {
+        if (responseBody == null) {
+            throw new IllegalStateException("sendResponseHeaders() has not been called");
+        }
+        return responseBody;
+    }
+
+    @Override
+    public void sendResponseHeaders(int rCode, long responseLength) throws IOException {
+        if (responseCode >= 0) {
+            throw new IOException("Response headers already sent");
+        }
+        responseCode = rCode;
+        boolean noBody = "HEAD".equalsIgnoreCase(method) || rCode == 204 || rCode == 304 || rCode < 200;
+        String connection = responseHeaders.getFirst("Connection");
+        if (connection != null && connection.equalsIgnoreCase("close")) {
+            closeConnection = true;
+        }
+        if (expectContinue && !continueSent) {
+            // Client never got to send its body, so the rest of the stream is unusable
+            closeConnection = true;
+        }
+
+        if (noBody || responseLength < 0) {
+            if (!noBody) {
+                responseHeaders.set("Content-Length", "0");
+            }
+            responseBody = new FixedLengthOutputStream(0);
+        } else if (responseLength == 0) {
+            responseHeaders.set("Transfer-Encoding", "chunked");
+            responseBody = new ChunkedOutputStream();
+        } else {
+            responseHeaders.set("Content-Length", Long.toString(responseLength));
+            responseBody = new FixedLengthOutputStream(responseLength);
+        }
+        if (!responseHeaders.containsKey("Date")) {
+            responseHeaders.set("Date", DateTimeFormatter.RFC_1123_DATE_TIME.format(ZonedDateTime.now(ZoneOffset.UTC)));
+        }
+        responseHeaders.set("Connection", closeConnection ? "close" : "keep-alive");
+
+        StringBuilder head = new StringBuilder(256);
+        head.append("HTTP/1.1 ").append(rCode).append(' ').append(reason(rCode)).append("\r\n");
+        for (Map.Entry<String, List<String>> header : responseHeaders.entrySet()) {
+            for (String value : header.getValue()) {
+                head.append(header.getKey()).append(": ").append(value).append("\r\n");
+            }
+        }
+        head.append("\r\n");
+        rawOut.write(head.toString().getBytes(StandardCharsets.ISO_8859_1));
+        if (noBody || responseLength < 0) {
+            rawOut.flush();
+        }
+    }
+
+    @Override
+    public InetSocketAddress getRemoteAddress() {
+        try {
+            return (InetSocketAddress) channel.getRemoteAddress();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public int getResponseCode() {
+        return responseCode;
+    }
+
+    @Override
+    public InetSocketAddress getLocalAddress() {
+        try {
+            return (InetSocketAddress) channel.getLocalAddress();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public String getProtocol() {
+        return protocol;
+    }
+
+    @Override
+    public Object getAttribute(String name) {
+        return attributes.get(name);
+    }
+
+    @Override
+    public void setAttribute(String name, Object value) {
+        attributes.put(name, value);
+    }
+
+    @Override
+    public void setStreams(InputStream i, OutputStream o) {
+        if (i != null) {
+            requestBody = i;
+        }
+        if (o != null) {
+            responseBody = o;
+        }
+    }
+
+    @Override
+    public HttpPrincipal getPrincipal() {
+        return null;
+    }
+
+    /** Whether the connection can carry another request after this one. */
+    boolean isReusable() {
+        return !closeConnection && responseCode >= 0
+                && (!(responseBody instanceof FixedLengthOutputStream fixed) || fixed.isComplete());
+    }
+
+    void markBroken() {
+        closeConnection = true;
+    }
+
+    private static String reason(int code) {
+        return switch (code) {
+            case 100 -> "Continue";
+            case 200 -> "OK";
+            case 201 -> "Created";
+            case 204 -> "No Content";
+            case 206 -> "Partial Content";
+            case 304 -> "Not Modified";
+            case 400 -> "Bad Request";
+            case 403 -> "Forbidden";
+            case 404 -> "Not Found";
+            case 405 -> "Method Not Allowed";
+            case 409 -> "Conflict";
+            case 413 -> "Payload Too Large";
+            case 416 -> "Range Not Satisfiable";
+            case 429 -> "Too Many Requests";
+            case 500 -> "Internal Server Error";
+            case 503 -> "Service Unavailable";
+            default -> "Status " + code;
+        };
+    }
+
+    /** Sends the interim 100 response the first time the handler reads the body. */
+    private final class ContinueInputStream extends InputStream {
+        private final InputStream delegate;
+
+        ContinueInputStream(InputStream delegate) {
+            this.delegate = delegate;
+        }
+
+        private void sendContinue() throws IOException {
+            if (!continueSent && responseCode < 0) {
+                continueSent = true;
+                rawOut.write(CONTINUE);
+                rawOut.flush();
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            sendContinue();
+            return delegate.read();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            sendContinue();
+            return delegate.read(b, off, len);
+        }
+
+        @Override
+        public int available() throws IOException {
+            return continueSent ? delegate.available() : 0;
+        }
+
+        @Override
+        public void close() throws IOException {
+            delegate.close();
+        }
+    }
+
+    private final class FixedLengthOutputStream extends FilterOutputStream implements DownloadEngine.ChannelSink {
+        private long remaining;
+        private boolean closed;
+
+        FixedLengthOutputStream(long length) {
+            super(rawOut);
+            this.remaining = length;
+        }
+
+        boolean isComplete() {
+            return remaining == 0;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (remaining <= 0) {
+                throw new IOException("Response body exceeds Content-Length");
+            }
+            rawOut.write(b);
+            remaining--;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (len > remaining) {
+                throw new IOException("Response body exceeds Content-Length");
+            }
+            rawOut.write(b, off, len);
+            remaining -= len;
+        }
+
+        @Override
+        public WritableByteChannel channel() {
+            return channel;
+        }
+
+        @Override
+        public void flushBuffered() throws IOException {
+            rawOut.flush();
+        }
+
+        @Override
+        public void channelWritten(long bytes) throws IOException {
+            if (bytes > remaining) {
+                throw new IOException("Response body exceeds Content-Length");
+            }
+            remaining -= bytes;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            rawOut.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            rawOut.flush();
+            if (remaining > 0) {
+                closeConnection = true;
+                throw new EOFException("Response closed " + remaining + " bytes short of Content-Length");
+            }
+        }
+    }
+
+    private final class ChunkedOutputStream extends OutputStream {
+        private boolean closed;
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return;
+            }
+            rawOut.write((Integer.toHexString(len) + "\r\n").getBytes(StandardCharsets.US_ASCII));
+            rawOut.write(b, off, len);
+            rawOut.write('\r');
+            rawOut.write('\n');
+        }
+
+        @Override
+        public void flush() throws IOException {
+            rawOut.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            rawOut.write("0\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+            rawOut.flush();
+        }
+    }
+}
@@ -0,0 +1,552 @@
+package com.airbamin.desktop.transfer;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpHandler;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * HTTP/1.1 transport built on a single selector thread and a bounded worker
+ * pool. Idle keep-alive connections are parked in the selector and cost no
+ * thread; a worker only picks a connection up once request bytes arrive and
+ * serves it in blocking mode until it goes idle again. That keeps thread and
+ * memory use bounded when a classroom of phones holds connections open, while
+ * active transfers still get plain blocking I/O and zero-copy file bodies.
+ */
+class NioHttpTransport implements TransferTransport {
+
+    private static final int MAX_WORKERS = Math.max(64, Runtime.getRuntime().availableProcessors() * 16);
+    private static final int MAX_CONNECTIONS = 1024;
+    private static final long WORKER_STACK_SIZE = 256 * 1024;
+    private static final long IDLE_TIMEOUT_MS = 60_000;
+    private static final int READ_TIMEOUT_MS = 30_000;
+    private static final int MAX_HEADER_BYTES = 32 * 1024;
+    private static final int MAX_HEADERS = 100;
+    private static final long MAX_DRAIN_BYTES = 1024 * 1024;
+    private static final int IO_BUFFER = 64 * 1024;
+    private static final byte[] SERVICE_UNAVAILABLE = ("HTTP/1.1 503 Service Unavailable\r\n"
+            + "Retry-After: 1\r\nContent-Length: 0\r\nConnection: close\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+
+    private final InetSocketAddress address;
+    private final AdmissionController admission;
+    private final Map<String, HttpHandler> contexts = new ConcurrentHashMap<>();
+    private final Queue<Connection> pendingRegistrations = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger openConnections = new AtomicInteger();
+
+    private volatile boolean running;
+    private Selector selector;
+    private ServerSocketChannel serverChannel;
+    private ThreadPoolExecutor workers;
+    private Thread selectorThread;
+
+    NioHttpTransport(InetSocketAddress address, AdmissionController admission) {
+        this.address = address;
+        this.admission = admission;
+    }
+
+    @Override
+    public void createContext(String path, HttpHandler handler) {
+        contexts.put(path, handler);
+    }
+
+    @Override
+    public void start() throws IOException {
+        ServerSocketChannel channel = ServerSocketChannel.open();
+        try {
+            channel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+            channel.bind(address, 256);
+            channel.configureBlocking(false);
+            selector = Selector.open();
+            channel.register(selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        serverChannel = channel;
+
+        AtomicInteger threadIds = new AtomicInteger();
+        workers = new ThreadPoolExecutor(MAX_WORKERS, MAX_WORKERS, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(MAX_CONNECTIONS),
+                r -> {
+                    Thread t = new Thread(null, r, "transfer-nio-" + threadIds.incrementAndGet(), WORKER_STACK_SIZE);
+                    t.setDaemon(true);
+                    return t;
+                });
+        workers.allowCoreThreadTimeOut(true);
+        ThreadPoolExecutor pool = workers;
+        admission.setQueueProbe(() -> pool.getQueue().size());
+
+        running = true;
+        selectorThread = new Thread(this::selectLoop, "transfer-nio-selector");
+        selectorThread.setDaemon(true);
+        selectorThread.start();
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        if (selector != null) {
+            selector.wakeup();
+        }
+        if (selectorThread != null) {
+            try {
+                selectorThread.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            selectorThread = null;
+        }
+        if (workers != null) {
+            workers.shutdownNow();
+            workers = null;
+        }
+    }
+
+    private void selectLoop() {
+        try {
+            while (running) {
+                selector.select(1000);
+                List<Connection> ready = new ArrayList<>();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                    } else if (key.isReadable()) {
+                        key.cancel();
+                        ready.add((Connection) key.attachment());
+                    }
+                }
+                if (!ready.isEmpty()) {
+                    // Flush the cancelled keys so the channels may switch to blocking mode
+                    selector.selectNow();
+                    for (Connection connection : ready) {
+                        dispatch(connection);
+                    }
+                }
+                registerPending();
+                closeIdle();
+            }
+        } catch (IOException | ClosedSelectorException e) {
+            if (running) {
+                System.err.println("Transfer NIO selector failed: " + e.getMessage());
+            }
+        } finally {
+            shutdownChannels();
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel client;
+        while ((client = serverChannel.accept()) != null) {
+            if (openConnections.incrementAndGet() > MAX_CONNECTIONS) {
+                openConnections.decrementAndGet();
+                rejectAndClose(client);
+                continue;
+            }
+            client.configureBlocking(false);
+            client.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            Connection connection = new Connection(client);
+            client.register(selector, SelectionKey.OP_READ, connection);
+        }
+    }
+
+    private void dispatch(Connection connection) {
+        try {
+            connection.channel.configureBlocking(true);
+            workers.execute(connection);
+        } catch (RejectedExecutionException | IOException e) {
+            rejectAndClose(connection.channel);
+            connection.close();
+        }
+    }
+
+    private void registerPending() {
+        Connection connection;
+        while ((connection = pendingRegistrations.poll()) != null) {
+            try {
+                connection.channel.register(selector, SelectionKey.OP_READ, connection);
+            } catch (IOException e) {
+                connection.close();
+            }
+        }
+    }
+
+    private void closeIdle() {
+        long cutoff = System.currentTimeMillis() - IDLE_TIMEOUT_MS;
+        for (SelectionKey key : selector.keys()) {
+            if (key.attachment() instanceof Connection connection && connection.lastActive < cutoff) {
+                key.cancel();
+                connection.close();
+            }
+        }
+    }
+
+    private void shutdownChannels() {
+        try {
+            if (selector != null) {
+                for (SelectionKey key : selector.keys()) {
+                    if (key.attachment() instanceof Connection connection) {
+                        connection.close();
+                    }
+                }
+                selector.close();
+            }
+            if (serverChannel != null) {
+                serverChannel.close();
+            }
+        } catch (IOException ignored) {
+        }
+    }
+
+    private void rejectAndClose(SocketChannel channel) {
+        try {
+            channel.configureBlocking(true);
+            channel.write(ByteBuffer.wrap(SERVICE_UNAVAILABLE));
+        } catch (IOException ignored) {
+        } finally {
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private HttpHandler resolve(String path) {
+        HttpHandler best = null;
+        int bestLength = -1;
+        for (Map.Entry<String, HttpHandler> context : contexts.entrySet()) {
+            String prefix = context.getKey();
+            if (path.startsWith(prefix) && prefix.length() > bestLength) {
+                best = context.getValue();
+                bestLength = prefix.length();
+            }
+        }
+        return best;
+    }
+
+    /**
+     * One client connection. Runs on a worker while requests are flowing and
+     * goes back to the selector once nothing is buffered.
+     */
+    private final class Connection implements Runnable {
+        private final SocketChannel channel;
+        private final AtomicBoolean closed = new AtomicBoolean();
+        private volatile long lastActive = System.currentTimeMillis();
+
+        Connection(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public void run() {
+            boolean keepOpen = false;
+            try {
+                channel.socket().setSoTimeout(READ_TIMEOUT_MS);
+                BufferedInputStream in = new BufferedInputStream(channel.socket().getInputStream(), IO_BUFFER);
+                BufferedOutputStream out = new BufferedOutputStream(channel.socket().getOutputStream(), IO_BUFFER);
+                do {
+                    keepOpen = serveOne(in, out);
+                    // Pipelined requests already sitting in our buffer are served right away
+                } while (keepOpen && running && in.available() > 0);
+                if (keepOpen && running) {
+                    lastActive = System.currentTimeMillis();
+                    channel.configureBlocking(false);
+                    pendingRegistrations.add(this);
+                    selector.wakeup();
+                }
+            } catch (IOException e) {
+                // Timeouts, resets and half-sent requests all end the connection
+                keepOpen = false;
+            } finally {
+                if (!keepOpen || !running) {
+                    close();
+                }
+            }
+        }
+
+        private boolean serveOne(BufferedInputStream in, BufferedOutputStream out) throws IOException {
+            String requestLine = readLine(in);
+            while (requestLine != null && requestLine.isEmpty()) {
+                requestLine = readLine(in);
+            }
+            if (requestLine == null) {
+                return false;
+            }
+            String[] parts = requestLine.split(" ");
+            if (parts.length != 3) {
+                writeBadRequest(out);
+                return false;
+            }
+            Headers headers = new Headers();
+            String line;
+            int count = 0;
+            while ((line = readLine(in)) != null && !line.isEmpty()) {
+                int colon = line.indexOf(':');
+                if (colon <= 0 || ++count > MAX_HEADERS) {
+                    writeBadRequest(out);
+                    return false;
+                }
+                headers.add(line.substring(0, colon).trim(), line.substring(colon + 1).trim());
+            }
+            if (line == null) {
+                return false;
+            }
+
+            URI uri;
+            try {
+                uri = new URI(parts[1]);
+            } catch (URISyntaxException e) {
+                writeBadRequest(out);
+                return false;
+            }
+
+            InputStream body;
+            String transferEncoding = headers.getFirst("Transfer-Encoding");
+            String contentLength = headers.getFirst("Content-Length");
+            if (transferEncoding != null && transferEncoding.toLowerCase().contains("chunked")) {
+                body = new ChunkedInputStream(in);
+            } else if (contentLength != null) {
+                try {
+                    body = new BoundedInputStream(in, Long.parseLong(contentLength.trim()));
+                } catch (NumberFormatException e) {
+                    writeBadRequest(out);
+                    return false;
+                }
+            } else {
+                body = InputStream.nullInputStream();
+            }
+
+            NioHttpExchange exchange = new NioHttpExchange(channel, parts[0], uri, parts[2], headers, body, out);
+            HttpHandler handler = resolve(uri.getPath() == null ? "/" : uri.getPath());
+            try {
+                if (handler == null) {
+                    exchange.sendResponseHeaders(404, -1);
+                } else {
+                    handler.handle(exchange);
+                }
+            } catch (IOException e) {
+                exchange.markBroken();
+            } catch (RuntimeException e) {
+                System.err.println("Transfer handler failed for " + uri + ": " + e);
+                if (exchange.getResponseCode() < 0) {
+                    exchange.getResponseHeaders().set("Connection", "close");
+                    exchange.sendResponseHeaders(500, -1);
+                }
+                exchange.markBroken();
+            } finally {
+                exchange.close();
+            }
+
+            if (!exchange.isReusable()) {
+                return false;
+            }
+            // Leftover request body must be consumed before the next request can be parsed
+            return drain(body);
+        }
+
+        private boolean drain(InputStream body) {
+            try {
+                long skipped = 0;
+                byte[] scratch = new byte[8192];
+                int read;
+                while ((read = body.read(scratch)) > 0) {
+                    skipped += read;
+                    if (skipped > MAX_DRAIN_BYTES) {
+                        return false;
+                    }
+                }
+                return true;
+            } catch (IOException e) {
+                return false;
+            }
+        }
+
+        private void writeBadRequest(BufferedOutputStream out) throws IOException {
+            out.write("HTTP/1.1 400 Bad Request\r\nContent-Length: 0\r\nConnection: close\r\n\r\n"
+                    .getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+        }
+
+        private String readLine(InputStream in) throws IOException {
+            StringBuilder sb = new StringBuilder(64);
+            int b;
+            while ((b = in.read()) >= 0) {
+                if (b == '\n') {
+                    int len = sb.length();
+                    if (len > 0 && sb.charAt(len - 1) == '\r') {
+                        sb.setLength(len - 1);
+                    }
+                    return sb.toString();
+                }
+                if (sb.length() >= MAX_HEADER_BYTES) {
+                    throw new IOException("Header line too long");
+                }
+                sb.append((char) b);
+            }
+            return sb.length() == 0 ? null : sb.toString();
+        }
+
+        void close() {
+            if (!closed.compareAndSet(false, true)) {
+                return;
+            }
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+            }
+            openConnections.decrementAndGet();
+        }
+    }
+
+    /** Request body with a known Content-Length; never reads past it. */
+    private static final class BoundedInputStream extends InputStream {
+        private final InputStream in;
+        private long remaining;
+
+        BoundedInputStream(InputStream in, long length) {
+            this.in = in;
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int b = in.read();
+            if (b < 0) {
+                throw new EOFException("Request body ended early");
+            }
+            remaining--;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int read = in.read(b, off, (int) Math.min(len, remaining));
+            if (read < 0) {
+                throw new EOFException("Request body ended early");
+            }
+            remaining -= read;
+            return read;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min(in.available(), remaining);
+        }
+    }
+
+    /** Decoder for {@code Transfer-Encoding: chunked} request bodies. */
+    private static final class ChunkedInputStream extends InputStream {
+        private final InputStream in;
+        private long chunkRemaining;
+        private boolean finished;
+
+        ChunkedInputStream(InputStream in) {
+            this.in = in;
+        }
+
+        private boolean nextChunk() throws IOException {
+            if (finished) {
+                return false;
+            }
+            if (chunkRemaining == 0) {
+                String size = readAsciiLine();
+                int semicolon = size.indexOf(';');
+                if (semicolon >= 0) {
+                    size = size.substring(0, semicolon);
+                }
+                try {
+                    chunkRemaining = Long.parseLong(size.trim(), 16);
+                } catch (NumberFormatException e) {
+                    throw new IOException("Malformed chunk size: " + size);
+                }
+                if (chunkRemaining == 0) {
+                    // Skip trailers up to the terminating blank line
+                    while (!readAsciiLine().isEmpty()) {
+                    }
+                    finished = true;
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private String readAsciiLine() throws IOException {
+            StringBuilder sb = new StringBuilder();
+            int b;
+            while ((b = in.read()) >= 0 && b != '\n') {
+                if (b != '\r') {
+                    sb.append((char) b);
+                }
+                if (sb.length() > MAX_HEADER_BYTES) {
+                    throw new IOException("Chunk header too long");
+                }
+            }
+            if (b < 0) {
+                throw new EOFException("Chunked body ended early");
+            }
+            return sb.toString();
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (!nextChunk()) {
+                return -1;
+            }
+            int read = in.read(b, off, (int) Math.min(len, chunkRemaining));
+            if (read < 0) {
+                throw new EOFException("Chunked body ended early");
+            }
+            chunkRemaining -= read;
+            if (chunkRemaining == 0) {
+                // CRLF after chunk data
+                readAsciiLine();
+            }
+            return read;
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package com.airbamin.desktop.transfer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Coalesces upload progress so listeners are not called once per socket read.
+ * Upload streams only bump a counter; a single ticker thread samples all open
+ * transfers every {@value #EMIT_INTERVAL_MS} ms and hands the ones that moved
+ * by at least one percent (or have not been reported for a second) to the sink
+ * in one batch, together with a smoothed rate and ETA. The ticker only runs
+ * while there are transfers open.
+ */
+final class ProgressAggregator {
+
+    static final long EMIT_INTERVAL_MS = 50;
+    private static final double MIN_PERCENT_STEP = 1.0;
+    private static final long MAX_SILENCE_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final double RATE_SMOOTHING = 0.3;
+
+    private final Consumer<List<LocalTransferServer.UploadProgress>> sink;
+    private final Map<Object, Transfer> transfers = new ConcurrentHashMap<>();
+    private ScheduledExecutorService ticker;
+    private ScheduledFuture<?> tick;
+
+    ProgressAggregator(Consumer<List<LocalTransferServer.UploadProgress>> sink) {
+        this.sink = sink;
+    }
+
+    /**
+     * Start tracking a transfer. Streams opened with the same key (parallel
+     * ranges of one upload session) share a single entry, which is dropped once
+     * all of them are closed.
+     */
+    Transfer open(Object key, String filename, String remoteIp, long totalBytes, AtomicLong counter) {
+        Transfer transfer = transfers.compute(key, (k, existing) -> {
+            if (existing != null) {
+                existing.refs.incrementAndGet();
+                return existing;
+            }
+            return new Transfer(k, filename, remoteIp, totalBytes, counter);
+        });
+        ensureTicking();
+        return transfer;
+    }
+
+    int activeCount() {
+        return transfers.size();
+    }
+
+    private synchronized void ensureTicking() {
+        if (tick != null) {
+            return;
+        }
+        if (ticker == null) {
+            ticker = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "transfer-progress");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        tick = ticker.scheduleWithFixedDelay(this::flush, EMIT_INTERVAL_MS, EMIT_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized void stopTickingIfIdle() {
+        if (transfers.isEmpty() && tick != null) {
+            tick.cancel(false);
+            tick = null;
+        }
+    }
+
+    private void flush() {
+        long now = System.nanoTime();
+        List<LocalTransferServer.UploadProgress> batch = new ArrayList<>();
+        for (Transfer transfer : transfers.values()) {
+            LocalTransferServer.UploadProgress update = transfer.sample(now);
+            if (update != null) {
+                batch.add(update);
+            }
+            if (transfer.refs.get() <= 0) {
+                transfers.remove(transfer.key, transfer);
+            }
+        }
+        if (!batch.isEmpty()) {
+            try {
+                sink.accept(batch);
+            } catch (Exception e) {
+                System.err.println("Progress listener failed: " + e.getMessage());
+            }
+        }
+        if (transfers.isEmpty()) {
+            stopTickingIfIdle();
+        }
+    }
+
+    final class Transfer {
+        private final Object key;
+        private final String filename;
+        private final String remoteIp;
+        private final long totalBytes;
+        private final AtomicLong counter;
+        private final AtomicInteger refs = new AtomicInteger(1);
+
+        // Touched only by the ticker thread.
+        private long lastBytes;
+        private long lastNanos;
+        private double lastPercent = -1;
+        private long sampleBytes;
+        private long sampleNanos;
+        private double bytesPerSecond;
+
+        private Transfer(Object key, String filename, String remoteIp, long totalBytes, AtomicLong counter) {
+            this.key = key;
+            this.filename = filename;
+            this.remoteIp = remoteIp;
+            this.totalBytes = totalBytes;
+            this.counter = counter;
+            this.sampleBytes = counter.get();
+            this.lastBytes = sampleBytes;
+            this.sampleNanos = System.nanoTime();
+            this.lastNanos = sampleNanos;
+        }
+
+        void add(long bytes) {
+            counter.addAndGet(bytes);
+        }
+
+        void close() {
+            refs.decrementAndGet();
+        }
+
+        private LocalTransferServer.UploadProgress sample(long now) {
+            long bytes = Math.min(counter.get(), totalBytes);
+            long elapsed = now - sampleNanos;
+            if (elapsed > 0) {
+                double instant = (bytes - sampleBytes) * 1_000_000_000.0 / elapsed;
+                bytesPerSecond = bytesPerSecond == 0 ? instant
+                        : bytesPerSecond + RATE_SMOOTHING * (instant - bytesPerSecond);
+                sampleBytes = bytes;
+                sampleNanos = now;
+            }
+            if (bytes == lastBytes && lastPercent >= 0) {
+                return null;
+            }
+            double percent = totalBytes > 0 ? Math.min(100.0, bytes * 100.0 / totalBytes) : 0;
+            boolean due = bytes >= totalBytes
+                    || percent - lastPercent >= MIN_PERCENT_STEP
+                    || now - lastNanos >= MAX_SILENCE_NANOS;
+            if (!due) {
+                return null;
+            }
+            lastBytes = bytes;
+            lastNanos = now;
+            lastPercent = percent;
+            long eta = bytesPerSecond > 1 ? (long) Math.ceil((totalBytes - bytes) / bytesPerSecond) : -1;
+            return new LocalTransferServer.UploadProgress(filename, remoteIp, bytes, totalBytes, percent,
+                    (long) bytesPerSecond, eta);
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package com.airbamin.desktop.transfer;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Scratch space for uploads in flight: {@code <uploadDir>/.airbamin/staging}.
+ * Incoming bytes go to a {@code .part} file here and only appear in the
+ * upload folder once complete, via {@link NameAllocator#publish}. Being on the
+ * same volume keeps that final step a link or rename rather than a copy.
+ * <p>
+ * Whatever is left in the staging folder when it is first opened in a process
+ * belongs to uploads that died with the previous run, and is deleted.
+ */
+final class StagingArea {
+
+    private static final Map<Path, StagingArea> AREAS = new ConcurrentHashMap<>();
+    private static final String STAGING_DIR = "staging";
+    static final String PART_SUFFIX = ".part";
+
+    private final Path dir;
+
+    private StagingArea(Path uploadDir) {
+        this.dir = uploadDir.resolve(UploadSessionManager.META_DIR).resolve(STAGING_DIR);
+        try {
+            Files.createDirectories(dir);
+            UploadSessionManager.hideMetaDir(uploadDir.resolve(UploadSessionManager.META_DIR));
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to create staging directory " + dir, e);
+        }
+        removeOrphans();
+    }
+
+    static StagingArea forDirectory(Path uploadDir) {
+        return AREAS.computeIfAbsent(uploadDir.toAbsolutePath().normalize(), StagingArea::new);
+    }
+
+    /** A new, empty part file owned by the caller. */
+    Path createPart() throws IOException {
+        return Files.createFile(dir.resolve(UUID.randomUUID() + PART_SUFFIX));
+    }
+
+    /** Flush a file's data and metadata to stable storage. */
+    static void sync(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+    }
+
+    /**
+     * Persist a directory entry (the name of a freshly published file). Not
+     * possible on Windows, where the rename itself is already durable.
+     */
+    static void syncDirectory(Path directory) {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException | UnsupportedOperationException ignored) {
+        }
+    }
+
+    private void removeOrphans() {
+        int removed = 0;
+        try (DirectoryStream<Path> parts = Files.newDirectoryStream(dir, "*" + PART_SUFFIX)) {
+            for (Path part : parts) {
+                try {
+                    Files.deleteIfExists(part);
+                    removed++;
+                } catch (IOException e) {
+                    System.err.println("Could not remove stale upload " + part + ": " + e.getMessage());
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Could not scan staging directory " + dir + ": " + e.getMessage());
+        }
+        if (removed > 0) {
+            System.out.println("Removed " + removed + " interrupted upload(s) from " + dir);
+        }
+    }
+}
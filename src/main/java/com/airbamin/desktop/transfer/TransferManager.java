@@ -0,0 +1,215 @@
+package com.airbamin.desktop.transfer;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Every file body moving through the server, upload or download, as a
+ * transfer object with a state, byte count, rate and priority. The desktop
+ * UI and the local {@code /api/transfers} endpoint use it to pause, resume
+ * or cancel a transfer, or to move an urgent file ahead of the rest.
+ * <p>
+ * Controls act on the transfer's {@link BandwidthScheduler.Flow}, at chunk
+ * granularity: a paused transfer stops at its next chunk and holds the
+ * connection open until resumed; a cancelled one fails there, which aborts
+ * the HTTP response or request. Priority is the transfer's weight in the
+ * scheduler's fair queue, so it decides the split while a bandwidth limit
+ * is in force; without one, lower priorities send only part of the time
+ * while a higher one is moving data. Finished transfers stay listed for
+ * {@link #RETAIN_FINISHED_MILLIS} so the UI can show how they ended.
+ */
+public final class TransferManager {
+
+    static final long RETAIN_FINISHED_MILLIS = 5_000;
+    /** Rates are averaged over at least this long. */
+    private static final long RATE_INTERVAL_MILLIS = 500;
+
+    public enum Direction {
+        UPLOAD, DOWNLOAD
+    }
+
+    public enum State {
+        ACTIVE, PAUSED, COMPLETED, CANCELLED, FAILED;
+
+        public boolean finished() {
+            return this == COMPLETED || this == CANCELLED || this == FAILED;
+        }
+    }
+
+    /**
+     * Fair-queue weights; under a limit a HIGH transfer gets four times the
+     * bandwidth of a NORMAL one, and without one a NORMAL transfer sends a
+     * quarter of the time while a HIGH one is busy.
+     */
+    public enum Priority {
+        LOW(1), NORMAL(4), HIGH(16);
+
+        final int weight;
+
+        Priority(int weight) {
+            this.weight = weight;
+        }
+
+        /** The priority closest to a raw weight. */
+        static Priority of(int weight) {
+            return weight <= 2 ? LOW : weight < 8 ? NORMAL : HIGH;
+        }
+    }
+
+    /**
+     * @param totalBytes      expected size, or -1 if unknown (e.g. a streamed archive)
+     * @param bytesPerSecond  recent rate; 0 while paused
+     */
+    public record Snapshot(long id, String name, String client, Direction direction, State state,
+            Priority priority, long bytesDone, long totalBytes, long bytesPerSecond) {
+
+        /** Percent done, or -1 if the size is unknown. */
+        public double percent() {
+            if (totalBytes <= 0) {
+                return totalBytes == 0 ? 100 : -1;
+            }
+            return Math.min(100.0, bytesDone * 100.0 / totalBytes);
+        }
+    }
+
+    private final BandwidthScheduler scheduler;
+    private final AtomicLong ids = new AtomicLong();
+    private final Map<Long, Transfer> transfers = new ConcurrentHashMap<>();
+
+    TransferManager(BandwidthScheduler scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    /** Start tracking a transfer; it is finished when the returned flow is closed. */
+    BandwidthScheduler.Flow open(String name, String client, Direction direction, long totalBytes, int weight) {
+        pruneFinished(System.currentTimeMillis());
+        BandwidthScheduler.Flow flow = scheduler.open(client, weight);
+        Transfer transfer = new Transfer(ids.incrementAndGet(), name, direction, totalBytes, flow);
+        transfers.put(transfer.id, transfer);
+        flow.onClose(transfer::finish);
+        return flow;
+    }
+
+    /** Current and recently finished transfers, oldest first. */
+    public List<Snapshot> snapshot() {
+        long now = System.currentTimeMillis();
+        pruneFinished(now);
+        List<Snapshot> result = new ArrayList<>(transfers.size());
+        for (Transfer transfer : transfers.values()) {
+            result.add(transfer.snapshot(now));
+        }
+        result.sort(Comparator.comparingLong(Snapshot::id));
+        return result;
+    }
+
+    private void pruneFinished(long now) {
+        transfers.values().removeIf(t -> t.finishedAt > 0 && now - t.finishedAt > RETAIN_FINISHED_MILLIS);
+    }
+
+    /** @return the transfer as it is now, or null if there is none with that id */
+    public Snapshot get(long id) {
+        Transfer transfer = transfers.get(id);
+        return transfer == null ? null : transfer.snapshot(System.currentTimeMillis());
+    }
+
+    /** @return false if there is no such transfer or it has finished */
+    public boolean pause(long id) {
+        Transfer transfer = active(id);
+        if (transfer == null) {
+            return false;
+        }
+        transfer.flow.setPaused(true);
+        return true;
+    }
+
+    public boolean resume(long id) {
+        Transfer transfer = active(id);
+        if (transfer == null) {
+            return false;
+        }
+        transfer.flow.setPaused(false);
+        return true;
+    }
+
+    public boolean cancel(long id) {
+        Transfer transfer = active(id);
+        if (transfer == null) {
+            return false;
+        }
+        transfer.flow.cancel();
+        return true;
+    }
+
+    public boolean setPriority(long id, Priority priority) {
+        Transfer transfer = active(id);
+        if (transfer == null) {
+            return false;
+        }
+        transfer.flow.setWeight(priority.weight);
+        return true;
+    }
+
+    private Transfer active(long id) {
+        Transfer transfer = transfers.get(id);
+        return transfer == null || transfer.finishedAt > 0 ? null : transfer;
+    }
+
+    private static final class Transfer {
+        final long id;
+        final String name;
+        final Direction direction;
+        final long totalBytes;
+        final BandwidthScheduler.Flow flow;
+        volatile long finishedAt;
+        volatile State finalState;
+        // Rate sampling, guarded by this
+        private long sampledAt = System.currentTimeMillis();
+        private long sampledBytes;
+        private long rate;
+
+        Transfer(long id, String name, Direction direction, long totalBytes, BandwidthScheduler.Flow flow) {
+            this.id = id;
+            this.name = name;
+            this.direction = direction;
+            this.totalBytes = totalBytes;
+            this.flow = flow;
+        }
+
+        void finish() {
+            long done = flow.bytes();
+            if (flow.isCancelled()) {
+                finalState = State.CANCELLED;
+            } else if (flow.failed() || (totalBytes > 0 && done < totalBytes)) {
+                finalState = State.FAILED;
+            } else {
+                finalState = State.COMPLETED;
+            }
+            finishedAt = System.currentTimeMillis();
+        }
+
+        synchronized Snapshot snapshot(long now) {
+            State state = finalState;
+            if (state == null) {
+                state = flow.isPaused() ? State.PAUSED : State.ACTIVE;
+            }
+            long done = flow.bytes();
+            if (state.finished() || state == State.PAUSED) {
+                rate = 0;
+                sampledAt = now;
+                sampledBytes = done;
+            } else if (now - sampledAt >= RATE_INTERVAL_MILLIS) {
+                long current = (done - sampledBytes) * 1000 / (now - sampledAt);
+                // Smooth out the chunk-sized steps of paced transfers
+                rate = rate == 0 ? current : (rate + current) / 2;
+                sampledAt = now;
+                sampledBytes = done;
+            }
+            return new Snapshot(id, name, flow.client(), direction, state, Priority.of(flow.weight()), done,
+                    totalBytes, rate);
+        }
+    }
+}
@@ -5,18 +5,21 @@ import com.airbamin.desktop.storage.LocalStorage;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
-import java.util.Comparator;
 import java.util.List;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
+import java.util.Optional;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.Checksum;
 
 /**
  * Pure JavaFX copy of the Spring UploadController logic.
@@ -25,6 +28,13 @@ import java.util.stream.Stream;
 public class TransferService {
 
     private final Path uploadDir;
+    private final FileIndex index;
+    private final NameAllocator names;
+    private final StagingArea staging;
+    private final HashIndex hashes;
+    // Read once from the settings file, not per stored file; see reloadSettings()
+    private volatile DedupMode dedup = DedupMode.configured();
+    private volatile boolean durable = LocalStorage.loadTransferFsync();
     private static final DateTimeFormatter NAME_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd_HH-mm-ss-SSS");
 
     public TransferService() {
@@ -39,12 +49,74 @@ public class TransferService {
         } catch (IOException e) {
             throw new IllegalStateException("Unable to create upload directory " + uploadDir, e);
         }
+        this.index = FileIndex.forDirectory(uploadDir);
+        this.names = NameAllocator.forDirectory(uploadDir);
+        this.staging = StagingArea.forDirectory(uploadDir);
+        this.hashes = HashIndex.forDirectory(uploadDir);
+    }
+
+    /**
+     * What to do when an upload has the same content as a file already in the
+     * folder. Set in Settings, stored as the {@code transferDedup} key.
+     */
+    public enum DedupMode {
+        /** Store every copy; nothing is hashed. */
+        OFF,
+        /** Drop the new copy and report the existing file. */
+        SKIP,
+        /** Keep the new name, but as a hard link to the existing data. */
+        LINK;
+
+        public static DedupMode configured() {
+            String value = LocalStorage.loadTransferDedup();
+            if (value == null) {
+                return OFF;
+            }
+            return switch (value.trim().toLowerCase(java.util.Locale.ROOT)) {
+                case "skip" -> SKIP;
+                case "link" -> LINK;
+                default -> OFF;
+            };
+        }
     }
 
     public Path getUploadDir() {
         return uploadDir;
     }
 
+    /** Pick up changed deduplication and fsync settings; called when Settings are saved. */
+    public void reloadSettings() {
+        dedup = DedupMode.configured();
+        durable = LocalStorage.loadTransferFsync();
+    }
+
+    /**
+     * The file in the upload folder that a phone asked for by name, or null if
+     * the name escapes the folder or reaches into a dot entry. Uploads being
+     * received, session state and the hash log all live under
+     * {@code .airbamin}, and none of it may be served.
+     */
+    public Path resolveServed(String name) {
+        if (name == null || name.isBlank()) {
+            return null;
+        }
+        Path path;
+        try {
+            path = uploadDir.resolve(name).normalize();
+        } catch (java.nio.file.InvalidPathException e) {
+            return null;
+        }
+        if (!path.startsWith(uploadDir) || path.equals(uploadDir)) {
+            return null;
+        }
+        for (Path segment : uploadDir.relativize(path)) {
+            if (segment.toString().startsWith(".")) {
+                return null;
+            }
+        }
+        return path;
+    }
+
     /**
      * Copy a local file into the shared AirBamin folder using the timestamp naming
      * convention.
@@ -54,77 +126,150 @@ public class TransferService {
             throw new IOException("Source file does not exist or is a directory: " + sourceFile);
         }
 
-        String original = sourceFile.getFileName().toString();
-        String storedName = buildStoredName(original);
-        Path target = uploadDir.resolve(storedName);
-
-        Files.copy(sourceFile, target, StandardCopyOption.REPLACE_EXISTING);
-        return toFileRecord(target);
+        try (InputStream in = Files.newInputStream(sourceFile)) {
+            return saveStream(sourceFile.getFileName().toString(), in);
+        }
     }
 
     public FileRecord saveStream(String originalFilename, InputStream data) throws IOException {
-        if (originalFilename == null || originalFilename.isBlank()) {
-            originalFilename = "upload.bin";
-        }
-        String storedName = buildStoredName(originalFilename);
-        Path target = uploadDir.resolve(storedName);
-        Files.copy(data, target, StandardCopyOption.REPLACE_EXISTING);
-        return toFileRecord(target);
+        return saveStream(originalFilename, data, null);
     }
 
-    public List<FileRecord> listFiles() throws IOException {
-        if (!Files.exists(uploadDir)) {
-            return List.of();
+    /**
+     * Receive an upload into the staging area and publish it once the stream
+     * has ended, so the upload folder never shows a half-written file. The
+     * content is CRC32C-checksummed on the way through (and hashed too with
+     * deduplication on); a file that does not match {@code expectedCrc32c} is
+     * discarded instead of published.
+     *
+     * @throws ContentDigest.MismatchException if the received bytes fail the check
+     */
+    public FileRecord saveStream(String originalFilename, InputStream data, Integer expectedCrc32c)
+            throws IOException {
+        DedupMode dedup = this.dedup;
+        MessageDigest digest = dedup == DedupMode.OFF ? null : HashIndex.newDigest();
+        Checksum crc = ContentDigest.newChecksum();
+        Path part = staging.createPart();
+        try {
+            InputStream in = new CheckedInputStream(data, crc);
+            try (OutputStream out = Files.newOutputStream(part, StandardOpenOption.WRITE)) {
+                (digest == null ? in : new DigestInputStream(in, digest)).transferTo(out);
+            }
+            int crc32c = ContentDigest.value(crc);
+            ContentDigest.verify(expectedCrc32c, crc32c);
+            return store(originalFilename, part, digest == null ? null : HashIndex.hex(digest.digest()), dedup,
+                    crc32c);
+        } catch (IOException e) {
+            Files.deleteIfExists(part);
+            throw e;
         }
+    }
 
-        try (Stream<Path> stream = Files.list(uploadDir)) {
-            return stream
-                    .filter(Files::isRegularFile)
-                    .map(this::safeToFileRecord)
-                    .sorted(Comparator.comparing(FileRecord::lastModified).reversed())
-                    .collect(Collectors.toList());
-        }
+    public FileRecord saveCompletedFile(String originalFilename, Path completedFile) throws IOException {
+        return saveCompletedFile(originalFilename, completedFile, null);
     }
 
-    private FileRecord safeToFileRecord(Path path) {
-        try {
-            return toFileRecord(path);
-        } catch (IOException e) {
-            return new FileRecord(path.getFileName().toString(), 0L, LocalDateTime.MIN);
+    /**
+     * Move a fully received temp file (e.g. from a resumable upload session)
+     * into the shared folder under a collision-free name. The temp file must be
+     * on the same volume as the upload folder.
+     *
+     * @param crc32c the file's CRC32C if the caller already knows it, else null
+     */
+    public FileRecord saveCompletedFile(String originalFilename, Path completedFile, Integer crc32c)
+            throws IOException {
+        DedupMode dedup = this.dedup;
+        // Ranges arrive out of order, so the hash needs one pass over the finished file
+        String sha256 = dedup == DedupMode.OFF ? null : HashIndex.hash(completedFile);
+        return store(originalFilename, completedFile, sha256, dedup, crc32c);
+    }
+
+    /**
+     * The stored file whose content hashes to {@code sha256}, if deduplication
+     * is on and such a file exists. Lets clients skip uploading it at all.
+     */
+    public Optional<FileRecord> findByHash(String sha256) throws IOException {
+        if (dedup == DedupMode.OFF) {
+            return Optional.empty();
         }
+        hashes.startBackfill(index);
+        Path existing = hashes.find(sha256);
+        return existing == null ? Optional.empty() : Optional.of(toFileRecord(existing));
     }
 
-    private FileRecord toFileRecord(Path path) throws IOException {
-        BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
-        LocalDateTime lastModified = LocalDateTime.ofInstant(
-                attrs.lastModifiedTime().toInstant(),
-                ZoneId.systemDefault());
-        return new FileRecord(path.getFileName().toString(), attrs.size(), lastModified);
+    private FileRecord store(String originalFilename, Path completedFile, String sha256, DedupMode dedup,
+            Integer crc32c) throws IOException {
+        if (originalFilename == null || originalFilename.isBlank()) {
+            originalFilename = "upload.bin";
+        }
+        if (sha256 != null) {
+            hashes.startBackfill(index);
+            Path existing = hashes.find(sha256);
+            if (existing != null) {
+                if (dedup == DedupMode.SKIP) {
+                    Files.deleteIfExists(completedFile);
+                    return withDigest(existing, toFileRecord(existing), crc32c);
+                }
+                Path linked = names.link(existing, originalFilename);
+                if (linked != null) {
+                    Files.deleteIfExists(completedFile);
+                    hashes.record(linked, sha256);
+                    return withDigest(linked, indexed(linked), crc32c);
+                }
+                // No hard links on this volume; store the copy after all
+            }
+        }
+        boolean durable = this.durable;
+        if (durable) {
+            StagingArea.sync(completedFile);
+        }
+        Path target = names.publish(completedFile, originalFilename);
+        if (durable) {
+            StagingArea.syncDirectory(uploadDir);
+        }
+        if (sha256 != null) {
+            hashes.record(target, sha256);
+        }
+        return withDigest(target, indexed(target), crc32c);
     }
 
-    private String buildStoredName(String originalFilename) {
-        Path target = uploadDir.resolve(originalFilename);
-        if (!Files.exists(target)) {
-            return originalFilename;
+    /** Remember a received file's CRC32C so downloads can advertise it without reading the file. */
+    private static FileRecord withDigest(Path path, FileRecord record, Integer crc32c) {
+        if (crc32c != null) {
+            ContentDigest.remember(path, record.etag(), crc32c);
         }
+        return record;
+    }
 
-        String ext = "";
-        String nameWithoutExt = originalFilename;
+    /**
+     * All files in the upload folder, newest first. Served from the shared
+     * in-memory index, so repeated calls do not rescan the folder.
+     */
+    public List<FileRecord> listFiles() throws IOException {
+        return index.list();
+    }
 
-        int dotIndex = originalFilename.lastIndexOf('.');
-        if (dotIndex >= 0) {
-            ext = originalFilename.substring(dotIndex);
-            nameWithoutExt = originalFilename.substring(0, dotIndex);
-        }
+    /** Files modified after {@code cutoff}, newest first. */
+    public List<FileRecord> listFilesSince(LocalDateTime cutoff) throws IOException {
+        return index.listSince(cutoff);
+    }
 
-        int counter = 1;
-        while (Files.exists(target)) {
-            String newName = nameWithoutExt + "_" + counter + ext;
-            target = uploadDir.resolve(newName);
-            counter++;
-        }
+    FileIndex index() {
+        return index;
+    }
 
-        return target.getFileName().toString();
+    private FileRecord indexed(Path target) throws IOException {
+        FileRecord record = toFileRecord(target);
+        index.put(record);
+        return record;
+    }
+
+    static FileRecord toFileRecord(Path path) throws IOException {
+        BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+        LocalDateTime lastModified = LocalDateTime.ofInstant(
+                attrs.lastModifiedTime().toInstant(),
+                ZoneId.systemDefault());
+        return new FileRecord(path.getFileName().toString(), attrs.size(), lastModified);
     }
 
     public String buildPhoneUrl(NetworkUtils.NetworkMode mode, String overrideIp, int port) {
@@ -139,6 +284,17 @@ public class TransferService {
             return Math.max(1, sizeBytes / 1024);
         }
 
+        /**
+         * Strong validator derived from size and modification time, used for
+         * HTTP ETag / If-Range checks on downloads.
+         */
+        public String etag() {
+            long mtime = lastModified == LocalDateTime.MIN
+                    ? 0L
+                    : lastModified.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+            return "\"" + Long.toHexString(sizeBytes) + "-" + Long.toHexString(mtime) + "\"";
+        }
+
         public String formattedDate() {
             if (lastModified == LocalDateTime.MIN) {
                 return "Unknown";
@@ -0,0 +1,50 @@
+package com.airbamin.desktop.transfer;
+
+import com.airbamin.desktop.storage.LocalStorage;
+import com.sun.net.httpserver.HttpHandler;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+
+/**
+ * HTTP transport underneath {@link LocalTransferServer}. Handlers are plain
+ * {@link HttpHandler}s, so the same endpoint code runs on either the JDK
+ * {@code HttpServer} or the selector-based NIO transport.
+ * <p>
+ * The implementation is picked with the {@code airbamin.transport} system
+ * property, falling back to the {@code transferTransport} key in the settings
+ * file ({@code jdk} or {@code nio}).
+ */
+public interface TransferTransport {
+
+    enum Kind {
+        /** com.sun.net.httpserver, one pooled thread per active request. */
+        JDK,
+        /**
+         * Selector-parked keep-alive connections served by a bounded worker pool,
+         * with zero-copy file bodies.
+         */
+        NIO
+    }
+
+    void createContext(String path, HttpHandler handler);
+
+    /** Bind and start accepting connections. */
+    void start() throws IOException;
+
+    void stop();
+
+    static Kind configuredKind() {
+        String value = System.getProperty("airbamin.transport");
+        if (value == null || value.isBlank()) {
+            value = LocalStorage.loadTransferTransport();
+        }
+        return "nio".equalsIgnoreCase(value == null ? "" : value.trim()) ? Kind.NIO : Kind.JDK;
+    }
+
+    static TransferTransport create(Kind kind, InetSocketAddress address, AdmissionController admission) {
+        return kind == Kind.NIO
+                ? new NioHttpTransport(address, admission)
+                : new JdkHttpTransport(address, admission);
+    }
+}
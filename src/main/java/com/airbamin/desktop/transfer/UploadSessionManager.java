@@ -0,0 +1,642 @@
+package com.airbamin.desktop.transfer;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import java.util.zip.Checksum;
+
+/**
+ * Server side of the resumable upload protocol. Every session owns a temp file
+ * and a small JSON metadata file under {@code <uploadDir>/.airbamin/sessions},
+ * so a half-finished upload survives both a dropped connection and a restart
+ * of the desktop app. The client asks which bytes the server holds, PUTs the
+ * rest and finally commits, which moves the file into the upload folder.
+ * <p>
+ * Sessions come in two modes. {@link Mode#SEQUENTIAL} accepts chunks in order
+ * only. {@link Mode#PARALLEL} needs the total size up front, preallocates the
+ * temp file and accepts any byte range on any number of concurrent
+ * connections; each range is written with positional {@link FileChannel}
+ * writes and the session commits once the ranges cover the whole file. A
+ * commit or discard first waits for range writes still running (a retried
+ * or duplicate PUT), so nothing writes to a file after it is published.
+ * <p>
+ * Each chunk can carry a CRC32C {@code Content-Digest}. Such a chunk is held
+ * in memory and checked before it is written, so a damaged retry of a range
+ * the server already holds cannot overwrite good bytes; one larger than
+ * {@link #STAGED_CHUNK} is checked as it is written instead, and on a
+ * mismatch the span it covered is no longer counted as received, so the
+ * client sends it again. Sequential sessions
+ * also keep a running CRC32C of the whole file, so a commit can be verified
+ * against the client's {@code Repr-Digest} without reading the file again.
+ */
+public class UploadSessionManager {
+
+    static final String META_DIR = ".airbamin";
+    private static final String META_TMP_SUFFIX = ".json.tmp";
+    private static final String SESSIONS_DIR = "sessions";
+    private static final Duration SESSION_TTL = Duration.ofDays(7);
+    private static final int COPY_BUFFER = 256 * 1024;
+    /** Largest chunk with a digest that is verified before writing; the web page sends 8 MB chunks. */
+    static final int STAGED_CHUNK = 8 * 1024 * 1024;
+    /** How long a commit or discard waits for running range writes before answering 409. */
+    private static final long WRITERS_WAIT_MILLIS = 10_000;
+
+    public enum Mode {
+        SEQUENTIAL, PARALLEL
+    }
+
+    private final TransferService transferService;
+    private final Path sessionsDir;
+    private final Map<String, UploadSession> sessions = new ConcurrentHashMap<>();
+
+    public UploadSessionManager(TransferService transferService) {
+        this.transferService = transferService;
+        this.sessionsDir = transferService.getUploadDir().resolve(META_DIR).resolve(SESSIONS_DIR);
+        try {
+            Files.createDirectories(sessionsDir);
+            hideMetaDir(transferService.getUploadDir().resolve(META_DIR));
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to create upload session directory " + sessionsDir, e);
+        }
+        restoreSessions();
+    }
+
+    public UploadSession create(String filename, long size, Mode mode) throws IOException {
+        if (filename == null || filename.isBlank()) {
+            filename = "upload.bin";
+        }
+        if (mode == Mode.PARALLEL && size < 0) {
+            throw new IllegalArgumentException("Parallel uploads need the total size");
+        }
+        String id = UUID.randomUUID().toString().replace("-", "");
+        UploadSession session = new UploadSession(id, filename, size, mode, System.currentTimeMillis());
+        Files.deleteIfExists(session.partFile());
+        try (RandomAccessFile file = new RandomAccessFile(session.partFile().toFile(), "rw")) {
+            if (mode == Mode.PARALLEL) {
+                // Reserve the full length up front so range writers never extend the file
+                file.setLength(size);
+            }
+        }
+        session.persist();
+        sessions.put(id, session);
+        return session;
+    }
+
+    public Optional<UploadSession> get(String id) {
+        if (id == null) {
+            return Optional.empty();
+        }
+        return Optional.ofNullable(sessions.get(id));
+    }
+
+    public Collection<UploadSession> activeSessions() {
+        return sessions.values();
+    }
+
+    public long write(UploadSession session, long offset, InputStream data) throws IOException {
+        return write(session, offset, data, null);
+    }
+
+    /**
+     * Write a chunk starting at {@code offset}. Sequential sessions accept an
+     * offset that rewinds into bytes we already hold (a retried chunk) but not
+     * one that leaves a gap; parallel sessions accept any offset inside the
+     * declared size and may be written from several threads at once.
+     *
+     * @param expectedCrc32c CRC32C of this chunk from the client, or null
+     * @return the number of contiguous bytes the server now holds from offset 0
+     * @throws OffsetMismatchException when the chunk cannot be accepted
+     * @throws ContentDigest.MismatchException when the chunk arrived damaged
+     */
+    public long write(UploadSession session, long offset, InputStream data, Integer expectedCrc32c)
+            throws IOException {
+        if (session.mode == Mode.SEQUENTIAL) {
+            synchronized (session.writeLock) {
+                if (session.closed || offset < 0 || offset > session.contiguous()) {
+                    throw new OffsetMismatchException(session.contiguous());
+                }
+                writeRange(session, offset, data, session.size >= 0 ? session.size : Long.MAX_VALUE,
+                        expectedCrc32c);
+            }
+        } else {
+            if (offset < 0 || offset >= session.size && session.size > 0) {
+                throw new OffsetMismatchException(session.contiguous());
+            }
+            session.beginWrite();
+            try {
+                writeRange(session, offset, data, session.size, expectedCrc32c);
+            } finally {
+                session.endWrite();
+            }
+        }
+        return session.contiguous();
+    }
+
+    private void writeRange(UploadSession session, long offset, InputStream data, long limit,
+            Integer expectedCrc32c) throws IOException {
+        InputStream body = data;
+        if (expectedCrc32c != null) {
+            byte[] staged = data.readNBytes(STAGED_CHUNK + 1);
+            if (staged.length <= STAGED_CHUNK) {
+                if (offset + staged.length > limit) {
+                    throw new IOException("Chunk runs past the declared size of " + limit + " bytes");
+                }
+                Checksum crc = ContentDigest.newChecksum();
+                crc.update(staged, 0, staged.length);
+                ContentDigest.verify(expectedCrc32c, ContentDigest.value(crc));
+                copyRange(session, offset, new ByteArrayInputStream(staged), limit, null);
+                return;
+            }
+            body = new SequenceInputStream(new ByteArrayInputStream(staged), data);
+        }
+        copyRange(session, offset, body, limit, expectedCrc32c);
+    }
+
+    /**
+     * Write {@code data} to the part file from {@code offset} on. With
+     * {@code expectedCrc32c} set it is checked at the end, and on a mismatch
+     * the whole span written is dropped from the received ranges.
+     */
+    private void copyRange(UploadSession session, long offset, InputStream data, long limit,
+            Integer expectedCrc32c) throws IOException {
+        long position = offset;
+        byte[] buffer = new byte[COPY_BUFFER];
+        Checksum chunkCrc = ContentDigest.newChecksum();
+        // Only a sequential session written strictly in order can extend its running digest
+        Checksum running = session.mode == Mode.SEQUENTIAL && offset == session.runningLength
+                ? session.runningCrc
+                : null;
+        if (session.mode == Mode.SEQUENTIAL && running == null) {
+            session.runningCrc = null;
+        }
+        boolean keep = true;
+        try (FileChannel channel = FileChannel.open(session.partFile(), StandardOpenOption.WRITE)) {
+            int read;
+            while ((read = data.read(buffer)) > 0) {
+                if (position + read > limit) {
+                    throw new IOException("Chunk runs past the declared size of " + limit + " bytes");
+                }
+                ByteBuffer wrap = ByteBuffer.wrap(buffer, 0, read);
+                while (wrap.hasRemaining()) {
+                    position += channel.write(wrap, position);
+                }
+                chunkCrc.update(buffer, 0, read);
+                if (running != null) {
+                    running.update(buffer, 0, read);
+                    session.runningLength = position;
+                }
+            }
+            try {
+                ContentDigest.verify(expectedCrc32c, ContentDigest.value(chunkCrc));
+            } catch (ContentDigest.MismatchException e) {
+                keep = false;
+                session.runningCrc = null;
+                throw e;
+            }
+        } finally {
+            if (keep) {
+                // Keep whatever made it to disk, even when the connection dropped mid-chunk
+                session.markReceived(offset, position);
+            } else {
+                session.markDamaged(offset, position);
+            }
+        }
+    }
+
+    public TransferService.FileRecord commit(UploadSession session) throws IOException {
+        return commit(session, null);
+    }
+
+    /**
+     * Move the completed temp file into the upload folder under its final name.
+     * With {@code expectedCrc32c} set, the file is checked first; sessions that
+     * kept a running digest need no extra read for that, others are read once.
+     *
+     * @throws ContentDigest.MismatchException if the file does not match; the
+     *         session is left open so the client can inspect or discard it
+     * @throws OffsetMismatchException if the file is incomplete, or a range
+     *         write is still running after ten seconds
+     */
+    public TransferService.FileRecord commit(UploadSession session, Integer expectedCrc32c) throws IOException {
+        synchronized (session.writeLock) {
+            session.awaitWriters();
+            if (!session.isComplete()) {
+                throw new OffsetMismatchException(session.contiguous());
+            }
+            Integer crc32c = session.runningDigest();
+            if (crc32c == null && expectedCrc32c != null) {
+                crc32c = ContentDigest.compute(session.partFile());
+            }
+            if (crc32c != null) {
+                ContentDigest.verify(expectedCrc32c, crc32c);
+            }
+            if (sessions.remove(session.id) == null) {
+                throw new IOException("Upload session already committed");
+            }
+            session.closed = true;
+            TransferService.FileRecord record = transferService.saveCompletedFile(session.filename, session.partFile(),
+                    crc32c);
+            Files.deleteIfExists(session.metaFile());
+            return record;
+        }
+    }
+
+    public void discard(UploadSession session) throws IOException {
+        synchronized (session.writeLock) {
+            session.awaitWriters();
+            sessions.remove(session.id);
+            session.closed = true;
+            Files.deleteIfExists(session.partFile());
+            Files.deleteIfExists(session.metaFile());
+        }
+    }
+
+    private void restoreSessions() {
+        long cutoff = System.currentTimeMillis() - SESSION_TTL.toMillis();
+        try (Stream<Path> stream = Files.list(sessionsDir)) {
+            stream.filter(p -> p.getFileName().toString().endsWith(META_TMP_SUFFIX)).forEach(tmp -> {
+                try {
+                    Files.deleteIfExists(tmp);
+                } catch (IOException ignored) {
+                }
+            });
+        } catch (IOException e) {
+            System.err.println("Failed to clean upload sessions: " + e.getMessage());
+        }
+        try (Stream<Path> stream = Files.list(sessionsDir)) {
+            stream.filter(p -> p.getFileName().toString().endsWith(".json")).forEach(meta -> {
+                try {
+                    JsonObject json = JsonParser.parseString(Files.readString(meta)).getAsJsonObject();
+                    UploadSession session = new UploadSession(
+                            json.get("id").getAsString(),
+                            json.get("filename").getAsString(),
+                            json.get("size").getAsLong(),
+                            json.has("mode") ? Mode.valueOf(json.get("mode").getAsString()) : Mode.SEQUENTIAL,
+                            json.get("createdAt").getAsLong());
+                    session.updatedAt = json.get("updatedAt").getAsLong();
+                    if (session.updatedAt < cutoff || !Files.exists(session.partFile())) {
+                        Files.deleteIfExists(session.partFile());
+                        Files.deleteIfExists(meta);
+                        return;
+                    }
+                    if (json.has("ranges")) {
+                        for (JsonElement range : json.getAsJsonArray("ranges")) {
+                            JsonArray pair = range.getAsJsonArray();
+                            session.ranges.add(pair.get(0).getAsLong(), pair.get(1).getAsLong());
+                        }
+                    } else if (json.has("received")) {
+                        session.ranges.add(0, json.get("received").getAsLong());
+                    }
+                    if (session.mode == Mode.SEQUENTIAL) {
+                        // Trust the data on disk over the metadata if the two disagree
+                        session.ranges.truncate(Files.size(session.partFile()));
+                    }
+                    session.progress.set(session.ranges.covered());
+                    sessions.put(session.id, session);
+                } catch (Exception e) {
+                    System.err.println("Dropping unreadable upload session " + meta + ": " + e.getMessage());
+                    String name = meta.getFileName().toString();
+                    try {
+                        Files.deleteIfExists(sessionsDir.resolve(
+                                name.substring(0, name.length() - ".json".length()) + ".part"));
+                        Files.deleteIfExists(meta);
+                    } catch (IOException ignored) {
+                    }
+                }
+            });
+        } catch (IOException e) {
+            System.err.println("Failed to restore upload sessions: " + e.getMessage());
+        }
+        // Part files with no session left, e.g. from a crash before the first metadata write
+        try (Stream<Path> stream = Files.list(sessionsDir)) {
+            stream.filter(p -> p.getFileName().toString().endsWith(".part")).forEach(part -> {
+                String name = part.getFileName().toString();
+                if (!sessions.containsKey(name.substring(0, name.length() - ".part".length()))) {
+                    try {
+                        Files.deleteIfExists(part);
+                    } catch (IOException ignored) {
+                    }
+                }
+            });
+        } catch (IOException e) {
+            System.err.println("Failed to clean upload sessions: " + e.getMessage());
+        }
+        if (!sessions.isEmpty()) {
+            System.out.println("Restored " + sessions.size() + " resumable upload session(s)");
+        }
+    }
+
+    static void hideMetaDir(Path dir) {
+        try {
+            if (System.getProperty("os.name", "").toLowerCase().contains("win")) {
+                Files.setAttribute(dir, "dos:hidden", true);
+            }
+        } catch (Exception ignored) {
+        }
+    }
+
+    public class UploadSession {
+        private final String id;
+        private final String filename;
+        private final long size;
+        private final Mode mode;
+        private final long createdAt;
+        private final RangeSet ranges = new RangeSet();
+        private final AtomicLong progress = new AtomicLong();
+        private final Object writeLock = new Object();
+        // Guarded by writeLock: parallel range writes running, and whether new ones are refused
+        private int writers;
+        private boolean closing;
+        private boolean closed;
+        private volatile long updatedAt;
+        /** CRC32C of bytes [0, runningLength), or null once chunks stopped arriving in order. */
+        private Checksum runningCrc = ContentDigest.newChecksum();
+        private long runningLength;
+
+        private UploadSession(String id, String filename, long size, Mode mode, long createdAt) {
+            this.id = id;
+            this.filename = filename;
+            this.size = size;
+            this.mode = mode;
+            this.createdAt = createdAt;
+            this.updatedAt = createdAt;
+        }
+
+        public String id() {
+            return id;
+        }
+
+        public String filename() {
+            return filename;
+        }
+
+        /** Declared total size, or -1 when the client did not announce one. */
+        public long size() {
+            return size;
+        }
+
+        public Mode mode() {
+            return mode;
+        }
+
+        /** Bytes held contiguously from offset 0, i.e. where a sequential client resumes. */
+        public long contiguous() {
+            synchronized (ranges) {
+                return ranges.contiguous();
+            }
+        }
+
+        /** Total bytes held across all received ranges. */
+        public long received() {
+            synchronized (ranges) {
+                return ranges.covered();
+            }
+        }
+
+        /**
+         * Running byte counter for progress reporting, shared by every
+         * connection writing into this session.
+         */
+        AtomicLong progress() {
+            return progress;
+        }
+
+        /** The whole file's CRC32C, if the running digest covers all of it. */
+        private Integer runningDigest() {
+            if (runningCrc == null || runningLength != contiguous()) {
+                return null;
+            }
+            return ContentDigest.value(runningCrc);
+        }
+
+        boolean isComplete() {
+            synchronized (ranges) {
+                return size < 0 || ranges.contiguous() == size;
+            }
+        }
+
+        Path partFile() {
+            return sessionsDir.resolve(id + ".part");
+        }
+
+        Path metaFile() {
+            return sessionsDir.resolve(id + ".json");
+        }
+
+        /** Count a parallel range write in, unless the session is being committed or is gone. */
+        private void beginWrite() throws OffsetMismatchException {
+            synchronized (writeLock) {
+                if (closing || closed) {
+                    throw new OffsetMismatchException(contiguous());
+                }
+                writers++;
+            }
+        }
+
+        private void endWrite() {
+            synchronized (writeLock) {
+                writers--;
+                writeLock.notifyAll();
+            }
+        }
+
+        /**
+         * With {@code writeLock} held, wait until no range write is running.
+         * New ones are refused meanwhile; after that the held lock keeps them
+         * out until the caller is done.
+         */
+        private void awaitWriters() throws IOException {
+            if (closed) {
+                throw new OffsetMismatchException(contiguous());
+            }
+            closing = true;
+            try {
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(WRITERS_WAIT_MILLIS);
+                while (writers > 0) {
+                    long left = deadline - System.nanoTime();
+                    if (left <= 0) {
+                        throw new OffsetMismatchException(contiguous());
+                    }
+                    TimeUnit.NANOSECONDS.timedWait(writeLock, left);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for range writes");
+            } finally {
+                closing = false;
+            }
+        }
+
+        private void markReceived(long start, long end) throws IOException {
+            synchronized (ranges) {
+                if (end > start) {
+                    ranges.add(start, end);
+                }
+                updatedAt = System.currentTimeMillis();
+                persist();
+            }
+        }
+
+        /** Forget {@code [start, end)}, which now holds bytes that failed their digest. */
+        private void markDamaged(long start, long end) throws IOException {
+            synchronized (ranges) {
+                ranges.remove(start, end);
+                updatedAt = System.currentTimeMillis();
+                persist();
+            }
+        }
+
+        public JsonObject toJson() {
+            JsonObject json = new JsonObject();
+            json.addProperty("id", id);
+            json.addProperty("filename", filename);
+            json.addProperty("size", size);
+            json.addProperty("mode", mode.name().toLowerCase());
+            synchronized (ranges) {
+                json.addProperty("offset", ranges.contiguous());
+                json.addProperty("received", ranges.covered());
+                json.add("ranges", ranges.toJson());
+            }
+            return json;
+        }
+
+        private void persist() throws IOException {
+            JsonObject json = new JsonObject();
+            json.addProperty("id", id);
+            json.addProperty("filename", filename);
+            json.addProperty("size", size);
+            json.addProperty("mode", mode.name());
+            json.addProperty("createdAt", createdAt);
+            json.addProperty("updatedAt", updatedAt);
+            synchronized (ranges) {
+                json.add("ranges", ranges.toJson());
+            }
+            // Rewritten on every chunk: write aside and rename, so a crash leaves the old copy intact
+            Path tmp = sessionsDir.resolve(id + META_TMP_SUFFIX);
+            Files.writeString(tmp, json.toString(), StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+            try {
+                Files.move(tmp, metaFile(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, metaFile(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+    }
+
+    /**
+     * Sorted, merged list of half-open {@code [start, end)} byte ranges. Callers
+     * synchronize on the instance.
+     */
+    private static final class RangeSet {
+        private final List<long[]> ranges = new ArrayList<>();
+
+        void add(long start, long end) {
+            int i = 0;
+            while (i < ranges.size() && ranges.get(i)[1] < start) {
+                i++;
+            }
+            long newStart = start;
+            long newEnd = end;
+            while (i < ranges.size() && ranges.get(i)[0] <= newEnd) {
+                long[] existing = ranges.remove(i);
+                newStart = Math.min(newStart, existing[0]);
+                newEnd = Math.max(newEnd, existing[1]);
+            }
+            ranges.add(i, new long[] { newStart, newEnd });
+        }
+
+        void remove(long start, long end) {
+            List<long[]> kept = new ArrayList<>(ranges.size() + 1);
+            for (long[] range : ranges) {
+                if (range[1] <= start || range[0] >= end) {
+                    kept.add(range);
+                    continue;
+                }
+                if (range[0] < start) {
+                    kept.add(new long[] { range[0], start });
+                }
+                if (range[1] > end) {
+                    kept.add(new long[] { end, range[1] });
+                }
+            }
+            ranges.clear();
+            ranges.addAll(kept);
+        }
+
+        void truncate(long limit) {
+            ranges.removeIf(range -> range[0] >= limit);
+            for (long[] range : ranges) {
+                range[1] = Math.min(range[1], limit);
+            }
+        }
+
+        long contiguous() {
+            if (ranges.isEmpty() || ranges.get(0)[0] != 0) {
+                return 0;
+            }
+            return ranges.get(0)[1];
+        }
+
+        long covered() {
+            long total = 0;
+            for (long[] range : ranges) {
+                total += range[1] - range[0];
+            }
+            return total;
+        }
+
+        JsonArray toJson() {
+            JsonArray array = new JsonArray();
+            for (long[] range : ranges) {
+                JsonArray pair = new JsonArray();
+                pair.add(range[0]);
+                pair.add(range[1]);
+                array.add(pair);
+            }
+            return array;
+        }
+    }
+
+    /**
+     * Raised when a chunk does not line up with the bytes already received; the
+     * client should re-query the session and continue from there.
+     */
+    public static class OffsetMismatchException extends IOException {
+        private final long currentOffset;
+
+        public OffsetMismatchException(long currentOffset) {
+            super("Upload offset mismatch, server has " + currentOffset + " bytes");
+            this.currentOffset = currentOffset;
+        }
+
+        public long getCurrentOffset() {
+            return currentOffset;
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package com.airbamin.desktop.transfer;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+
+/**
+ * A static page served from the classpath ({@code /web/...}), or a generated
+ * body that rarely changes. It is compressed once, pages at the best gzip
+ * and deflate levels, so a hit costs no rendering or compression work at all.
+ * Each encoding has its own strong ETag; browsers revalidate with
+ * {@code If-None-Match} and get a bodiless 304 back while the body is
+ * unchanged.
+ */
+final class WebAsset {
+
+    private final String contentType;
+    private final byte[] identity;
+    private final byte[] gzip;
+    private final byte[] deflate;
+    private final String etag;
+
+    private WebAsset(String contentType, byte[] identity, int level) {
+        this.contentType = contentType;
+        this.identity = identity;
+        this.gzip = ContentEncoding.encode(identity, ContentEncoding.Coding.GZIP, level);
+        this.deflate = ContentEncoding.encode(identity, ContentEncoding.Coding.DEFLATE, level);
+        java.util.zip.Checksum crc = ContentDigest.newChecksum();
+        crc.update(identity, 0, identity.length);
+        this.etag = Integer.toHexString(ContentDigest.value(crc)) + "-" + Integer.toHexString(identity.length);
+    }
+
+    /** @throws IllegalStateException if the resource is missing from the build */
+    static WebAsset load(String resource, String contentType) {
+        try (InputStream in = WebAsset.class.getResourceAsStream(resource)) {
+            if (in == null) {
+                throw new IllegalStateException("Missing web resource " + resource);
+            }
+            return new WebAsset(contentType, in.readAllBytes(), Deflater.BEST_COMPRESSION);
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to read web resource " + resource, e);
+        }
+    }
+
+    /**
+     * A generated body that is served many times between changes, such as a
+     * listing. Compressed once here at {@code level}.
+     */
+    static WebAsset of(String contentType, byte[] body, int level) {
+        return new WebAsset(contentType, body, level);
+    }
+
+    /** Answer a GET or HEAD with the best encoding the client accepts, or 304 if it is current. */
+    void send(HttpExchange exchange) throws IOException {
+        ContentEncoding.Coding coding = ContentEncoding.negotiate(exchange.getRequestHeaders());
+        byte[] body = identity;
+        String tag = "\"" + etag + "\"";
+        if (coding == ContentEncoding.Coding.GZIP) {
+            body = gzip;
+            tag = "\"" + etag + "-gz\"";
+        } else if (coding == ContentEncoding.Coding.DEFLATE) {
+            body = deflate;
+            tag = "\"" + etag + "-df\"";
+        }
+
+        Headers headers = exchange.getResponseHeaders();
+        headers.set("ETag", tag);
+        headers.set("Cache-Control", "no-cache");
+        headers.set("Vary", "Accept-Encoding");
+        if (notModified(exchange.getRequestHeaders().getFirst("If-None-Match"), tag)) {
+            exchange.sendResponseHeaders(304, -1);
+            exchange.close();
+            return;
+        }
+        headers.set("Content-Type", contentType);
+        if (coding != null) {
+            headers.set("Content-Encoding", coding.token);
+        }
+        if ("HEAD".equalsIgnoreCase(exchange.getRequestMethod())) {
+            headers.set("Content-Length", Integer.toString(body.length));
+            exchange.sendResponseHeaders(200, -1);
+            exchange.close();
+            return;
+        }
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(body);
+        }
+    }
+
+    /** Weak comparison, as RFC 9110 prescribes for If-None-Match. */
+    private static boolean notModified(String ifNoneMatch, String tag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            String value = candidate.trim();
+            if (value.equals("*")) {
+                return true;
+            }
+            if (value.startsWith("W/")) {
+                value = value.substring(2);
+            }
+            if (value.equals(tag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,361 @@
+package com.airbamin.desktop.transfer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * A ZIP archive of existing files, written straight to a response stream with
+ * no temp file. Each entry's CRC and compressed size follow its data in a data
+ * descriptor, so every file is read exactly once and memory stays at a couple
+ * of fixed buffers plus one small record per entry, however large the files.
+ * <p>
+ * Media and other already-compressed formats are STORED; the rest is deflated
+ * at the fastest level, which is what a LAN link can keep up with. ZIP64
+ * records are added only where sizes, offsets or the entry count need them.
+ * An archive of STORED entries only has a length known in advance, which lets
+ * the response use Content-Length and zero-copy file sends.
+ */
+final class ZipStream {
+
+    private static final int LOCAL_HEADER = 0x04034b50;
+    private static final int DATA_DESCRIPTOR = 0x08074b50;
+    private static final int CENTRAL_HEADER = 0x02014b50;
+    private static final int END_OF_CENTRAL = 0x06054b50;
+    private static final int ZIP64_END_OF_CENTRAL = 0x06064b50;
+    private static final int ZIP64_LOCATOR = 0x07064b50;
+    private static final int FLAG_DESCRIPTOR = 0x0008;
+    private static final int FLAG_UTF8 = 0x0800;
+    private static final int STORED = 0;
+    private static final int DEFLATED = 8;
+    private static final long LIMIT = 0xFFFFFFFFL;
+    private static final int BUFFER = 64 * 1024;
+
+    private static final Set<String> COMPRESSED_EXTENSIONS = Set.of(
+            "jpg", "jpeg", "png", "gif", "webp", "heic", "heif", "avif",
+            "mp4", "m4v", "mov", "mkv", "webm", "avi", "3gp",
+            "mp3", "m4a", "aac", "ogg", "opus", "flac",
+            "zip", "7z", "rar", "gz", "tgz", "bz2", "xz", "zst",
+            "apk", "ipa", "jar", "docx", "xlsx", "pptx", "odt", "epub");
+
+    private static final class Entry {
+        final Path path;
+        final byte[] name;
+        final long size;
+        final int dosTime;
+        final int method;
+        /** Sizes may not fit 32 bits, so the local header and descriptor use the ZIP64 forms. */
+        final boolean zip64;
+        long offset;
+        long crc;
+        long compressedSize;
+        long written;
+
+        Entry(Path path, String name, long size, int dosTime, int method) {
+            this.path = path;
+            this.name = name.getBytes(StandardCharsets.UTF_8);
+            this.size = size;
+            this.dosTime = dosTime;
+            this.method = method;
+            // Deflate can grow incompressible data slightly, so leave headroom below the limit
+            long bound = method == STORED ? size : size + (size >> 12) + 1024;
+            this.zip64 = bound >= LIMIT;
+        }
+    }
+
+    private final List<Entry> entries = new ArrayList<>();
+    private final Set<String> names = new HashSet<>();
+
+    /**
+     * Add a file under {@code name}; a name already in the archive gets a
+     * numbered variant ({@code photo (2).jpg}).
+     */
+    void add(String name, Path file) throws IOException {
+        BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+        String unique = uniqueName(name);
+        int method = attrs.size() == 0 || isCompressed(unique) ? STORED : DEFLATED;
+        LocalDateTime modified = LocalDateTime.ofInstant(attrs.lastModifiedTime().toInstant(), ZoneId.systemDefault());
+        entries.add(new Entry(file, unique, attrs.size(), dosTime(modified), method));
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    /** Exact archive length if every entry is STORED, else -1 (deflated sizes are only known afterwards). */
+    long exactLength() {
+        long position = 0;
+        for (Entry entry : entries) {
+            if (entry.method != STORED) {
+                return -1;
+            }
+            entry.offset = position;
+            position += localHeaderLength(entry) + entry.size + descriptorLength(entry);
+        }
+        long centralStart = position;
+        for (Entry entry : entries) {
+            position += centralHeaderLength(entry, entry.size, entry.size, entry.offset);
+        }
+        return position + endLength(centralStart, position - centralStart);
+    }
+
+    /**
+     * Write the archive. The stream is not closed. Files are read through
+     * {@code engine}, so STORED entries go out zero-copy when {@code out}
+     * allows it.
+     */
+    void writeTo(OutputStream out, DownloadEngine engine) throws IOException {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+        byte[] input = new byte[BUFFER];
+        byte[] output = new byte[BUFFER];
+        long position = 0;
+        try {
+            for (Entry entry : entries) {
+                entry.offset = position;
+                position += writeLocalHeader(out, entry);
+                CRC32 crc = new CRC32();
+                try (FileChannel channel = FileChannel.open(entry.path, StandardOpenOption.READ)) {
+                    if (entry.method == STORED) {
+                        engine.send(channel, 0, entry.size, out, crc);
+                        entry.compressedSize = entry.size;
+                        entry.written = entry.size;
+                    } else {
+                        deflate(channel, entry, out, crc, deflater, input, output);
+                    }
+                }
+                entry.crc = crc.getValue();
+                position += entry.compressedSize;
+                position += writeDescriptor(out, entry);
+            }
+            long centralStart = position;
+            for (Entry entry : entries) {
+                position += writeCentralHeader(out, entry);
+            }
+            writeEnd(out, centralStart, position - centralStart);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private void deflate(FileChannel channel, Entry entry, OutputStream out, CRC32 crc, Deflater deflater,
+            byte[] input, byte[] output) throws IOException {
+        deflater.reset();
+        ByteBuffer buffer = ByteBuffer.wrap(input);
+        long remaining = entry.size;
+        long compressed = 0;
+        // Read no more than the size in the local header, even if the file grows meanwhile
+        while (remaining > 0) {
+            buffer.clear().limit((int) Math.min(input.length, remaining));
+            int read = channel.read(buffer);
+            if (read < 0) {
+                break;
+            }
+            crc.update(input, 0, read);
+            remaining -= read;
+            deflater.setInput(input, 0, read);
+            while (!deflater.needsInput()) {
+                int n = deflater.deflate(output);
+                out.write(output, 0, n);
+                compressed += n;
+            }
+        }
+        deflater.finish();
+        while (!deflater.finished()) {
+            int n = deflater.deflate(output);
+            out.write(output, 0, n);
+            compressed += n;
+        }
+        entry.compressedSize = compressed;
+        entry.written = entry.size - remaining;
+    }
+
+    private static int localHeaderLength(Entry entry) {
+        return 30 + entry.name.length + (entry.zip64 ? 20 : 0);
+    }
+
+    private static int descriptorLength(Entry entry) {
+        return entry.zip64 ? 24 : 16;
+    }
+
+    private static int centralExtraLength(long size, long compressedSize, long offset) {
+        int fields = (size >= LIMIT ? 8 : 0) + (compressedSize >= LIMIT ? 8 : 0) + (offset >= LIMIT ? 8 : 0);
+        return fields == 0 ? 0 : 4 + fields;
+    }
+
+    private static int centralHeaderLength(Entry entry, long size, long compressedSize, long offset) {
+        return 46 + entry.name.length + centralExtraLength(size, compressedSize, offset);
+    }
+
+    private int endLength(long centralStart, long centralSize) {
+        return 22 + (needsZip64End(centralStart, centralSize) ? 56 + 20 : 0);
+    }
+
+    private boolean needsZip64End(long centralStart, long centralSize) {
+        return entries.size() >= 0xFFFF || centralStart >= LIMIT || centralSize >= LIMIT;
+    }
+
+    private int writeLocalHeader(OutputStream out, Entry entry) throws IOException {
+        ByteBuffer header = buffer(localHeaderLength(entry));
+        header.putInt(LOCAL_HEADER);
+        header.putShort((short) (entry.zip64 ? 45 : 20));
+        header.putShort((short) (FLAG_DESCRIPTOR | FLAG_UTF8));
+        header.putShort((short) entry.method);
+        header.putInt(entry.dosTime);
+        // CRC and sizes follow the data in the descriptor
+        header.putInt(0);
+        header.putInt(entry.zip64 ? (int) LIMIT : 0);
+        header.putInt(entry.zip64 ? (int) LIMIT : 0);
+        header.putShort((short) entry.name.length);
+        header.putShort((short) (entry.zip64 ? 20 : 0));
+        header.put(entry.name);
+        if (entry.zip64) {
+            header.putShort((short) 0x0001);
+            header.putShort((short) 16);
+            header.putLong(0);
+            header.putLong(0);
+        }
+        return write(out, header);
+    }
+
+    private int writeDescriptor(OutputStream out, Entry entry) throws IOException {
+        ByteBuffer descriptor = buffer(descriptorLength(entry));
+        descriptor.putInt(DATA_DESCRIPTOR);
+        descriptor.putInt((int) entry.crc);
+        if (entry.zip64) {
+            descriptor.putLong(entry.compressedSize);
+            descriptor.putLong(entry.written);
+        } else {
+            descriptor.putInt((int) entry.compressedSize);
+            descriptor.putInt((int) entry.written);
+        }
+        return write(out, descriptor);
+    }
+
+    private int writeCentralHeader(OutputStream out, Entry entry) throws IOException {
+        long size = entry.written;
+        long compressed = entry.compressedSize;
+        long offset = entry.offset;
+        int extra = centralExtraLength(size, compressed, offset);
+        boolean zip64 = entry.zip64 || extra > 0;
+        ByteBuffer header = buffer(centralHeaderLength(entry, size, compressed, offset));
+        header.putInt(CENTRAL_HEADER);
+        header.putShort((short) 45);
+        header.putShort((short) (zip64 ? 45 : 20));
+        header.putShort((short) (FLAG_DESCRIPTOR | FLAG_UTF8));
+        header.putShort((short) entry.method);
+        header.putInt(entry.dosTime);
+        header.putInt((int) entry.crc);
+        header.putInt((int) Math.min(compressed, LIMIT));
+        header.putInt((int) Math.min(size, LIMIT));
+        header.putShort((short) entry.name.length);
+        header.putShort((short) extra);
+        header.putShort((short) 0);
+        header.putShort((short) 0);
+        header.putShort((short) 0);
+        header.putInt(0);
+        header.putInt((int) Math.min(offset, LIMIT));
+        header.put(entry.name);
+        if (extra > 0) {
+            header.putShort((short) 0x0001);
+            header.putShort((short) (extra - 4));
+            if (size >= LIMIT) {
+                header.putLong(size);
+            }
+            if (compressed >= LIMIT) {
+                header.putLong(compressed);
+            }
+            if (offset >= LIMIT) {
+                header.putLong(offset);
+            }
+        }
+        return write(out, header);
+    }
+
+    private void writeEnd(OutputStream out, long centralStart, long centralSize) throws IOException {
+        ByteBuffer end = buffer(endLength(centralStart, centralSize));
+        if (needsZip64End(centralStart, centralSize)) {
+            long zip64EndOffset = centralStart + centralSize;
+            end.putInt(ZIP64_END_OF_CENTRAL);
+            end.putLong(44);
+            end.putShort((short) 45);
+            end.putShort((short) 45);
+            end.putInt(0);
+            end.putInt(0);
+            end.putLong(entries.size());
+            end.putLong(entries.size());
+            end.putLong(centralSize);
+            end.putLong(centralStart);
+            end.putInt(ZIP64_LOCATOR);
+            end.putInt(0);
+            end.putLong(zip64EndOffset);
+            end.putInt(1);
+        }
+        end.putInt(END_OF_CENTRAL);
+        end.putShort((short) 0);
+        end.putShort((short) 0);
+        end.putShort((short) Math.min(entries.size(), 0xFFFF));
+        end.putShort((short) Math.min(entries.size(), 0xFFFF));
+        end.putInt((int) Math.min(centralSize, LIMIT));
+        end.putInt((int) Math.min(centralStart, LIMIT));
+        end.putShort((short) 0);
+        write(out, end);
+    }
+
+    private static ByteBuffer buffer(int length) {
+        return ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static int write(OutputStream out, ByteBuffer buffer) throws IOException {
+        out.write(buffer.array(), 0, buffer.position());
+        return buffer.position();
+    }
+
+    private String uniqueName(String name) {
+        String candidate = name;
+        String stem = name;
+        String ext = "";
+        int dot = name.lastIndexOf('.');
+        if (dot > 0) {
+            stem = name.substring(0, dot);
+            ext = name.substring(dot);
+        }
+        for (int n = 2; !names.add(candidate.toLowerCase(Locale.ROOT)); n++) {
+            candidate = stem + " (" + n + ")" + ext;
+        }
+        return candidate;
+    }
+
+    private static boolean isCompressed(String name) {
+        int dot = name.lastIndexOf('.');
+        return dot >= 0 && COMPRESSED_EXTENSIONS.contains(name.substring(dot + 1).toLowerCase(Locale.ROOT));
+    }
+
+    /** MS-DOS date and time, as ZIP headers store them; clamped to the format's 1980 epoch. */
+    private static int dosTime(LocalDateTime time) {
+        if (time.getYear() < 1980) {
+            return (1 << 21) | (1 << 16);
+        }
+        return (time.getYear() - 1980) << 25
+                | time.getMonthValue() << 21
+                | time.getDayOfMonth() << 16
+                | time.getHour() << 11
+                | time.getMinute() << 5
+                | time.getSecond() >> 1;
+    }
+}
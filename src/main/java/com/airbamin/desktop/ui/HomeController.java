@@ -58,6 +58,21 @@ public class HomeController {
         }
     }
 
+    @FXML
+    public void onSelectFolder() {
+        javafx.stage.DirectoryChooser directoryChooser = new javafx.stage.DirectoryChooser();
+        directoryChooser.setTitle("Select Folder to Send");
+        java.io.File folder = directoryChooser.showDialog(rootPane.getScene().getWindow());
+
+        if (folder != null) {
+            LocalTransferServer.getInstance().hostFiles(java.util.List.of(folder));
+            if (messageLabel != null) {
+                messageLabel.setText("Folder \"" + folder.getName() + "\" hosted. Mobile app can now download its files.");
+                messageLabel.setOpacity(1.0);
+            }
+        }
+    }
+
     @FXML
     public void openDashboard() {
         loadScene("/Dashboard.fxml");
@@ -1,13 +1,25 @@
 package com.airbamin.desktop.ui;
 
 import com.airbamin.desktop.mirror.MirrorReceiver;
+import com.airbamin.desktop.mirror.MirrorStats;
 import com.airbamin.desktop.mirror.VideoDecoder;
+import javafx.animation.Animation;
+import javafx.animation.KeyFrame;
+import javafx.animation.Timeline;
 import javafx.fxml.FXML;
 import javafx.scene.control.Label;
 import javafx.scene.image.ImageView;
 import javafx.scene.layout.AnchorPane;
 import javafx.scene.layout.StackPane;
+import javafx.stage.FileChooser;
 import javafx.stage.Stage;
+import javafx.util.Duration;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
 
 public class MirrorDisplayController {
 
@@ -25,6 +37,7 @@ public class MirrorDisplayController {
 
     private MirrorReceiver receiver;
     private VideoDecoder decoder;
+    private Timeline statsTimeline;
 
     @FXML
     public void initialize() {
@@ -43,6 +56,11 @@ public class MirrorDisplayController {
             // Ideally show an alert to the user here
         }
 
+        statsLabel.setText("Waiting for phone...");
+        statsTimeline = new Timeline(new KeyFrame(Duration.seconds(1), e -> updateStats()));
+        statsTimeline.setCycleCount(Animation.INDEFINITE);
+        statsTimeline.play();
+
         // Auto-hide overlay after 3 seconds
         overlayPane.setOpacity(1.0);
         new java.util.Timer().schedule(new java.util.TimerTask() {
@@ -60,6 +78,41 @@ public class MirrorDisplayController {
         });
     }
 
+    private void updateStats() {
+        MirrorStats.Sample s = decoder.stats().sample();
+        if (s.width() == 0) {
+            return;
+        }
+        statsLabel.setText(String.format(Locale.ROOT,
+                "%dx%d | %s | %.0f fps%n"
+                        + "Network %.1f Mbit/s, jitter %.1f ms%n"
+                        + "Decode %.1f ms, queue %d, dropped %d%n"
+                        + "Latency %.0f ms (max %.0f ms)",
+                s.width(), s.height(), s.decoder(), s.fps(),
+                s.bitrateKbps() / 1000, s.jitterMillis(),
+                s.decodeMillis(), s.queueDepth(), s.dropped(),
+                s.latencyMillis(), s.latencyMaxMillis()));
+    }
+
+    @FXML
+    private void handleExportStats() {
+        FileChooser fileChooser = new FileChooser();
+        fileChooser.setTitle("Export Mirror Statistics");
+        fileChooser.getExtensionFilters().add(new FileChooser.ExtensionFilter("CSV files", "*.csv"));
+        fileChooser.setInitialFileName("mirror-stats-"
+                + LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss")) + ".csv");
+        File file = fileChooser.showSaveDialog(rootPane.getScene().getWindow());
+        if (file == null) {
+            return;
+        }
+        try {
+            decoder.stats().writeCsv(file.toPath());
+            System.out.println("[Mirror] Statistics exported to " + file);
+        } catch (IOException e) {
+            System.err.println("[Mirror] Failed to export statistics: " + e.getMessage());
+        }
+    }
+
     @FXML
     private void handleClose() {
         stopMirroring();
@@ -68,6 +121,9 @@ public class MirrorDisplayController {
     }
 
     public void stopMirroring() {
+        if (statsTimeline != null) {
+            statsTimeline.stop();
+        }
         if (receiver != null) {
             receiver.stop();
         }
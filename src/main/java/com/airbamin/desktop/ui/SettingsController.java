@@ -1,6 +1,7 @@
 package com.airbamin.desktop.ui;
 
 import com.airbamin.desktop.storage.LocalStorage;
+import com.airbamin.desktop.transfer.LocalTransferServer;
 import com.airbamin.desktop.utils.AuthManager;
 import com.airbamin.desktop.utils.UpdateNotifier;
 import javafx.application.Platform;
@@ -9,6 +10,8 @@ import javafx.scene.control.CheckBox;
 import javafx.scene.control.TextField;
 import javafx.stage.DirectoryChooser;
 
+import java.math.BigDecimal;
+import java.math.RoundingMode;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -25,6 +28,22 @@ public class SettingsController {
     private javafx.scene.control.ComboBox<String> languageCombo;
     @FXML
     private javafx.scene.control.ComboBox<String> themeCombo;
+    @FXML
+    private TextField globalLimitField;
+    @FXML
+    private TextField clientLimitField;
+    @FXML
+    private javafx.scene.control.ComboBox<String> dedupCombo;
+    @FXML
+    private CheckBox fsyncCheck;
+    @FXML
+    private javafx.scene.control.ComboBox<String> transportCombo;
+    @FXML
+    private java.util.ResourceBundle resources;
+
+    // Stored values, in the same order as the combo items
+    private static final java.util.List<String> DEDUP_MODES = java.util.List.of("off", "skip", "link");
+    private static final java.util.List<String> TRANSPORTS = java.util.List.of("jdk", "nio");
 
     private Path selectedUploadDir;
 
@@ -93,6 +112,31 @@ public class SettingsController {
             }
             uploadDirField.setText(selectedUploadDir.toString());
             uploadDirField.setEditable(false);
+
+            LocalTransferServer server = LocalTransferServer.getInstance();
+            globalLimitField.setText(formatLimit(server.getBandwidthLimit()));
+            clientLimitField.setText(formatLimit(server.getClientBandwidthLimit()));
+
+            // Transfers Setup
+            dedupCombo.getItems().addAll(resources.getString("settings.dedup_off"),
+                    resources.getString("settings.dedup_skip"), resources.getString("settings.dedup_link"));
+            dedupCombo.getSelectionModel().select(Math.max(0, DEDUP_MODES.indexOf(
+                    LocalStorage.loadTransferDedup().trim().toLowerCase(java.util.Locale.ROOT))));
+            fsyncCheck.setSelected(LocalStorage.loadTransferFsync());
+            transportCombo.getItems().addAll(resources.getString("settings.transport_jdk"),
+                    resources.getString("settings.transport_nio"));
+            transportCombo.getSelectionModel().select(Math.max(0, TRANSPORTS.indexOf(
+                    LocalStorage.loadTransferTransport().trim().toLowerCase(java.util.Locale.ROOT))));
+            dedupCombo.setOnMouseClicked(e -> {
+                if (!dedupCombo.isShowing()) {
+                    dedupCombo.show();
+                }
+            });
+            transportCombo.setOnMouseClicked(e -> {
+                if (!transportCombo.isShowing()) {
+                    transportCombo.show();
+                }
+            });
         });
     }
 
@@ -123,9 +167,24 @@ public class SettingsController {
 
         if (selectedUploadDir != null) {
             LocalStorage.saveUploadDir(selectedUploadDir);
-            com.airbamin.desktop.transfer.LocalTransferServer.getInstance().updateUploadDir(selectedUploadDir);
+            LocalTransferServer.getInstance().updateUploadDir(selectedUploadDir);
         }
 
+        // Bandwidth limits apply to running transfers straight away
+        LocalTransferServer server = LocalTransferServer.getInstance();
+        long globalLimit = parseLimit(globalLimitField.getText(), server.getBandwidthLimit());
+        long clientLimit = parseLimit(clientLimitField.getText(), server.getClientBandwidthLimit());
+        LocalStorage.saveTransferLimits(globalLimit, clientLimit);
+        server.setBandwidthLimits(globalLimit, clientLimit);
+
+        // Dedup and fsync apply to the next stored file; the transport to the next server start
+        int dedup = dedupCombo.getSelectionModel().getSelectedIndex();
+        LocalStorage.saveTransferDedup(DEDUP_MODES.get(Math.max(0, dedup)));
+        LocalStorage.saveTransferFsync(fsyncCheck.isSelected());
+        int transport = transportCombo.getSelectionModel().getSelectedIndex();
+        LocalStorage.saveTransferTransport(TRANSPORTS.get(Math.max(0, transport)));
+        server.reloadTransferSettings();
+
         // Save Language
         String selectedLang = languageCombo.getValue();
         String langCode = "العربية".equals(selectedLang) ? "ar" : "en";
@@ -172,6 +231,34 @@ public class SettingsController {
         UpdateNotifier.checkForUpdates(deviceIdField, true);
     }
 
+    /**
+     * Bytes per second as MB/s for the settings fields; empty means no limit.
+     * Exact, so saving the form without touching a field keeps its limit.
+     */
+    private static String formatLimit(long bytesPerSecond) {
+        if (bytesPerSecond <= 0) {
+            return "";
+        }
+        return BigDecimal.valueOf(bytesPerSecond).movePointLeft(6).stripTrailingZeros().toPlainString();
+    }
+
+    /** MB/s from a settings field, in bytes per second; unreadable input keeps the current value. */
+    private static long parseLimit(String text, long current) {
+        if (text == null || text.isBlank()) {
+            return 0;
+        }
+        try {
+            BigDecimal mb = new BigDecimal(text.trim().replace(',', '.'));
+            if (mb.signum() <= 0) {
+                return 0;
+            }
+            // A tiny positive limit is still a limit, never "unlimited"
+            return Math.max(1, mb.movePointRight(6).setScale(0, RoundingMode.HALF_UP).longValueExact());
+        } catch (NumberFormatException | ArithmeticException e) {
+            return current;
+        }
+    }
+
     // -------------------------------------------------------------
     // RETURN TO DASHBOARD + REFRESH DATA
     // -------------------------------------------------------------
@@ -1,25 +1,41 @@
 package com.airbamin.desktop.ui;
 
 import com.airbamin.desktop.storage.LocalStorage;
+import com.airbamin.desktop.transfer.AdmissionController;
 import com.airbamin.desktop.transfer.LocalTransferServer;
+import com.airbamin.desktop.transfer.MetricsRegistry;
+import com.airbamin.desktop.transfer.TransferManager;
 import com.airbamin.desktop.transfer.TransferService;
 import com.airbamin.desktop.utils.AuthManager;
 import com.airbamin.desktop.utils.WindowsNotification;
+import javafx.animation.Animation;
+import javafx.animation.KeyFrame;
 import javafx.animation.PauseTransition;
+import javafx.animation.Timeline;
 import javafx.application.Platform;
 import javafx.fxml.FXML;
+import javafx.geometry.Pos;
+import javafx.scene.control.Button;
 import javafx.scene.control.Hyperlink;
 import javafx.scene.control.Label;
 import javafx.scene.control.ProgressBar;
 import javafx.scene.image.ImageView;
+import javafx.scene.layout.HBox;
+import javafx.scene.layout.Priority;
+import javafx.scene.layout.VBox;
 import javafx.scene.shape.SVGPath;
 import javafx.util.Duration;
 import java.awt.Desktop;
 import java.awt.Toolkit;
 import java.io.IOException;
 import java.text.MessageFormat;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.ResourceBundle;
+import java.util.Set;
 import java.util.concurrent.atomic.AtomicReference;
 
 public class TransferController {
@@ -38,12 +54,27 @@ public class TransferController {
     private ProgressBar progressBar;
     @FXML
     private Label statusLabel;
+    @FXML
+    private Label diagThroughputLabel;
+    @FXML
+    private Label diagActiveLabel;
+    @FXML
+    private Label diagRequestsLabel;
+    @FXML
+    private Label diagLatencyLabel;
+    @FXML
+    private Label transfersEmptyLabel;
+    @FXML
+    private VBox transfersBox;
 
     private final LocalTransferServer localServer = LocalTransferServer.getInstance();
     private final TransferService transferService = localServer.getTransferService();
     private final com.google.zxing.qrcode.QRCodeWriter qrWriter = new com.google.zxing.qrcode.QRCodeWriter();
     private final AtomicReference<String> pendingStatus = new AtomicReference<>();
     private final PauseTransition resetTimer = new PauseTransition(Duration.seconds(1.5));
+    /** Rows of the transfers card by transfer id, updated in place on every tick. */
+    private final Map<Long, TransferRow> transferRows = new LinkedHashMap<>();
+    private final Timeline diagnosticsTimer = new Timeline(new KeyFrame(Duration.seconds(1), e -> refreshDiagnostics()));
     private ResourceBundle bundle;
 
     private final LocalTransferServer.ServerListener serverListener = new LocalTransferServer.ServerListener() {
@@ -61,9 +92,15 @@ public class TransferController {
         }
 
         @Override
-        public void onUploadProgress(String filename, String remoteIp, double percent) {
-            updatePhoneProgress(percent / 100.0, MessageFormat.format(bundle.getString("transfer.status.progress"),
-                    filename, String.format("%.0f", percent)));
+        public void onUploadProgress(java.util.List<LocalTransferServer.UploadProgress> updates) {
+            // One FX update per batch; show the upload furthest from finishing.
+            LocalTransferServer.UploadProgress shown = updates.get(0);
+            for (LocalTransferServer.UploadProgress update : updates) {
+                if (update.percent() < shown.percent()) {
+                    shown = update;
+                }
+            }
+            updatePhoneProgress(shown.percent() / 100.0, progressMessage(shown));
         }
 
         @Override
@@ -127,10 +164,15 @@ public class TransferController {
 
         resetTimer.setOnFinished(event -> resetToIdle());
 
+        refreshDiagnostics();
+        diagnosticsTimer.setCycleCount(Animation.INDEFINITE);
+        diagnosticsTimer.play();
+
         if (rootPane != null) {
             rootPane.sceneProperty().addListener((obs, oldScene, newScene) -> {
                 if (newScene == null) {
                     localServer.removeListener(serverListener);
+                    diagnosticsTimer.stop();
                 }
             });
         }
@@ -240,6 +282,160 @@ public class TransferController {
         }
     }
 
+    private void refreshDiagnostics() {
+        if (diagThroughputLabel == null) {
+            return;
+        }
+        MetricsRegistry.Snapshot metrics = localServer.getMetrics().snapshot();
+        AdmissionController.Snapshot admission = localServer.getAdmissionSnapshot();
+        diagThroughputLabel.setText(MessageFormat.format(bundle.getString("transfer.diag.throughput.value"),
+                formatRate(metrics.bytesInPerSecond()), formatRate(metrics.bytesOutPerSecond())));
+        diagActiveLabel.setText(MessageFormat.format(bundle.getString("transfer.diag.active.value"),
+                metrics.inFlight(), metrics.clients(), admission.queueLength()));
+        diagRequestsLabel.setText(MessageFormat.format(bundle.getString("transfer.diag.requests.value"),
+                metrics.requests(), metrics.errors(), admission.rejectedTotal()));
+        if (metrics.slowestEndpoint() == null) {
+            diagLatencyLabel.setText(bundle.getString("transfer.diag.latency.none"));
+        } else {
+            double p95 = metrics.slowestP95Seconds();
+            String latency = p95 < 1 ? String.format("%.0f ms", p95 * 1000) : String.format("%.1f s", p95);
+            diagLatencyLabel.setText(metrics.slowestEndpoint() + " · ≤ " + latency);
+        }
+        refreshTransfers();
+    }
+
+    private void refreshTransfers() {
+        if (transfersBox == null) {
+            return;
+        }
+        List<TransferManager.Snapshot> transfers = localServer.getTransferManager().snapshot();
+        Set<Long> seen = new HashSet<>();
+        for (TransferManager.Snapshot transfer : transfers) {
+            seen.add(transfer.id());
+            TransferRow row = transferRows.get(transfer.id());
+            if (row == null) {
+                row = new TransferRow(transfer.id());
+                transferRows.put(transfer.id(), row);
+                transfersBox.getChildren().add(row.root);
+            }
+            row.update(transfer);
+        }
+        transferRows.entrySet().removeIf(entry -> {
+            if (seen.contains(entry.getKey())) {
+                return false;
+            }
+            transfersBox.getChildren().remove(entry.getValue().root);
+            return true;
+        });
+        boolean empty = transferRows.isEmpty();
+        transfersEmptyLabel.setVisible(empty);
+        transfersEmptyLabel.setManaged(empty);
+    }
+
+    /** One transfer: name and direction, progress, and its pause, priority and cancel controls. */
+    private final class TransferRow {
+        final VBox root = new VBox(4);
+        final Label nameLabel = new Label();
+        final Label detailLabel = new Label();
+        final ProgressBar bar = new ProgressBar(0);
+        final Button pauseButton = new Button();
+        final Button priorityButton = new Button();
+        final Button cancelButton = new Button(bundle.getString("transfer.queue.cancel"));
+        TransferManager.Snapshot current;
+
+        TransferRow(long id) {
+            nameLabel.getStyleClass().add("body-text");
+            detailLabel.getStyleClass().addAll("body-text", "label-dim");
+            bar.setMaxWidth(Double.MAX_VALUE);
+            HBox.setHgrow(bar, Priority.ALWAYS);
+            for (Button button : List.of(pauseButton, priorityButton, cancelButton)) {
+                button.getStyleClass().add("ghost-button");
+            }
+            TransferManager manager = localServer.getTransferManager();
+            pauseButton.setOnAction(e -> {
+                if (current != null && current.state() == TransferManager.State.PAUSED) {
+                    manager.resume(id);
+                } else {
+                    manager.pause(id);
+                }
+                refreshTransfers();
+            });
+            priorityButton.setOnAction(e -> {
+                if (current != null) {
+                    TransferManager.Priority[] all = TransferManager.Priority.values();
+                    manager.setPriority(id, all[(current.priority().ordinal() + 1) % all.length]);
+                    refreshTransfers();
+                }
+            });
+            cancelButton.setOnAction(e -> {
+                manager.cancel(id);
+                refreshTransfers();
+            });
+            HBox controls = new HBox(8, bar, pauseButton, priorityButton, cancelButton);
+            controls.setAlignment(Pos.CENTER_LEFT);
+            root.getChildren().addAll(nameLabel, controls, detailLabel);
+        }
+
+        void update(TransferManager.Snapshot transfer) {
+            current = transfer;
+            String direction = transfer.direction() == TransferManager.Direction.UPLOAD
+                    ? "transfer.queue.upload" : "transfer.queue.download";
+            nameLabel.setText(MessageFormat.format(bundle.getString(direction), transfer.name()));
+            double percent = transfer.percent();
+            bar.setProgress(percent < 0 ? ProgressBar.INDETERMINATE_PROGRESS : percent / 100);
+
+            String state = switch (transfer.state()) {
+                case ACTIVE -> formatRate(transfer.bytesPerSecond());
+                case PAUSED -> bundle.getString("transfer.queue.state.paused");
+                case COMPLETED -> bundle.getString("transfer.queue.state.completed");
+                case CANCELLED -> bundle.getString("transfer.queue.state.cancelled");
+                case FAILED -> bundle.getString("transfer.queue.state.failed");
+            };
+            String done = percent < 0 ? formatSize(transfer.bytesDone()) : String.format("%.0f%%", percent);
+            detailLabel.setText(done + " · " + state + " · " + transfer.client());
+
+            boolean finished = transfer.state().finished();
+            pauseButton.setText(bundle.getString(transfer.state() == TransferManager.State.PAUSED
+                    ? "transfer.queue.resume" : "transfer.queue.pause"));
+            priorityButton.setText(bundle.getString("transfer.queue.priority."
+                    + transfer.priority().name().toLowerCase(Locale.ROOT)));
+            pauseButton.setDisable(finished);
+            priorityButton.setDisable(finished);
+            cancelButton.setDisable(finished);
+        }
+    }
+
+    private static String formatSize(long bytes) {
+        if (bytes >= 1024 * 1024) {
+            return String.format("%.1f MB", bytes / (1024.0 * 1024));
+        }
+        return String.format("%.0f KB", bytes / 1024.0);
+    }
+
+    private String progressMessage(LocalTransferServer.UploadProgress update) {
+        String percent = String.format("%.0f", update.percent());
+        if (update.bytesPerSecond() <= 0 || update.etaSeconds() < 0) {
+            return MessageFormat.format(bundle.getString("transfer.status.progress"), update.filename(), percent);
+        }
+        long eta = update.etaSeconds();
+        String etaText = eta >= 3600
+                ? String.format("%d:%02d:%02d", eta / 3600, (eta / 60) % 60, eta % 60)
+                : String.format("%d:%02d", eta / 60, eta % 60);
+        return MessageFormat.format(bundle.getString("transfer.status.progress.rate"), update.filename(), percent,
+                formatRate(update.bytesPerSecond()), etaText);
+    }
+
+    private static String formatRate(long bytesPerSecond) {
+        double value = bytesPerSecond;
+        if (value >= 1024 * 1024) {
+            return String.format("%.1f MB/s", value / (1024 * 1024));
+        }
+        if (value >= 1024) {
+            return String.format("%.0f KB/s", value / 1024);
+        }
+        return String.format("%.0f B/s", value);
+    }
+
     private void updatePhoneProgress(double progress, String message) {
         if (Platform.isFxApplicationThread()) {
             progressBar.setProgress(progress);
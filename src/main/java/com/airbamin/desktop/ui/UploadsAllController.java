@@ -1,5 +1,6 @@
 package com.airbamin.desktop.ui;
 
+import com.airbamin.desktop.transfer.LocalTransferServer;
 import com.airbamin.desktop.transfer.TransferService;
 import com.airbamin.desktop.transfer.TransferService.FileRecord;
 import com.airbamin.desktop.utils.AuthManager;
@@ -29,7 +30,7 @@ public class UploadsAllController {
     @FXML
     private Label statusLabel;
 
-    private final TransferService transferService = new TransferService();
+    private final TransferService transferService = LocalTransferServer.getInstance().getTransferService();
     private final ObservableList<FileRecord> tableData = FXCollections.observableArrayList();
 
     @FXML
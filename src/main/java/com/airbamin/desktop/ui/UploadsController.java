@@ -1,5 +1,6 @@
 package com.airbamin.desktop.ui;
 
+import com.airbamin.desktop.transfer.LocalTransferServer;
 import com.airbamin.desktop.transfer.TransferService;
 import com.airbamin.desktop.transfer.TransferService.FileRecord;
 import com.airbamin.desktop.utils.AuthManager;
@@ -17,7 +18,6 @@ import java.io.IOException;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
 import java.util.List;
-import java.util.stream.Collectors;
 
 public class UploadsController {
 
@@ -32,7 +32,7 @@ public class UploadsController {
     @FXML
     private Label statusLabel;
 
-    private final TransferService transferService = new TransferService();
+    private final TransferService transferService = LocalTransferServer.getInstance().getTransferService();
     private final ObservableList<FileRecord> tableData = FXCollections.observableArrayList();
 
     @FXML
@@ -74,11 +74,8 @@ public class UploadsController {
 
     private void loadFiles() {
         try {
-            List<FileRecord> records = transferService.listFiles();
             LocalDateTime cutoff = LocalDateTime.now(ZoneId.systemDefault()).minusDays(1);
-            List<FileRecord> latest = records.stream()
-                    .filter(record -> record.lastModified().isAfter(cutoff))
-                    .collect(Collectors.toList());
+            List<FileRecord> latest = transferService.listFilesSince(cutoff);
             tableData.setAll(latest);
             statusLabel.setText("Showing last 24h: " + latest.size());
         } catch (IOException e) {
@@ -0,0 +1,180 @@
+package com.airbamin.desktop.mirror;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Mirror latency from the phone's socket write to the end of decoding, over
+ * loopback, for the {@link AccessUnitQueue} ring and for the piped-stream
+ * bridge it replaced. A sender paces synthetic H.264 access units at 60 fps
+ * (an IDR every second, reference P slices between) in the phone's
+ * length-prefixed framing. For the ring, the socket thread runs
+ * {@link MirrorReceiver#readUnits}, the receiver's own read loop; the piped
+ * bridge is a copy of the loop it replaced. The decode thread stands in for
+ * libavcodec by sleeping a fixed time per unit. Reports p50/p99/max latency
+ * and how many units reached the decoder. Arguments: frames to send (600)
+ * and simulated decode time per unit in microseconds (4000).
+ */
+public final class MirrorLatencyBenchmark {
+
+    private static final int FPS = 60;
+    private static final int KEY_BYTES = 150 * 1024;
+    private static final int DELTA_BYTES = 30 * 1024;
+    private static final int PIPE_BYTES = 1024 * 1024;
+
+    public static void main(String[] args) throws Exception {
+        int frames = args.length > 0 ? Integer.parseInt(args[0]) : 600;
+        long decodeNanos = TimeUnit.MICROSECONDS.toNanos(args.length > 1 ? Long.parseLong(args[1]) : 4000);
+        System.out.printf("%d frames at %d fps, %d us decode per frame%n", frames, FPS, decodeNanos / 1000);
+        report("Piped bridge", run(frames, decodeNanos, false));
+        report("AccessUnitQueue", run(frames, decodeNanos, true));
+    }
+
+    /** @return per-frame latency in nanoseconds, 0 for frames that never reached the decoder */
+    private static long[] run(int frames, long decodeNanos, boolean ring) throws Exception {
+        long[] sentAt = new long[frames];
+        long[] latency = new long[frames];
+        try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            Thread sender = new Thread(() -> send(server.getLocalPort(), frames, sentAt), "bench-phone");
+            sender.start();
+            try (Socket socket = server.accept()) {
+                DataInputStream in = new DataInputStream(socket.getInputStream());
+                if (ring) {
+                    receiveIntoRing(in, decodeNanos, sentAt, latency);
+                } else {
+                    receiveIntoPipe(in, frames, decodeNanos, sentAt, latency);
+                }
+            }
+            sender.join();
+        }
+        return latency;
+    }
+
+    /** The current path: the receiver's loop fills pooled slots, the decoder takes them. */
+    private static void receiveIntoRing(DataInputStream in, long decodeNanos, long[] sentAt, long[] latency)
+            throws Exception {
+        AccessUnitQueue units = new AccessUnitQueue(64, AccessUnitQueue.DEFAULT_BUDGET_MILLIS);
+        Thread decoder = new Thread(() -> {
+            AccessUnitQueue.Unit unit;
+            while ((unit = units.take()) != null) {
+                LockSupport.parkNanos(decodeNanos);
+                int frame = frameIndex(unit.data, unit.length);
+                latency[frame] = System.nanoTime() - sentAt[frame];
+                units.release();
+            }
+        }, "bench-decoder");
+        decoder.start();
+        // Returns once the sender closes the connection after its last unit
+        MirrorReceiver.readUnits(in, units, new MirrorStats(units), () -> true);
+        // Let the decoder finish what is queued, then stop it
+        while (units.depth() > 0) {
+            Thread.sleep(1);
+        }
+        Thread.sleep(TimeUnit.NANOSECONDS.toMillis(decodeNanos) + 10);
+        units.close();
+        decoder.join();
+    }
+
+    /** The old path: a fresh array per unit, pushed through a 1 MB PipedOutputStream. */
+    private static void receiveIntoPipe(DataInputStream in, int frames, long decodeNanos, long[] sentAt,
+            long[] latency) throws Exception {
+        PipedInputStream pipeIn = new PipedInputStream(PIPE_BYTES);
+        PipedOutputStream pipeOut = new PipedOutputStream(pipeIn);
+        Thread decoder = new Thread(() -> {
+            try (DataInputStream stream = new DataInputStream(pipeIn)) {
+                for (int i = 0; i < frames; i++) {
+                    byte[] data = new byte[stream.readInt()];
+                    stream.readFully(data);
+                    LockSupport.parkNanos(decodeNanos);
+                    int frame = frameIndex(data, data.length);
+                    latency[frame] = System.nanoTime() - sentAt[frame];
+                }
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }, "bench-decoder");
+        decoder.start();
+        try (DataOutputStream out = new DataOutputStream(pipeOut)) {
+            for (int i = 0; i < frames; i++) {
+                byte[] data = new byte[in.readInt()];
+                in.readFully(data);
+                out.writeInt(data.length);
+                out.write(data);
+            }
+        }
+        decoder.join();
+    }
+
+    private static void send(int port, int frames, long[] sentAt) {
+        byte[] key = unit(KEY_BYTES, (byte) 0x65);
+        byte[] delta = unit(DELTA_BYTES, (byte) 0x41);
+        long interval = TimeUnit.SECONDS.toNanos(1) / FPS;
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port);
+                DataOutputStream out = new DataOutputStream(socket.getOutputStream())) {
+            socket.setTcpNoDelay(true);
+            long start = System.nanoTime();
+            for (int i = 0; i < frames; i++) {
+                long due = start + i * interval;
+                while (System.nanoTime() < due) {
+                    LockSupport.parkNanos(due - System.nanoTime());
+                }
+                byte[] data = i % FPS == 0 ? key : delta;
+                stampFrameIndex(data, i);
+                sentAt[i] = System.nanoTime();
+                out.writeInt(data.length);
+                out.write(data);
+                out.flush();
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /** An Annex-B unit with one NAL of the given header and filler that contains no start code. */
+    private static byte[] unit(int length, byte nalHeader) {
+        byte[] data = new byte[length];
+        Arrays.fill(data, (byte) 0x55);
+        data[0] = 0;
+        data[1] = 0;
+        data[2] = 0;
+        data[3] = 1;
+        data[4] = nalHeader;
+        return data;
+    }
+
+    /** Frame number in the last three bytes, seven bits each with the top bit set, so never a zero byte. */
+    private static void stampFrameIndex(byte[] data, int frame) {
+        int end = data.length;
+        data[end - 3] = (byte) (0x80 | (frame >>> 14) & 0x7F);
+        data[end - 2] = (byte) (0x80 | (frame >>> 7) & 0x7F);
+        data[end - 1] = (byte) (0x80 | frame & 0x7F);
+    }
+
+    private static int frameIndex(byte[] data, int length) {
+        return (data[length - 3] & 0x7F) << 14 | (data[length - 2] & 0x7F) << 7 | data[length - 1] & 0x7F;
+    }
+
+    private static void report(String name, long[] latency) {
+        long[] decoded = Arrays.stream(latency).filter(nanos -> nanos > 0).sorted().toArray();
+        if (decoded.length == 0) {
+            System.out.printf("%-16s no frames decoded%n", name);
+            return;
+        }
+        System.out.printf("%-16s p50 %6.2f ms  p99 %6.2f ms  max %6.2f ms  decoded %d/%d%n", name,
+                millis(decoded[decoded.length / 2]), millis(decoded[(int) (decoded.length * 0.99)]),
+                millis(decoded[decoded.length - 1]), decoded.length, latency.length);
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1e6;
+    }
+}
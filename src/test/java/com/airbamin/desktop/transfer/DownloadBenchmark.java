@@ -0,0 +1,122 @@
+package com.airbamin.desktop.transfer;
+
+import com.sun.net.httpserver.HttpHandler;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Loopback download throughput: the old {@code Files.copy} body against
+ * {@link DownloadEngine}, on both transports. Each combination serves the same
+ * file from the page cache to a local client that reads and discards it, and
+ * reports the best of several rounds in MB/s. Arguments: file size in MB
+ * (512) and rounds (5).
+ */
+public final class DownloadBenchmark {
+
+    private static final int READ_BUFFER = 1024 * 1024;
+
+    public static void main(String[] args) throws Exception {
+        int sizeMb = args.length > 0 ? Integer.parseInt(args[0]) : 512;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        Path file = Files.createTempFile("airbamin-download-bench", ".bin");
+        try {
+            fill(file, sizeMb * 1024L * 1024L);
+            long size = Files.size(file);
+            System.out.printf("File: %d MB, best of %d rounds%n", sizeMb, rounds);
+            for (TransferTransport.Kind kind : TransferTransport.Kind.values()) {
+                double copy = run(kind, file, size, rounds, exchangeBody -> Files.copy(file, exchangeBody));
+                DownloadEngine engine = new DownloadEngine();
+                double zeroCopy = run(kind, file, size, rounds, exchangeBody -> engine.send(file, 0, size, exchangeBody));
+                System.out.printf("%-4s Files.copy     %8.1f MB/s%n", kind, copy);
+                System.out.printf("%-4s DownloadEngine %8.1f MB/s  (%.2fx)%n", kind, zeroCopy, zeroCopy / copy);
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private interface Body {
+        void write(OutputStream out) throws IOException;
+    }
+
+    private static double run(TransferTransport.Kind kind, Path file, long size, int rounds, Body body)
+            throws IOException {
+        int port = freePort();
+        AdmissionController admission = new AdmissionController();
+        TransferTransport transport = TransferTransport.create(kind, new InetSocketAddress("127.0.0.1", port),
+                admission);
+        HttpHandler handler = exchange -> {
+            exchange.getResponseHeaders().set("Content-Type", "application/octet-stream");
+            exchange.sendResponseHeaders(200, size);
+            try (OutputStream out = exchange.getResponseBody()) {
+                body.write(out);
+            }
+        };
+        transport.createContext("/download", handler);
+        transport.start();
+        try {
+            URI uri = URI.create("http://127.0.0.1:" + port + "/download");
+            download(uri, size); // warm-up
+            double best = 0;
+            for (int i = 0; i < rounds; i++) {
+                long start = System.nanoTime();
+                download(uri, size);
+                double seconds = (System.nanoTime() - start) / 1e9;
+                best = Math.max(best, size / 1e6 / seconds);
+            }
+            return best;
+        } finally {
+            transport.stop();
+            admission.shutdown();
+        }
+    }
+
+    private static void download(URI uri, long expected) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) uri.toURL().openConnection();
+        long total = 0;
+        try (InputStream in = connection.getInputStream()) {
+            byte[] buffer = new byte[READ_BUFFER];
+            int read;
+            while ((read = in.read(buffer)) >= 0) {
+                total += read;
+            }
+        } finally {
+            connection.disconnect();
+        }
+        if (total != expected) {
+            throw new IOException("Received " + total + " of " + expected + " bytes");
+        }
+    }
+
+    static void fill(Path file, long size) throws IOException {
+        byte[] chunk = new byte[READ_BUFFER];
+        ThreadLocalRandom.current().nextBytes(chunk);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (long written = 0; written < size; written += chunk.length) {
+                ByteBuffer buffer = ByteBuffer.wrap(chunk, 0, (int) Math.min(chunk.length, size - written));
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+        }
+    }
+
+    static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
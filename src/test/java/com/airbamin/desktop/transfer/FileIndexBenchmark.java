@@ -0,0 +1,86 @@
+package com.airbamin.desktop.transfer;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.LocalDateTime;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Upload-folder listing cost at scale: the old full rescan ({@code Files.list},
+ * {@code readAttributes} per file, sort) against {@link FileIndex}, on a folder
+ * of empty files with spread-out modification times. Reports the index's
+ * first scan, then the mean time of a full listing and of the 24h listing.
+ * Arguments: number of files (100000) and rounds (20).
+ */
+public final class FileIndexBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        Path dir = Files.createTempDirectory("airbamin-index-bench");
+        try {
+            long now = System.currentTimeMillis();
+            for (int i = 0; i < count; i++) {
+                Path file = Files.createFile(dir.resolve("file_" + i + ".bin"));
+                // One file a minute going back, so about 1440 fall inside the last day
+                Files.setLastModifiedTime(file, FileTime.fromMillis(now - i * 60_000L));
+            }
+            System.out.printf("Folder: %d files, %d rounds%n", count, rounds);
+
+            double rescan = mean(rounds, () -> rescan(dir).size());
+            System.out.printf("Full rescan        %8.2f ms%n", rescan);
+
+            long start = System.nanoTime();
+            FileIndex index = FileIndex.forDirectory(dir);
+            int listed = index.list().size();
+            System.out.printf("Index first scan   %8.2f ms (%d files)%n", (System.nanoTime() - start) / 1e6, listed);
+
+            double list = mean(rounds, () -> index.list().size());
+            LocalDateTime cutoff = LocalDateTime.now().minusHours(24);
+            double since = mean(rounds, () -> index.listSince(cutoff).size());
+            System.out.printf("Index list()       %8.2f ms  (%.0fx faster than a rescan)%n", list, rescan / list);
+            System.out.printf("Index listSince 24h%8.2f ms%n", since);
+        } finally {
+            try (Stream<Path> files = Files.walk(dir)) {
+                files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+
+    private interface Listing {
+        int run() throws IOException;
+    }
+
+    /** Mean milliseconds per call, after one warm-up call. */
+    private static double mean(int rounds, Listing listing) throws IOException {
+        listing.run();
+        long start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            listing.run();
+        }
+        return (System.nanoTime() - start) / 1e6 / rounds;
+    }
+
+    /** What TransferService.listFiles did before the index. */
+    private static List<TransferService.FileRecord> rescan(Path dir) throws IOException {
+        try (Stream<Path> stream = Files.list(dir)) {
+            return stream
+                    .filter(Files::isRegularFile)
+                    .map(path -> {
+                        try {
+                            return TransferService.toFileRecord(path);
+                        } catch (IOException e) {
+                            return new TransferService.FileRecord(path.getFileName().toString(), 0L,
+                                    LocalDateTime.MIN);
+                        }
+                    })
+                    .sorted(Comparator.comparing(TransferService.FileRecord::lastModified).reversed())
+                    .collect(Collectors.toList());
+        }
+    }
+}
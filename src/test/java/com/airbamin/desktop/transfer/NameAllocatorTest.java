@@ -0,0 +1,96 @@
+package com.airbamin.desktop.transfer;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class NameAllocatorTest {
+
+    private static final int UPLOADS = 64;
+
+    @Test
+    void parallelUploadsOfOneNameNeverShareAFile(@TempDir Path dir) throws Exception {
+        NameAllocator names = NameAllocator.forDirectory(dir);
+        StagingArea staging = StagingArea.forDirectory(dir);
+        ExecutorService pool = Executors.newFixedThreadPool(16);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<Path>> results = new ArrayList<>();
+        try {
+            for (int i = 0; i < UPLOADS; i++) {
+                String content = "upload " + i;
+                results.add(pool.submit(() -> {
+                    Path part = staging.createPart();
+                    Files.writeString(part, content);
+                    start.await();
+                    return names.publish(part, "IMG_0001.jpg");
+                }));
+            }
+            start.countDown();
+
+            Set<Path> published = new HashSet<>();
+            for (int i = 0; i < UPLOADS; i++) {
+                Path path = results.get(i).get();
+                assertTrue(published.add(path), "two uploads were published as " + path);
+                assertEquals("upload " + i, Files.readString(path, StandardCharsets.UTF_8));
+            }
+            assertTrue(published.contains(dir.resolve("IMG_0001.jpg")));
+            try (Stream<Path> files = Files.list(dir)) {
+                assertEquals(UPLOADS, files.filter(Files::isRegularFile).count());
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    void numberedFilesInTheFolderDoNotDisplacePlainNames(@TempDir Path dir) throws Exception {
+        Files.writeString(dir.resolve("IMG_0001.jpg"), "camera");
+        Files.writeString(dir.resolve("photo_123456789.jpg"), "camera");
+        NameAllocator names = NameAllocator.forDirectory(dir);
+        StagingArea staging = StagingArea.forDirectory(dir);
+
+        assertEquals(dir.resolve("IMG.jpg"), names.publish(staging.createPart(), "IMG.jpg"));
+        assertEquals(dir.resolve("photo.jpg"), names.publish(staging.createPart(), "photo.jpg"));
+    }
+
+    @Test
+    void takenNamesGetTheNextFreeSuffix(@TempDir Path dir) throws Exception {
+        Files.writeString(dir.resolve("notes.txt"), "existing");
+        Files.writeString(dir.resolve("notes_1.txt"), "existing");
+        NameAllocator names = NameAllocator.forDirectory(dir);
+        StagingArea staging = StagingArea.forDirectory(dir);
+
+        assertEquals(dir.resolve("notes_2.txt"), names.publish(staging.createPart(), "notes.txt"));
+        assertEquals(dir.resolve("notes_3.txt"), names.publish(staging.createPart(), "notes.txt"));
+        // A file copied in by hand after the folder was listed is skipped, not replaced
+        Files.writeString(dir.resolve("notes_4.txt"), "by hand");
+        assertEquals(dir.resolve("notes_5.txt"), names.publish(staging.createPart(), "notes.txt"));
+        assertEquals("by hand", Files.readString(dir.resolve("notes_4.txt")));
+    }
+
+    @Test
+    void aDeletedFilesNameIsUsedAgain(@TempDir Path dir) throws Exception {
+        NameAllocator names = NameAllocator.forDirectory(dir);
+        StagingArea staging = StagingArea.forDirectory(dir);
+
+        Path first = names.publish(staging.createPart(), "photo.jpg");
+        assertEquals(dir.resolve("photo_1.jpg"), names.publish(staging.createPart(), "photo.jpg"));
+        Files.delete(first);
+        assertEquals(dir.resolve("photo.jpg"), names.publish(staging.createPart(), "photo.jpg"));
+    }
+}
@@ -0,0 +1,123 @@
+package com.airbamin.desktop.transfer;
+
+import com.google.gson.JsonParser;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.Stream;
+
+/**
+ * Loopback throughput of parallel upload sessions as the number of streams
+ * grows. For each stream count, one file is uploaded as that many equal byte
+ * ranges on separate connections and committed, through the real
+ * {@link LocalTransferServer} endpoints, into a temporary upload folder.
+ * Reports aggregate MB/s from the first PUT to the commit response, best of
+ * several rounds. Arguments: file size in MB (512) and rounds (3).
+ */
+public final class ParallelUploadBenchmark {
+
+    private static final int[] STREAMS = { 1, 2, 4, 8 };
+    private static final int CHUNK = 256 * 1024;
+
+    public static void main(String[] args) throws Exception {
+        int sizeMb = args.length > 0 ? Integer.parseInt(args[0]) : 512;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+        long size = sizeMb * 1024L * 1024L;
+        byte[] chunk = new byte[CHUNK];
+        ThreadLocalRandom.current().nextBytes(chunk);
+
+        Path dir = Files.createTempDirectory("airbamin-upload-bench");
+        LocalTransferServer server = LocalTransferServer.getInstance();
+        server.updateUploadDir(dir);
+        server.setBandwidthLimits(0, 0);
+        if (!server.start()) {
+            throw new IllegalStateException("Transfer server did not start");
+        }
+        ExecutorService clients = Executors.newFixedThreadPool(STREAMS[STREAMS.length - 1]);
+        try {
+            String base = "http://127.0.0.1:" + server.getActivePort() + "/upload/sessions";
+            System.out.printf("File: %d MB, best of %d rounds%n", sizeMb, rounds);
+            upload(base, size, 1, chunk, clients, dir); // warm-up
+            double single = 0;
+            for (int streams : STREAMS) {
+                double best = 0;
+                for (int i = 0; i < rounds; i++) {
+                    best = Math.max(best, upload(base, size, streams, chunk, clients, dir));
+                }
+                if (streams == 1) {
+                    single = best;
+                }
+                System.out.printf("%d stream(s) %8.1f MB/s  (%.2fx)%n", streams, best, best / single);
+            }
+        } finally {
+            clients.shutdownNow();
+            server.stop();
+            try (Stream<Path> files = Files.walk(dir)) {
+                files.sorted((a, b) -> b.compareTo(a)).forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+
+    /** Upload one file as {@code streams} concurrent ranges; returns MB/s. */
+    private static double upload(String base, long size, int streams, byte[] chunk, ExecutorService clients,
+            Path dir) throws Exception {
+        String created = request("POST", base + "?filename=bench.bin&mode=parallel&size=" + size, 0, null);
+        String id = JsonParser.parseString(created).getAsJsonObject().get("id").getAsString();
+
+        long start = System.nanoTime();
+        List<Future<String>> ranges = new ArrayList<>();
+        long share = size / streams;
+        for (int i = 0; i < streams; i++) {
+            long offset = i * share;
+            long length = i == streams - 1 ? size - offset : share;
+            ranges.add(clients.submit(() -> request("PUT", base + "/" + id + "?offset=" + offset, length, chunk)));
+        }
+        for (Future<String> range : ranges) {
+            range.get();
+        }
+        String committed = request("POST", base + "/" + id + "/commit", 0, null);
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        Files.deleteIfExists(dir.resolve(committed.substring("Uploaded ".length())));
+        return size / 1e6 / seconds;
+    }
+
+    /** Send a request with {@code length} body bytes cycled from {@code chunk}; returns the response body. */
+    private static String request(String method, String url, long length, byte[] chunk) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) URI.create(url).toURL().openConnection();
+        try {
+            connection.setRequestMethod(method);
+            if (length > 0) {
+                connection.setDoOutput(true);
+                connection.setFixedLengthStreamingMode(length);
+                connection.setRequestProperty("Content-Type", "application/octet-stream");
+                try (OutputStream out = connection.getOutputStream()) {
+                    for (long sent = 0; sent < length; sent += chunk.length) {
+                        out.write(chunk, 0, (int) Math.min(chunk.length, length - sent));
+                    }
+                }
+            }
+            int status = connection.getResponseCode();
+            InputStream body = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+            String text = body == null ? "" : new String(body.readAllBytes(), StandardCharsets.UTF_8);
+            if (status >= 300) {
+                throw new IOException(method + " " + url + " answered " + status + ": " + text);
+            }
+            return text;
+        } finally {
+            connection.disconnect();
+        }
+    }
+}
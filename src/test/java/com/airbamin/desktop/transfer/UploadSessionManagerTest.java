@@ -0,0 +1,116 @@
+package com.airbamin.desktop.transfer;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Checksum;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class UploadSessionManagerTest {
+
+    @Test
+    void damagedRetryLeavesReceivedBytesAlone(@TempDir Path dir) throws Exception {
+        UploadSessionManager sessions = new UploadSessionManager(new TransferService(dir));
+        byte[] good = "good bytes".getBytes(StandardCharsets.UTF_8);
+        byte[] damaged = "gooX bytes".getBytes(StandardCharsets.UTF_8);
+        UploadSessionManager.UploadSession session = sessions.create("a.txt", good.length,
+                UploadSessionManager.Mode.PARALLEL);
+
+        sessions.write(session, 0, new ByteArrayInputStream(good), crc(good));
+        assertThrows(ContentDigest.MismatchException.class,
+                () -> sessions.write(session, 0, new ByteArrayInputStream(damaged), crc(good)));
+
+        assertEquals(good.length, session.contiguous());
+        TransferService.FileRecord record = sessions.commit(session);
+        assertArrayEquals(good, Files.readAllBytes(dir.resolve(record.name())));
+    }
+
+    @Test
+    void damagedLargeChunkIsNoLongerCountedAsReceived(@TempDir Path dir) throws Exception {
+        UploadSessionManager sessions = new UploadSessionManager(new TransferService(dir));
+        byte[] good = new byte[UploadSessionManager.STAGED_CHUNK + 1024];
+        Arrays.fill(good, (byte) 'a');
+        byte[] damaged = good.clone();
+        damaged[damaged.length / 2] = 'b';
+        UploadSessionManager.UploadSession session = sessions.create("big.bin", -1,
+                UploadSessionManager.Mode.SEQUENTIAL);
+
+        sessions.write(session, 0, new ByteArrayInputStream(good), crc(good));
+        assertThrows(ContentDigest.MismatchException.class,
+                () -> sessions.write(session, 0, new ByteArrayInputStream(damaged), crc(good)));
+
+        assertEquals(0, session.contiguous());
+        assertEquals(0, session.received());
+    }
+
+    @Test
+    void commitWaitsForARangeWriteStillRunning(@TempDir Path dir) throws Exception {
+        UploadSessionManager sessions = new UploadSessionManager(new TransferService(dir));
+        byte[] data = "0123456789".getBytes(StandardCharsets.UTF_8);
+        UploadSessionManager.UploadSession session = sessions.create("r.bin", data.length,
+                UploadSessionManager.Mode.PARALLEL);
+        sessions.write(session, 0, new ByteArrayInputStream(data), null);
+
+        // A retried PUT of the same range that stalls half way
+        CountDownLatch halfWritten = new CountDownLatch(1);
+        CountDownLatch resume = new CountDownLatch(1);
+        InputStream stalling = new InputStream() {
+            private int next;
+
+            @Override
+            public int read() throws IOException {
+                if (next == data.length / 2) {
+                    halfWritten.countDown();
+                    try {
+                        resume.await();
+                    } catch (InterruptedException e) {
+                        throw new IOException(e);
+                    }
+                }
+                return next < data.length ? data[next++] : -1;
+            }
+        };
+        CompletableFuture<Long> retry = CompletableFuture.supplyAsync(() -> {
+            try {
+                return sessions.write(session, 0, stalling, null);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        halfWritten.await();
+        CompletableFuture<TransferService.FileRecord> commit = CompletableFuture.supplyAsync(() -> {
+            try {
+                return sessions.commit(session);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+
+        Thread.sleep(200);
+        assertFalse(commit.isDone(), "commit published the file while a range write was running");
+        resume.countDown();
+        retry.get(5, TimeUnit.SECONDS);
+        TransferService.FileRecord record = commit.get(5, TimeUnit.SECONDS);
+        assertArrayEquals(data, Files.readAllBytes(dir.resolve(record.name())));
+    }
+
+    private static int crc(byte[] data) {
+        Checksum checksum = ContentDigest.newChecksum();
+        checksum.update(data, 0, data.length);
+        return ContentDigest.value(checksum);
+    }
+}